@@ -0,0 +1,92 @@
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * An immutable description of an action of a learning environment, as returned to
+ * agents by {@link QLearner#getActionFromState}: the semantic type of the action,
+ * the semantic types of its payload, and its payload.
+ *
+ * <p>
+ * The descriptors are built once from the action space of the environment and
+ * are shared by all the decisions, so their arrays must not be modified.
+ * </p>
+ */
+public final class ActionDescriptor {
+
+  private final String actionTag;
+  private final Object[] payloadTags;
+  private final Object[] payload;
+
+  /**
+   * Creates the descriptor of an action of the action space
+   *
+   * @param action the action
+   */
+  public ActionDescriptor(Action action) {
+    this.actionTag = action.getActionTag();
+    this.payloadTags = action.getPayloadTags().clone();
+    this.payload = action.getPayload().clone();
+  }
+
+  /**
+   * Creates the descriptors of all the actions of an environment, indexed by
+   * action key
+   *
+   * @param environment the environment
+   * @return the descriptors
+   */
+  public static ActionDescriptor[] of(LearningEnvironment environment) {
+    ActionDescriptor[] descriptors = new ActionDescriptor[environment.getActionCount()];
+    for (int action = 0; action < descriptors.length; action++) {
+      descriptors[action] = new ActionDescriptor(environment.getAction(action));
+    }
+    return descriptors;
+  }
+
+  public String getActionTag() {
+    return actionTag;
+  }
+
+  public Object[] getPayloadTags() {
+    return payloadTags;
+  }
+
+  public Object[] getPayload() {
+    return payload;
+  }
+
+  /**
+   * Tells whether an action that an agent performed is the described action. The
+   * payload values are compared loosely, as agents may e.g. return numbers as
+   * doubles or booleans as strings.
+   *
+   * @param actionTag the semantic type of the action
+   * @param payload the payload of the action
+   * @return true if the action is the described action
+   */
+  public boolean matches(String actionTag, Object[] payload) {
+    if (!this.actionTag.equals(actionTag) || payload == null || payload.length != this.payload.length) {
+      return false;
+    }
+    for (int i = 0; i < payload.length; i++) {
+      Object expected = this.payload[i];
+      Object actual = payload[i];
+      if (expected instanceof Number && actual instanceof Number) {
+        if (((Number) expected).doubleValue() != ((Number) actual).doubleValue()) {
+          return false;
+        }
+      } else if (!String.valueOf(expected).equals(String.valueOf(actual))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "Action Tag: " + actionTag +
+    ", Payload Tags: " + Arrays.toString(payloadTags) +
+    ", Payload: " + Arrays.toString(payload);
+  }
+}
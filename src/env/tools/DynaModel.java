@@ -0,0 +1,95 @@
+package tools;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A model of a learning environment for Dyna-Q planning, which records the
+ * transitions observed while learning: for each (state, action) pair, the next
+ * state and the immediate reward of the last time the action was performed in the
+ * state.
+ *
+ * <p>
+ * After each real step, {@link #plan} replays transitions of the model as
+ * simulated experience, so that the Q values propagate with fewer actions
+ * performed in the real environment. The transitions are stored in primitive
+ * arrays indexed like a {@link QTable}, so recording and planning do not allocate.
+ * </p>
+ */
+public class DynaModel {
+
+  private final int actionCount;
+
+  /** The next state of each (state, action) pair, or -1 if the pair was not observed */
+  private final int[] nextStates;
+
+  /** The immediate reward of each (state, action) pair */
+  private final double[] rewards;
+
+  /** The observed (state, action) pairs, in the order in which they were first observed */
+  private final int[] observed;
+  private int observedCount;
+
+  /**
+   * Creates a model where no transition has been observed
+   *
+   * @param stateCount the number of states
+   * @param actionCount the number of actions
+   */
+  public DynaModel(int stateCount, int actionCount) {
+    this.actionCount = actionCount;
+    this.nextStates = new int[stateCount * actionCount];
+    this.rewards = new double[stateCount * actionCount];
+    this.observed = new int[stateCount * actionCount];
+    Arrays.fill(nextStates, -1);
+  }
+
+  /**
+   * Records an observed transition. A transition that was observed before for
+   * the same (state, action) pair is replaced.
+   *
+   * @param state the state in which the action was performed
+   * @param action the performed action
+   * @param nextState the state reached by performing the action
+   * @param reward the immediate reward
+   */
+  public void record(int state, int action, int nextState, double reward) {
+    int pair = state * actionCount + action;
+    if (nextStates[pair] < 0) {
+      observed[observedCount++] = pair;
+    }
+    nextStates[pair] = nextState;
+    rewards[pair] = reward;
+  }
+
+  /**
+   * Applies the Q-Learning update rule to transitions that are drawn uniformly
+   * from the observed (state, action) pairs
+   *
+   * @param qTable the Q matrix to update
+   * @param steps the number of planning updates
+   * @param alpha the learning rate
+   * @param gamma the discount factor
+   * @param random the random number generator
+   * @return the number of planning updates that were applied
+   */
+  public int plan(QTable qTable, int steps, double alpha, double gamma, SplittableRandom random) {
+    if (observedCount == 0) {
+      return 0;
+    }
+    for (int i = 0; i < steps; i++) {
+      int pair = observed[random.nextInt(observedCount)];
+      qTable.update(pair / actionCount, pair % actionCount, rewards[pair], nextStates[pair], alpha, gamma);
+    }
+    return steps;
+  }
+
+  /**
+   * Returns the number of (state, action) pairs that have been observed
+   *
+   * @return the number of observed pairs
+   */
+  public int getObservedCount() {
+    return observedCount;
+  }
+}
@@ -0,0 +1,244 @@
+package tools;
+
+import java.util.SplittableRandom;
+import java.util.function.IntConsumer;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Q-Learning episode loop that is shared by the training runs of a
+ * {@link QLearner}, whatever the values that they learn.
+ *
+ * <p>
+ * Each episode starts from the state reached by a random action, and follows an
+ * epsilon-greedy policy for at most {@link #MAX_STEPS} steps or until a goal state
+ * is reached. The driver records the metrics and the flight recorder events of the
+ * steps and episodes, and ends each episode with the {@link TrainingController},
+ * while a {@link ValueFunction} chooses the greedy actions and learns from the
+ * steps, e.g. a {@link QTable} or a {@link LinearQFunction}.
+ * </p>
+ */
+public class EpisodeDriver {
+
+  private static final Logger LOGGER = Logger.getLogger(EpisodeDriver.class.getName());
+
+  /** The maximum number of steps of an episode */
+  public static final int MAX_STEPS = 100;
+
+  /**
+   * The values learnt by a training run. The states are given by their index or
+   * by their key, depending on the environment steps of the run.
+   */
+  public interface ValueFunction {
+
+    /**
+     * Starts an episode, e.g. by choosing the goal that it pursues
+     *
+     * @param episode the number of the episode in its training run, from 0
+     */
+    default void beginEpisode(int episode) {
+    }
+
+    /**
+     * Returns the greedy action of a state, among its applicable actions
+     *
+     * @param state the state
+     * @return the action with the maximum Q value
+     */
+    int select(long state);
+
+    /**
+     * Applies the Q-Learning update rule to a transition
+     *
+     * @param state the state in which the action was performed
+     * @param action the performed action
+     * @param reward the immediate reward
+     * @param nextState the state reached by performing the action
+     * @param alpha the learning rate
+     * @param gamma the discount factor
+     * @return the change of the Q value
+     */
+    double update(long state, int action, double reward, long nextState, double alpha, double gamma);
+
+    /**
+     * Returns the maximum Q value of a state, among its applicable actions
+     *
+     * @param state the state
+     * @return the maximum Q value
+     */
+    double maxValue(long state);
+
+    /**
+     * Returns the Q matrix whose greedy policy is followed in the current episode,
+     * which the controller watches for convergence, or null if the Q values are
+     * approximated
+     */
+    default QTable getQTable() {
+      return null;
+    }
+  }
+
+  private final TrainingMetrics metrics;
+  private final int actionCount;
+  private final String goal;
+  private final String values;
+
+  /**
+   * Creates a driver
+   *
+   * @param metrics the metrics into which the steps and episodes are recorded
+   * @param actionCount the number of actions of the environment
+   * @param goal the description of the trained goal, for the log (e.g., [2, 3])
+   * @param values the name of the learnt values, for the log (e.g., Q matrix)
+   */
+  public EpisodeDriver(TrainingMetrics metrics, int actionCount, String goal, String values) {
+    this.metrics = metrics;
+    this.actionCount = actionCount;
+    this.goal = goal;
+    this.values = values;
+  }
+
+  /**
+   * Runs the episodes of a training run
+   *
+   * @param step performs an action in the environment and returns the resulting state, or -1 if it could not be read
+   * @param actionMasks returns the bitmask of the applicable actions of a state
+   * @param goalStates tells whether a state is a goal state of the current episode
+   * @param reward the reward assigned when reaching a goal state, while every other step is rewarded with -1
+   * @param valueFunction the values to learn
+   * @param episodes the maximum number of episodes
+   * @param controller the started controller that gives the learning rate and exploration probability of each episode, and stops training once the Q values have converged
+   * @param gamma the discount factor
+   * @param random the random number generator, which is not shared with other threads
+   * @param onEpisode the listener that is given the number of completed episodes after each episode
+   * @throws IllegalStateException if a state of the environment could not be read
+   */
+  public void run(IntToLongFunction step, LongUnaryOperator actionMasks, LongPredicate goalStates, int reward,
+      ValueFunction valueFunction, int episodes, TrainingController controller, double gamma,
+      SplittableRandom random, IntConsumer onEpisode) {
+
+    for (int e = 0; e < episodes; e++) {
+      JfrEvents.Episode episodeEvent = new JfrEvents.Episode();
+      episodeEvent.begin();
+      valueFunction.beginEpisode(e);
+
+      // Randomize initial state by performing a random action
+      long state = observed(step.applyAsLong(random.nextInt(actionCount)));
+
+      // The learning rate and exploration probability of the episode
+      double alpha = controller.getAlpha();
+      double epsilon = controller.getEpsilon();
+
+      // The metrics of the episode
+      int length = 0;
+      double episodeReward = 0;
+      double maxQDelta = 0;
+      boolean goalReached = false;
+
+      for (int stepCount = 0; stepCount < MAX_STEPS; stepCount++) {
+        JfrEvents.TrainingStep stepEvent = new JfrEvents.TrainingStep();
+        stepEvent.begin();
+
+        // Choose action using epsilon-greedy policy
+        int action;
+        if (random.nextDouble() < epsilon) {
+          action = randomAction(actionMasks.applyAsLong(state), actionCount, random);
+        } else {
+          action = valueFunction.select(state);
+        }
+
+        // Perform action and get reward and next state
+        long nextState = observed(step.applyAsLong(action));
+        boolean nextGoal = goalStates.test(nextState);
+        double immediateReward = nextGoal ? reward : -1;
+
+        // Update Q-Value
+        double qDelta = Math.abs(valueFunction.update(state, action, immediateReward, nextState, alpha, gamma));
+        metrics.recordStep();
+        length++;
+        episodeReward += immediateReward;
+        maxQDelta = Math.max(maxQDelta, qDelta);
+
+        // Record the step for the flight recorder, if enabled
+        stepEvent.end();
+        if (stepEvent.shouldCommit()) {
+          stepEvent.state = state;
+          stepEvent.action = action;
+          stepEvent.reward = immediateReward;
+          stepEvent.nextState = nextState;
+          stepEvent.qDelta = qDelta;
+          stepEvent.nextMaxValue = valueFunction.maxValue(nextState);
+          stepEvent.commit();
+        }
+
+        // Transition to next state
+        state = nextState;
+        if (nextGoal) {
+          goalReached = true;
+          break;
+        }
+      }
+      metrics.recordEpisode(length, episodeReward, maxQDelta, goalReached);
+
+      episodeEvent.end();
+      if (episodeEvent.shouldCommit()) {
+        episodeEvent.episode = e + 1;
+        episodeEvent.length = length;
+        episodeEvent.reward = episodeReward;
+        episodeEvent.maxQDelta = maxQDelta;
+        episodeEvent.goalReached = goalReached;
+        episodeEvent.epsilon = epsilon;
+        episodeEvent.commit();
+      }
+      if (LOGGER.isLoggable(Level.FINE)) {
+        LOGGER.fine("Episode " + (e + 1) + " of " + goal + ": " + length + " steps, reward "
+            + episodeReward + ", max Q delta " + maxQDelta + (goalReached ? ", goal reached" : ""));
+      }
+      boolean stop = controller.endEpisode(valueFunction.getQTable(), maxQDelta);
+      onEpisode.accept(e + 1);
+      if (stop) {
+        if (controller.getStopReason() == TrainingController.StopReason.CONVERGED) {
+          LOGGER.info("The " + values + " of " + goal + " converged after " + (e + 1) + " episodes");
+        }
+        break;
+      }
+    }
+  }
+
+  /**
+   * Returns a random action among the applicable actions of a state
+   *
+   * @param actionMask the bitmask of the applicable actions of the state, or 0 to draw from all the actions
+   * @param actionCount the number of actions
+   * @param random the random number generator
+   */
+  static int randomAction(long actionMask, int actionCount, SplittableRandom random) {
+    if (actionMask == 0) {
+      return random.nextInt(actionCount);
+    }
+    long mask = actionMask;
+    for (int skip = random.nextInt(Long.bitCount(mask)); skip > 0; skip--) {
+      mask &= mask - 1;
+    }
+    return Long.numberOfTrailingZeros(mask);
+  }
+
+  /**
+   * Returns a state that was read from an environment, or fails the training run if
+   * the state could not be read (e.g. the lab is unreachable), so that no Q value is
+   * learnt from a transition that was not observed
+   *
+   * @param state the index or key of the state, or -1 if it could not be read
+   * @return the state
+   * @throws IllegalStateException if the state could not be read
+   */
+  private static long observed(long state) {
+    if (state < 0) {
+      throw new IllegalStateException("The state of the environment could not be read");
+    }
+    return state;
+  }
+}
@@ -0,0 +1,112 @@
+package tools;
+
+import java.nio.DoubleBuffer;
+import java.util.BitSet;
+
+/**
+ * The Q matrices of several goal descriptions of the same environment, which are
+ * all updated from each observed transition. Only the immediate reward depends on
+ * the goal, so a transition that is observed while pursuing one goal is relabeled
+ * with the reward of every other goal (hindsight relabeling), and one training run
+ * produces the Q matrices of all the goals.
+ *
+ * <p>
+ * The Q values of all the goals are stored in a single primitive array in
+ * goal-major order (goal x state x action), and the Q matrix of each goal is a
+ * view of its slice of the array.
+ * </p>
+ */
+public class HindsightQTables {
+
+  private final int[][] goals;
+  private final BitSet[] goalStates;
+  private final QTable[] qTables;
+
+  /**
+   * Creates the Q matrices of goal descriptions, where all the Q values are 0.0
+   *
+   * @param environment the environment, whose state index gives the goal states
+   * @param goals the goal descriptions (e.g., [[2,2],[2,3]])
+   */
+  public HindsightQTables(LearningEnvironment environment, int[][] goals) {
+    int stateCount = environment.getStateCount();
+    int actionCount = environment.getActionCount();
+    int size = Math.multiplyExact(stateCount, actionCount);
+
+    this.goals = goals;
+    this.goalStates = new BitSet[goals.length];
+    this.qTables = new QTable[goals.length];
+
+    DoubleBuffer values = DoubleBuffer.wrap(new double[Math.multiplyExact(goals.length, size)]);
+    for (int goal = 0; goal < goals.length; goal++) {
+      goalStates[goal] = environment.getStateSpaceIndex().select(goals[goal]);
+      values.limit((goal + 1) * size).position(goal * size);
+      qTables[goal] = new QTable(stateCount, actionCount, values.slice());
+      qTables[goal].setActionMasks(environment.getApplicableActionMasks());
+    }
+  }
+
+  /**
+   * Returns the number of goal descriptions
+   *
+   * @return the number of goals
+   */
+  public int getGoalCount() {
+    return goals.length;
+  }
+
+  /**
+   * Returns a goal description
+   *
+   * @param goal the position of the goal description
+   * @return the goal description
+   */
+  public int[] getGoal(int goal) {
+    return goals[goal];
+  }
+
+  /**
+   * Returns the Q matrix of a goal description, which is a view of the shared Q values
+   *
+   * @param goal the position of the goal description
+   * @return the Q matrix
+   */
+  public QTable getQTable(int goal) {
+    return qTables[goal];
+  }
+
+  /**
+   * Tells whether a state is a goal state of a goal description
+   *
+   * @param goal the position of the goal description
+   * @param state the state
+   * @return true if the state is compatible with the goal description
+   */
+  public boolean isGoalState(int goal, int state) {
+    return goalStates[goal].get(state);
+  }
+
+  /**
+   * Applies the Q-Learning update rule to a transition for every goal
+   * description, with the reward of each goal
+   *
+   * @param state the state in which the action was performed
+   * @param action the performed action
+   * @param nextState the state reached by performing the action
+   * @param reward the reward assigned when reaching a goal state
+   * @param alpha the learning rate
+   * @param gamma the discount factor
+   * @return the largest absolute change of a Q value
+   */
+  public double update(int state, int action, int nextState, double reward, double alpha, double gamma) {
+    double maxDelta = 0;
+    for (int goal = 0; goal < goals.length; goal++) {
+      double goalReward = goalStates[goal].get(nextState) ? reward : -1;
+      double delta = Math.abs(qTables[goal].update(state, action, goalReward, nextState, alpha, gamma));
+      if (delta > maxDelta) {
+        maxDelta = delta;
+      }
+    }
+    return maxDelta;
+  }
+}
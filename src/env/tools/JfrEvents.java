@@ -0,0 +1,128 @@
+package tools;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events of training and of the interactions with a lab.
+ *
+ * <p>
+ * The events only carry primitive fields, so recording them does not build
+ * strings, and they cost close to nothing when they are not enabled. They are
+ * recorded with e.g. {@code java -XX:StartFlightRecording:filename=training.jfr},
+ * and can be inspected with JDK Mission Control or {@code jfr print}.
+ * </p>
+ */
+public final class JfrEvents {
+
+  private JfrEvents() {
+  }
+
+  /**
+   * A training step: an action performed in the environment and the resulting
+   * update of the Q matrix
+   */
+  @Name("tools.TrainingStep")
+  @Label("Training Step")
+  @Category({"Q-Learning", "Training"})
+  @StackTrace(false)
+  public static final class TrainingStep extends Event {
+
+    @Label("State")
+    @Description("The index (or key) of the state")
+    public long state;
+
+    @Label("Action")
+    public int action;
+
+    @Label("Reward")
+    public double reward;
+
+    @Label("Next State")
+    @Description("The index (or key) of the next state")
+    public long nextState;
+
+    @Label("Q Delta")
+    @Description("The absolute change of the updated Q value")
+    public double qDelta;
+
+    @Label("Next Max Q")
+    @Description("The maximum Q value of the next state after the update")
+    public double nextMaxValue;
+  }
+
+  /**
+   * A training episode
+   */
+  @Name("tools.Episode")
+  @Label("Episode")
+  @Category({"Q-Learning", "Training"})
+  @StackTrace(false)
+  public static final class Episode extends Event {
+
+    @Label("Episode")
+    @Description("The number of the episode in its training run")
+    public int episode;
+
+    @Label("Length")
+    @Description("The number of steps of the episode")
+    public int length;
+
+    @Label("Reward")
+    @Description("The cumulative reward of the episode")
+    public double reward;
+
+    @Label("Max Q Delta")
+    @Description("The largest absolute change of a Q value in the episode")
+    public double maxQDelta;
+
+    @Label("Goal Reached")
+    public boolean goalReached;
+
+    @Label("Epsilon")
+    public double epsilon;
+  }
+
+  /**
+   * An HTTP request that performs an action in a lab
+   */
+  @Name("tools.HttpAction")
+  @Label("HTTP Action")
+  @Category({"Q-Learning", "Lab"})
+  @StackTrace(false)
+  public static final class HttpAction extends Event {
+
+    @Label("Action")
+    public int action;
+
+    @Label("Status Code")
+    @Description("The status code of the response, or -1 if the request failed")
+    public int statusCode;
+
+    @Label("Pipelined")
+    @Description("Whether the request was pipelined with a status read")
+    public boolean pipelined;
+  }
+
+  /**
+   * An HTTP request that reads the status of a lab
+   */
+  @Name("tools.StatusRead")
+  @Label("Status Read")
+  @Category({"Q-Learning", "Lab"})
+  @StackTrace(false)
+  public static final class StatusRead extends Event {
+
+    @Label("Status Code")
+    @Description("The status code of the response, or -1 if the request failed")
+    public int statusCode;
+
+    @Label("Pipelined")
+    @Description("Whether the request was pipelined with an action")
+    public boolean pipelined;
+  }
+}
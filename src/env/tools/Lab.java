@@ -1,21 +1,36 @@
 package tools;
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import ch.unisg.ics.interactions.wot.td.ThingDescription;
 import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
 import ch.unisg.ics.interactions.wot.td.affordances.ActionAffordance;
 import ch.unisg.ics.interactions.wot.td.affordances.Form;
 import ch.unisg.ics.interactions.wot.td.affordances.PropertyAffordance;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
-import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
 import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
 import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
 import ch.unisg.ics.interactions.wot.td.schemas.BooleanSchema;
 import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
 import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHost;
 
 /**
 * An class that extends {@link LearningEnvironment} for representing a learning
@@ -30,25 +45,36 @@ import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
 public class Lab extends LearningEnvironment {
 
 
-  /** Additional Class for State Descr to test */
-  public List<Integer> getStateDescription(int stateIndex) {
-    List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-    return stateList.get(stateIndex);
+  /**
+  * @see {@link LearningEnvironment#getStateIndex(Object[])}
+  */
+  @Override
+  public int getStateIndex(Object[] stateDescription) {
+    return stateCodec.encode(discretize(stateDescription));
   }
 
-  /** Additional Class for State Index to test Task 2.3 */
-  public int getStateIndex(Object[] stateDescription) {
-    List<Integer> state = new ArrayList<>();
-    state.add(discretizeLightLevel((Double) stateDescription[0]));
-    state.add(discretizeLightLevel((Double) stateDescription[1]));
-    state.add((Boolean) stateDescription[2] ? 1 : 0);
-    state.add((Boolean) stateDescription[3] ? 1 : 0);
-    state.add((Boolean) stateDescription[4] ? 1 : 0);
-    state.add((Boolean) stateDescription[5] ? 1 : 0);
-    state.add(discretizeSunshine((Double) stateDescription[6]));
-
-    List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-    return stateList.indexOf(state);
+  /**
+  * @see {@link LearningEnvironment#getStateKey(Object[])}
+  */
+  @Override
+  public long getStateKey(Object[] stateDescription) {
+    return stateCodec.encodeKey(discretize(stateDescription));
+  }
+
+  /**
+  * Discretizes the raw description of a state, e.g. [120.5,340.0,true,false,true,true,610.2]
+  */
+  private int[] discretize(Object[] stateDescription) {
+    int zoneCount = zones.size();
+    int[] state = new int[stateCodec.axisCount()];
+    for (int zone = 0; zone < zoneCount; zone++) {
+      state[zone] = discretizeLightLevel(((Number) stateDescription[zone]).doubleValue());
+    }
+    for (int axis = zoneCount; axis < 3 * zoneCount; axis++) {
+      state[axis] = (Boolean) stateDescription[axis] ? 1 : 0;
+    }
+    state[3 * zoneCount] = discretizeSunshine(((Number) stateDescription[3 * zoneCount]).doubleValue());
+    return state;
   }
 
   /**
@@ -58,139 +84,293 @@ public class Lab extends LearningEnvironment {
   private ThingDescription td;
 
   /**
-  * The current state of the lab (and of every state of the lab) is formed as a
-  * a list of 7 integer values: [z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine]:
+  * The HTTP client that is used for performing actions and reading the status
+  * of the lab environment
+  */
+  private final LabHttpClient httpClient;
+
+  /**
+  * The HTTP request for reading the status of the lab environment
+  */
+  private HttpOperation statusOperation;
+
+  /**
+  * The keys of the status payload, by semantic type (e.g. "http://example.org/was#Z1Level" -> "Z1Level")
+  */
+  private final Map<String, String> statusKeys = new HashMap<>();
+
+  /**
+  * The axes of the state that hold the status of the devices, by key of the status
+  * payload (e.g. "Z1Light" -> 2). Action responses that echo a device status with
+  * such a key update the current state without a status read.
+  */
+  private final Map<String, Integer> deviceAxes = new HashMap<>();
+
+  /**
+  * The time during which a status that was read is reused instead of being read
+  * again, unless an action is performed meanwhile, configured through the system
+  * property lab.status.freshnessMillis
+  */
+  private final long statusFreshnessNanos =
+    TimeUnit.MILLISECONDS.toNanos(Long.getLong("lab.status.freshnessMillis", 500));
+
+  /**
+  * Whether an action and the following status read are pipelined on one
+  * connection, configured through the system property lab.http.pipelining.
   * <ul>
-  * <li> z1Level: the level of light in Zone 1
-  * <li> z2Level: the level of light in Zone 2
-  * <li> z1Light: the status of the lights in Zone 1
-  * <li> z2Light: the status of the lights in Zone 2
-  * <li> z1Blinds: the status of the blinds in Zone 1
-  * <li> z2Blinds: the status of the blinds in Zone 2
-  * <li> sunshine: the level of sunshine out of the lab
+  * <li> The status read may be stale: HTTP/1.1 only guarantees that the responses
+  * of pipelined requests are returned in order, so a lab that starts processing the
+  * status read before the action is done (e.g. a Node-RED flow) returns the status
+  * from before the action, and training learns a transition that did not happen.
+  * <li> The action is a non-idempotent request, which RFC 7230 (section 6.3.2)
+  * advises not to pipeline: if the connection drops after the action was sent, it
+  * is unknown whether the lab applied it, so the step fails and is not retried.
   * </ul>
+  * Pipelining is thus disabled by default, and only suits labs that process
+  * requests one at a time over a reliable connection.
   */
-  protected List<Integer> currentState = Arrays.asList(new Integer[7]);
+  private final boolean pipelining = Boolean.getBoolean("lab.http.pipelining");
 
   /**
-  * The state of the lab depends on the values of
-  * z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine
+  * The status read in flight, which is shared by concurrent readers, or null
+  * (guarded by currentState)
   */
+  private CompletableFuture<Integer> statusRead;
 
   /**
-  * z1Level: the level of light in Zone 1
-  * Possible values: 0,1,2,3
-  * Respective keys: 0,1,2,3
+  * The time (System.nanoTime) at which the last status was received, or 0 if no
+  * status was received yet (guarded by currentState)
   */
-  private static final HashMap<Integer,Integer> z1Level = new HashMap<>();
+  private long statusReceivedNanos;
 
   /**
-  * z2Level: the level of light in Zone 2
-  * Possible values: 0,1,2,3
-  * Respective keys: 0,1,2,3
+  * The number of actions that have been performed, which outdates the statuses
+  * that were read before (guarded by currentState)
   */
-  private static final HashMap<Integer,Integer> z2Level = new HashMap<>();
+  private long actionsPerformed;
 
   /**
-  * z1Light: the status of the lights in Zone 1
-  * Possible values: false, true
-  * Respective keys: 0,1
+  * The lux values of the last status that was received, before discretization:
+  * the light levels of the zones and the sunshine, e.g. [z1Level, z2Level, sunshine]
+  * (guarded by currentState)
   */
-  private static final HashMap<Integer,Boolean> z1Light = new HashMap<>();
+  private double[] rawLevels = new double[3];
 
   /**
-  * z2Light: the status of the lights in Zone 2
-  * Possible values: false, true
-  * Respective keys: 0,1
+  * The HTTP requests for performing the actions of the action space, by action key
   */
-  private static final HashMap<Integer,Boolean> z2Light = new HashMap<>();
+  private final Map<Integer, HttpOperation> actionOperations = new HashMap<>();
 
   /**
-  * z1Blinds: the status of the blinds in Zone 1
-  * Possible values: false, true
-  * Respective keys: 0,1
+  * The latencies of the HTTP requests for performing actions
   */
-  private static final HashMap<Integer,Boolean> z1Blinds = new HashMap<>();
+  private final LatencyHistogram actionLatency = new LatencyHistogram();
 
   /**
-  * z2Blinds: the status of the blinds in Zone 2
-  * Possible values: false, true
-  * Respective keys: 0,1
+  * The latencies of the HTTP requests for reading the status of the lab
   */
-  private static final HashMap<Integer,Boolean> z2Blinds = new HashMap<>();
+  private final LatencyHistogram statusLatency = new LatencyHistogram();
 
   /**
-  * sunshine: the level of sunshine out of the lab
-  * Possible values: 0,1,2,3
-  * Respective keys: 0,1,2,3
+  * The current state of the lab (and of every state of the lab) is formed as a
+  * a list of 3n+1 integer values for a lab with n zones, e.g. for two zones
+  * [z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine]:
+  * <ul>
+  * <li> z1Level..znLevel: the level of light in each zone (0,1,2,3)
+  * <li> z1Light..znLight: the status of the lights in each zone (0,1)
+  * <li> z1Blinds..znBlinds: the status of the blinds in each zone (0,1)
+  * <li> sunshine: the level of sunshine out of the lab (0,1,2,3)
+  * </ul>
+  * The values are null until the status of the lab is read for the first time,
+  * so that the state of the lab is unknown (-1) rather than the state 0.
   */
-  private static final HashMap<Integer,Integer> sunshine = new HashMap<>();
+  protected List<Integer> currentState = Arrays.asList(new Integer[7]);
 
-  private static final Logger LOGGER = Logger.getLogger(Lab.class.getName());
+  /**
+  * The number of light levels of a zone, and of the sunshine: 0,1,2,3
+  */
+  private static final int LEVELS = 4;
 
-  static {
+  /**
+  * The number of values of the status of a device (lights, blinds): false, true
+  * as 0,1
+  */
+  private static final int DEVICE_VALUES = 2;
 
-    // possible substates for z1Level, z2Level, sunshine
-    for (int i=0; i<4; i++) {
-      z1Level.put(i,i);
-      z2Level.put(i,i);
-      sunshine.put(i,i);
-    }
+  /**
+  * The semantic types of the actions that set the lights or the blinds of a zone,
+  * e.g. "http://example.org/was#SetZ1Light", where group 1 is the number of the zone
+  */
+  private static final Pattern ZONE_ACTION_TYPE = Pattern.compile("http://example\\.org/was#SetZ(\\d+)(Light|Blinds)");
 
-    // possible substates for z1Light
-    z1Light.put(0, false);
-    z1Light.put(1, true);
+  /**
+  * The numbers of the zones of the lab in increasing order, as found in the
+  * Thing Description, e.g. [1,2]
+  */
+  private List<Integer> zones = Arrays.asList(1, 2);
 
-    // possible substates for z2Light
-    z2Light.put(0, false);
-    z2Light.put(1, true);
+  private static final Logger LOGGER = Logger.getLogger(Lab.class.getName());
 
-    // possible substates for z1Blinds
-    z1Blinds.put(0, false);
-    z1Blinds.put(1, true);
+  private static final Gson GSON = new Gson();
 
-    // possible substates for z2Blinds
-    z2Blinds.put(0, false);
-    z2Blinds.put(1, true);
+  /**
+  * The version of the snapshots of labs, which is increased when the derivation of
+  * the action space from the Thing Description changes
+  */
+  private static final int SNAPSHOT_VERSION = 1;
 
-    };
 
     /**
     * A {@link Lab} instance is constructed based on the URL of the W3C Web of Things
-    * Thing Description of a lab (simulated or real)
+    * Thing Description of a lab (simulated or real). The Thing Description is only
+    * cached if the default cache is enabled, see {@link ThingDescriptionCache#getDefault()}.
     *
     * @param url The location of the W3C Web of Things Thing Description
     */
     public Lab(String url) {
+      this(url, LabHttpClient.getDefault());
+    }
 
-      try {
+    /**
+    * A {@link Lab} instance is constructed based on the URL of the W3C Web of Things
+    * Thing Description of a lab (simulated or real), and interacts with the lab
+    * through the given HTTP client
+    *
+    * @param url The location of the W3C Web of Things Thing Description
+    * @param httpClient The HTTP client used for interacting with the lab
+    */
+    public Lab(String url, LabHttpClient httpClient) {
+      this(url, httpClient, ThingDescriptionCache.getDefault());
+    }
 
-        // Read the Thing Description from the URL
-        this.td = TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, url);
+    /**
+    * A {@link Lab} instance is constructed based on the URL of the W3C Web of Things
+    * Thing Description of a lab (simulated or real), which is read through a cache.
+    *
+    * <p> If the cache holds a snapshot of the lab for the cached Thing Description,
+    * the lab is restored from the snapshot without parsing the Thing Description,
+    * and the Thing Description is revalidated in the background: if it changed,
+    * the new version is used from the next start. Otherwise, the Thing Description
+    * is read from the URL (or from the cache if the URL cannot be read), and a new
+    * snapshot is cached.
+    * </p>
+    *
+    * @param url The location of the W3C Web of Things Thing Description
+    * @param httpClient The HTTP client used for interacting with the lab
+    * @param tdCache The cache of Thing Descriptions, or null to always read the Thing Description from the URL
+    */
+    public Lab(String url, LabHttpClient httpClient, ThingDescriptionCache tdCache) {
 
-        // Create the state space
-        createStateSpace();
-        LOGGER.info("The lab has a state space of n="+ stateSpace.size());
+      this.httpClient = httpClient;
 
-        // Print the states of the state space
-        LOGGER.info(String.valueOf(stateSpace));
+      if (tdCache == null) {
+        try {
 
-        // Create the action space
-        createActionSpace();
-        LOGGER.info("The lab has an action space of m=" + actionSpace.size());
+          // Read the Thing Description from the URL
+          initialize(TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, url));
 
-        // Print the actions of the action space
-        for (Action action : actionSpace.values()) {
-          LOGGER.info(action.toString());
+        } catch (IOException e) {
+          LOGGER.severe(e.getMessage());
         }
+        return;
+      }
+
+      ThingDescriptionCache.Entry cached = tdCache.get(url);
+
+      // Restore the lab from the cached snapshot, and revalidate the Thing Description in the background
+      if (cached != null && restore(tdCache.getSnapshot(url), cached.getHash())) {
+        LOGGER.info("Restored the lab from the cached Thing Description of " + url);
 
-        // Read the current state
         readCurrentState();
         LOGGER.info("The lab current state: " + this.currentState);
 
+        tdCache.fetchAsync(url, cached).whenComplete((current, e) -> {
+          if (e != null) {
+            LOGGER.warning("Could not revalidate the Thing Description of " + url + ": " + e.getMessage());
+          } else if (!current.getHash().equals(cached.getHash())) {
+            LOGGER.info("The Thing Description of " + url + " has changed, the new version is used from the next start");
+          }
+        });
+        return;
+      }
+
+      ThingDescriptionCache.Entry entry;
+      try {
+        entry = tdCache.fetch(url, cached);
       } catch (IOException e) {
-        LOGGER.severe(e.getMessage());
+        if (cached == null) {
+          LOGGER.severe(e.getMessage());
+          return;
+        }
+        LOGGER.warning("Using the cached Thing Description of " + url + ": " + e.getMessage());
+        entry = cached;
+      }
+
+      initialize(TDGraphReader.readFromString(TDFormat.RDF_TURTLE, entry.getContent()));
+      tdCache.putSnapshot(url, GSON.toJson(toSnapshot(entry.getHash())));
+    }
+
+    /**
+    * A {@link Lab} instance is constructed based on a W3C Web of Things Thing
+    * Description that has already been read, e.g. from a file. If the Thing
+    * Description has no status property, the lab is not contacted.
+    *
+    * @param td The W3C Web of Things Thing Description of the lab
+    * @param httpClient The HTTP client used for interacting with the lab
+    */
+    public Lab(ThingDescription td, LabHttpClient httpClient) {
+      this.httpClient = httpClient;
+      initialize(td);
+    }
+
+    /**
+    * Creates the state space and the action space of the lab from its Thing
+    * Description, and reads the current state
+    */
+    private void initialize(ThingDescription td) {
+
+      this.td = td;
+
+      // Create the state space of the zones that have actions
+      List<String> actionTypes = new ArrayList<>();
+      for (ActionAffordance action : td.getActions()) {
+        actionTypes.addAll(action.getSemanticTypes());
+      }
+      createZones(actionTypes);
+      createStateSpace();
+      LOGGER.info("The lab has a state space of n="+ stateCodec.keyCount());
+
+      // Print the states of the state space, which are many
+      if (LOGGER.isLoggable(Level.FINEST)) {
+        LOGGER.finest(String.valueOf(stateSpace));
+      }
+
+      // Create the action space
+      createActionSpace();
+      LOGGER.info("The lab has an action space of m=" + actionSpace.size());
+
+      // Print the actions of the action space
+      if (LOGGER.isLoggable(Level.FINE)) {
+        for (Action action : actionSpace.values()) {
+          LOGGER.fine(action.toString());
+        }
       }
+
+      // Prepare the request for reading the status
+      createStatusOperation();
+
+      // Read the current state
+      readCurrentState();
+      LOGGER.info("The lab current state: " + this.currentState);
+    }
+
+    /**
+    * Returns the numbers of the zones of the lab, e.g. [1,2]
+    *
+    * @return the zone numbers, in the order of the axes of a state
+    */
+    public List<Integer> getZones() {
+      return zones;
     }
 
     /**
@@ -198,119 +378,603 @@ public class Lab extends LearningEnvironment {
     */
     @Override
     public List<Integer> getCompatibleStates(List<Object> stateDescription) {
+      return getCompatibleStateStream(stateDescription).boxed().collect(Collectors.toList());
+    }
 
-      List<Integer> compatibleStates = new ArrayList<>();
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
+    /**
+    * @see {@link LearningEnvironment#readCurrentState()}
+    */
+    @Override
+    public int readCurrentState() {
+      try {
+        return readCurrentStateAsync().join();
+      } catch (CompletionException e) {
+        LOGGER.severe(e.getCause().getMessage());
+        return -1;
+      }
+    }
 
-      for (int i=0; i<stateList.size(); i++) {
-        List<Integer> state = stateList.get(i);
+    /**
+    * Reads the status of the lab on a pooled connection, without blocking
+    *
+    * @see {@link LearningEnvironment#readCurrentStateAsync()}
+    */
+    @Override
+    public CompletableFuture<Integer> readCurrentStateAsync() {
+      if (statusOperation == null) {
+        return CompletableFuture.completedFuture(lastKnownState());
+      }
 
-        List<Object> substates = new ArrayList<>();
+      synchronized (currentState) {
 
-        substates.add(Lab.z1Level.get(state.get(0)));
-        substates.add(Lab.z2Level.get(state.get(1)));
-        substates.add(Lab.z1Light.get(state.get(2)));
-        substates.add(Lab.z2Light.get(state.get(3)));
-        substates.add(Lab.z1Blinds.get(state.get(4)));
-        substates.add(Lab.z2Blinds.get(state.get(5)));
-        substates.add(Lab.sunshine.get(state.get(6)));
+        // Reuse a fresh status, or join the status read in flight
+        if (isStatusFresh()) {
+          return CompletableFuture.completedFuture(stateCodec.encode(currentState));
+        }
+        if (statusRead != null) {
+          return statusRead;
+        }
 
-        if (Collections.indexOfSubList(substates, stateDescription) != -1){
-          compatibleStates.add(i);
-          System.out.println(state);
-        };
+        CompletableFuture<Integer> read = readStatus();
+        statusRead = read;
+        read.whenComplete((state, e) -> {
+          synchronized (currentState) {
+            if (statusRead == read) {
+              statusRead = null;
+            }
+          }
+        });
+        return read;
       }
-      return compatibleStates;
     }
 
     /**
-    * @see {@link LearningEnvironment#readCurrentState()}
+    * Performs an action and returns the resulting state of the lab.
+    *
+    * <p> The status is always read anew once the response to the action has been
+    * received, on a pooled keep-alive connection, or pipelined with the action if the
+    * system property lab.http.pipelining is set: a fresh status, or the status of the
+    * device echoed by the response, does not tell how the light levels changed, so a
+    * training step never reuses them.
+    * </p>
+    *
+    * @see {@link LearningEnvironment#stepAsync(int)}
     */
     @Override
-    public int readCurrentState() {
-      Optional<PropertyAffordance> p = this.td.getFirstPropertyBySemanticType("https://example.org/was#Status");
+    public CompletableFuture<Integer> stepAsync(int action) {
+      HttpOperation actionOperation = actionOperations.get(action);
 
-      if (p.isPresent()) {
+      if (statusOperation == null || actionOperation == null) {
+        return super.stepAsync(action);
+      }
 
-        Optional<Form> f = p.get().getFirstFormForOperationType(TD.readProperty);
-        DataSchema ds = p.get().getDataSchema();
+      // Read the status once the action has been performed
+      if (!pipelining || !actionOperation.host.equals(statusOperation.host)) {
+        return executeAction(action, actionOperation).thenCompose(response -> {
+          actionPerformed(checkResponse(response));
+          return readStatus();
+        });
+      }
 
-        if (f.isPresent()) {
+      JfrEvents.HttpAction actionEvent = new JfrEvents.HttpAction();
+      JfrEvents.StatusRead statusEvent = new JfrEvents.StatusRead();
+      actionEvent.begin();
+      statusEvent.begin();
+      long start = System.nanoTime();
+      long actions;
+      synchronized (currentState) {
+        actions = actionsPerformed;
+      }
+      List<CompletableFuture<SimpleHttpResponse>> responses = httpClient.executePipelined(
+        statusOperation.host, actionOperation.toRequest(), statusOperation.toRequest());
+
+      // The status follows this action, unless other actions were performed meanwhile
+      return recordAction(action, true, start, actionEvent, responses.get(0)).thenApply(Lab::checkResponse)
+        .thenAccept(this::actionPerformed)
+        .thenCombine(recordStatusRead(true, start, statusEvent, responses.get(1)),
+          (performed, statusResponse) -> updateCurrentState(statusResponse, actions + 1));
+    }
+
+    /**
+    * @see {@link LearningEnvironment#readCurrentStateKey()}
+    */
+    @Override
+    public long readCurrentStateKey() {
+      try {
+        readCurrentStateAsync().join();
+        return lastKnownStateKey();
+      } catch (CompletionException e) {
+        LOGGER.severe(e.getCause().getMessage());
+        return -1;
+      }
+    }
+
+    /**
+    * @see {@link LearningEnvironment#stepKey(int)}
+    */
+    @Override
+    public long stepKey(int action) {
+      try {
+        stepAsync(action).join();
+        return lastKnownStateKey();
+      } catch (CompletionException e) {
+        LOGGER.severe(e.getCause().getMessage());
+        return -1;
+      }
+    }
+
+    /**
+    * @see {@link LearningEnvironment#step(int)}
+    */
+    @Override
+    public int step(int action) {
+      try {
+        return stepAsync(action).join();
+      } catch (CompletionException e) {
+        LOGGER.severe(e.getCause().getMessage());
+        return -1;
+      }
+    }
+
+    /**
+    * @see {@link LearningEnvironment#performAction(int)}
+    */
+    @Override
+    public void performAction(int action) {
+      try {
+        performActionAsync(action).join();
+        if (LOGGER.isLoggable(Level.FINE)) {
+          LOGGER.fine(actionSpace.get(action).toString());
+        }
+      } catch (CompletionException e) {
+        LOGGER.severe(e.getCause().getMessage());
+      }
+    }
 
-          TDHttpRequest request = new TDHttpRequest(f.get(), TD.readProperty);
+    /**
+    * Performs an action on a pooled connection, without blocking
+    *
+    * @see {@link LearningEnvironment#performActionAsync(int)}
+    */
+    @Override
+    public CompletableFuture<Void> performActionAsync(int action) {
+      HttpOperation operation = actionOperations.get(action);
+      if (operation == null) {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalArgumentException("Unknown action " + action));
+        return failed;
+      }
+      return executeAction(action, operation).thenAccept(response -> actionPerformed(checkResponse(response)));
+    }
+
+    /**
+    * Returns the raw values of the last state that was read, where the light
+    * levels and the sunshine are the lux values of the last status that was received
+    *
+    * @see {@link LearningEnvironment#getRawState(int, double[])}
+    */
+    @Override
+    public void getRawState(int state, double[] values) {
+      synchronized (currentState) {
+        for (int axis = 0; axis < values.length; axis++) {
+          Integer value = currentState.get(axis);
+          values[axis] = value == null ? -1 : value;
+        }
+        for (int zone = 0; zone < zones.size(); zone++) {
+          values[zone] = rawLevels[zone];
+        }
+        values[3 * zones.size()] = rawLevels[zones.size()];
+      }
+    }
 
-          try {
-            TDHttpResponse response = request.execute();
-            Map<String, Object> status = response.getPayloadAsObject((ObjectSchema) ds);
+    /**
+    * @see {@link LearningEnvironment#getRawStateBounds()}
+    */
+    @Override
+    public double[] getRawStateBounds() {
+      return rawStateBounds(zones.size());
+    }
 
-            int z1Level = discretizeLightLevel((Double) status.get("http://example.org/was#Z1Level"));
-            int z2Level = discretizeLightLevel((Double) status.get("http://example.org/was#Z2Level"));
+    /**
+    * Returns the latencies of the HTTP requests for performing actions
+    *
+    * @return the latency histogram of the actions
+    */
+    public LatencyHistogram getActionLatency() {
+      return actionLatency;
+    }
 
-            boolean z1Light = (Boolean) status.get("http://example.org/was#Z1Light");
-            boolean z2Light = (Boolean) status.get("http://example.org/was#Z2Light");
+    /**
+    * Returns the latencies of the HTTP requests for reading the status of the lab
+    *
+    * @return the latency histogram of the status reads
+    */
+    public LatencyHistogram getStatusLatency() {
+      return statusLatency;
+    }
 
-            boolean z1Blinds = (Boolean) status.get("http://example.org/was#Z1Blinds");
-            boolean z2Blinds = (Boolean) status.get("http://example.org/was#Z2Blinds");
+    /**
+    * Sends the request of an action, and records its latency and flight recorder event
+    */
+    private CompletableFuture<SimpleHttpResponse> executeAction(int action, HttpOperation operation) {
+      JfrEvents.HttpAction event = new JfrEvents.HttpAction();
+      event.begin();
+      long start = System.nanoTime();
+      return recordAction(action, false, start, event, httpClient.execute(operation.toRequest()));
+    }
 
-            int sunshine = discretizeSunshine((Double) status.get("http://example.org/was#Sunshine"));
+    /**
+    * Reads the status of the lab and updates the current state from it, unless an
+    * action is performed before the status is received
+    */
+    private CompletableFuture<Integer> readStatus() {
+      long actions;
+      synchronized (currentState) {
+        actions = actionsPerformed;
+      }
+      return executeStatusRead().thenApply(response -> updateCurrentState(response, actions));
+    }
 
-            currentState.set(0, z1Level);
-            currentState.set(1, z2Level);
-            currentState.set(2, z1Light ? 1 : 0);
-            currentState.set(3, z2Light ? 1 : 0);
-            currentState.set(4, z1Blinds ? 1 : 0);
-            currentState.set(5, z2Blinds ? 1 : 0);
-            currentState.set(6, sunshine);
+    /**
+    * Sends the request of a status read, and records its latency and flight recorder event
+    */
+    private CompletableFuture<SimpleHttpResponse> executeStatusRead() {
+      JfrEvents.StatusRead event = new JfrEvents.StatusRead();
+      event.begin();
+      long start = System.nanoTime();
+      return recordStatusRead(false, start, event, httpClient.execute(statusOperation.toRequest()));
+    }
 
-          } catch (IOException e) {
-            LOGGER.severe(e.getMessage());
+    /**
+    * Records the latency and the flight recorder event of an action when its response is received
+    */
+    private CompletableFuture<SimpleHttpResponse> recordAction(int action, boolean pipelined, long start,
+        JfrEvents.HttpAction event, CompletableFuture<SimpleHttpResponse> response) {
+      return response.whenComplete((r, e) -> {
+        actionLatency.record(System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+          event.action = action;
+          event.statusCode = r != null ? r.getCode() : -1;
+          event.pipelined = pipelined;
+          event.commit();
+        }
+      });
+    }
+
+    /**
+    * Records the latency and the flight recorder event of a status read when its response is received
+    */
+    private CompletableFuture<SimpleHttpResponse> recordStatusRead(boolean pipelined, long start,
+        JfrEvents.StatusRead event, CompletableFuture<SimpleHttpResponse> response) {
+      return response.whenComplete((r, e) -> {
+        statusLatency.record(System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+          event.statusCode = r != null ? r.getCode() : -1;
+          event.pipelined = pipelined;
+          event.commit();
+        }
+      });
+    }
+
+    /**
+    * Updates the status of the devices in the current state from the response to
+    * an action, if the response echoes it (e.g. {"Z1Light": true, "cost": 100})
+    *
+    * @param response the response to an action
+    * @return true if the status of a device was updated
+    */
+    private boolean updateDeviceStatus(SimpleHttpResponse response) {
+      JsonObject payload;
+      try {
+        JsonElement body = JsonParser.parseString(response.getBodyText());
+        if (!body.isJsonObject()) {
+          return false;
+        }
+        payload = body.getAsJsonObject();
+      } catch (JsonParseException | NullPointerException e) {
+        return false;
+      }
+
+      boolean updated = false;
+      synchronized (currentState) {
+        for (Map.Entry<String, Integer> device : deviceAxes.entrySet()) {
+          JsonElement value = payload.get(device.getKey());
+          if (value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean()) {
+            currentState.set(device.getValue(), value.getAsBoolean() ? 1 : 0);
+            updated = true;
           }
         }
       }
+      return updated;
+    }
 
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-      return stateList.indexOf(this.currentState);
+    /**
+    * Updates the current state once an action has been performed: the status of
+    * the device is taken from the response if it echoes it, and the status that was
+    * read before is no longer reused, nor the status read in flight joined, as its
+    * light levels do not reflect the action
+    *
+    * @param response the response to the action
+    */
+    private void actionPerformed(SimpleHttpResponse response) {
+      synchronized (currentState) {
+        actionsPerformed++;
+        statusReceivedNanos = 0;
+        statusRead = null;
+      }
+      updateDeviceStatus(response);
     }
 
     /**
-    * @see {@link LearningEnvironment#getApplicableActions(int)}
+    * Returns true if the last status that was read can be reused (must be called
+    * while holding the lock of currentState)
     */
-    @Override
-    public List<Integer> getApplicableActions(int state) {
+    private boolean isStatusFresh() {
+      return statusReceivedNanos != 0 && System.nanoTime() - statusReceivedNanos < statusFreshnessNanos;
+    }
+
+    /**
+    * Updates the current state of the lab from a status response, unless an action
+    * has been performed since the status read was sent
+    *
+    * @param response the response to a status read
+    * @param actions the number of actions that had been performed when the status read was sent
+    * @return the state of the status, which is the current state unless it is outdated
+    */
+    private int updateCurrentState(SimpleHttpResponse response, long actions) {
+      JsonObject status = JsonParser.parseString(checkResponse(response).getBodyText()).getAsJsonObject();
+
+      int zoneCount = zones.size();
+      double[] lux = new double[zoneCount + 1];
+      int[] state = new int[3 * zoneCount + 1];
+      for (int zone = 0; zone < zoneCount; zone++) {
+        String prefix = "http://example.org/was#Z" + zones.get(zone);
+        lux[zone] = status.get(statusKey(prefix + "Level")).getAsDouble();
+        state[zone] = discretizeLightLevel(lux[zone]);
+        state[zoneCount + zone] = status.get(statusKey(prefix + "Light")).getAsBoolean() ? 1 : 0;
+        state[2 * zoneCount + zone] = status.get(statusKey(prefix + "Blinds")).getAsBoolean() ? 1 : 0;
+      }
+      lux[zoneCount] = status.get(statusKey("http://example.org/was#Sunshine")).getAsDouble();
+      state[3 * zoneCount] = discretizeSunshine(lux[zoneCount]);
+
+      synchronized (currentState) {
+        if (actions != actionsPerformed) {
+          return stateCodec.encode(state);
+        }
+        for (int axis = 0; axis < state.length; axis++) {
+          currentState.set(axis, state[axis]);
+        }
+        rawLevels = lux;
+        statusReceivedNanos = System.nanoTime();
+        return stateCodec.encode(currentState);
+      }
+    }
+
+    /**
+    * Returns the last state of the lab that was read
+    */
+    private int lastKnownState() {
+      synchronized (currentState) {
+        return stateCodec.encode(currentState);
+      }
+    }
+
+    /**
+    * Returns the key of the last state of the lab that was read
+    */
+    private long lastKnownStateKey() {
+      synchronized (currentState) {
+        return stateCodec.encodeKey(currentState);
+      }
+    }
+
+    /**
+    * Returns the key of a status value in the status payload
+    *
+    * @param semanticType the semantic type of the status value
+    */
+    private String statusKey(String semanticType) {
+      String key = statusKeys.get(semanticType);
+      return key != null ? key : semanticType.substring(semanticType.indexOf('#') + 1);
+    }
+
+    private static SimpleHttpResponse checkResponse(SimpleHttpResponse response) {
+      if (response.getCode() >= 300) {
+        throw new CompletionException(new IOException("The lab responded with status " + response.getCode()));
+      }
+      return response;
+    }
 
-      List<Integer> applicableActions = new ArrayList<>();
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-      List<Integer> st = stateList.get(state);
+    /**
+    * Prepares the request for reading the status of the lab
+    */
+    private void createStatusOperation() {
+      Optional<PropertyAffordance> p = this.td.getFirstPropertyBySemanticType("https://example.org/was#Status");
 
-      for (int action : actionSpace.keySet()) {
+      if (p.isPresent()) {
 
-        Action a = actionSpace.get(action);
+        Optional<Form> f = p.get().getFirstFormForOperationType(TD.readProperty);
+        DataSchema ds = p.get().getDataSchema();
 
-        int stateAxis = a.getApplicableOnStateAxis();
-        int stateValue = a.getApplicableOnStateValue();
+        if (ds instanceof ObjectSchema) {
+          for (Map.Entry<String, DataSchema> property : ((ObjectSchema) ds).getProperties().entrySet()) {
+            for (String semanticType : property.getValue().getSemanticTypes()) {
+              statusKeys.put(semanticType, property.getKey());
+            }
+          }
+        }
 
-        if (st.get(stateAxis) == stateValue) {
-          applicableActions.add(action);
+        if (f.isPresent()) {
+          this.statusOperation = new HttpOperation(f.get().getMethodName(TD.readProperty).orElse("GET"),
+            f.get().getTarget(), null);
         }
       }
+      createDeviceAxes();
+    }
 
-      return applicableActions;
+    /**
+    * Maps the keys of the device status values in payloads to the axes of the state
+    */
+    private void createDeviceAxes() {
+      int zoneCount = zones.size();
+      for (int zone = 0; zone < zoneCount; zone++) {
+        deviceAxes.put(statusKey("http://example.org/was#Z" + zones.get(zone) + "Light"), zoneCount + zone);
+        deviceAxes.put(statusKey("http://example.org/was#Z" + zones.get(zone) + "Blinds"), 2 * zoneCount + zone);
+      }
     }
 
     /**
-    * @see {@link LearningEnvironment#performAction(int)}
+    * Returns a snapshot of the action space and of the status request of the lab
+    *
+    * @param tdHash the hash of the Thing Description from which the lab was created
     */
-    @Override
-    public void performAction(int action) {
-      Action a = actionSpace.get(action);
+    private Snapshot toSnapshot(String tdHash) {
+      Snapshot snapshot = new Snapshot();
+      snapshot.version = SNAPSHOT_VERSION;
+      snapshot.tdHash = tdHash;
+
+      for (int key = 0; key < actionSpace.size(); key++) {
+        Action action = actionSpace.get(key);
+        HttpOperation operation = actionOperations.get(key);
+
+        Snapshot.ActionEntry entry = new Snapshot.ActionEntry();
+        entry.type = action.getActionTag();
+        entry.payloadTag = (String) action.getPayloadTags()[0];
+        entry.payload = (Boolean) action.getPayload()[0];
+        entry.applicableOnStateAxis = action.getApplicableOnStateAxis();
+        entry.applicableOnStateValue = action.getApplicableOnStateValue();
+        entry.method = operation.method;
+        entry.target = operation.target.toString();
+        entry.jsonBody = operation.jsonBody;
+        snapshot.actions.add(entry);
+      }
+
+      if (statusOperation != null) {
+        snapshot.statusMethod = statusOperation.method;
+        snapshot.statusTarget = statusOperation.target.toString();
+      }
+      snapshot.statusKeys.putAll(statusKeys);
+      return snapshot;
+    }
 
+    /**
+    * Creates the state space, and restores the action space and the status request
+    * from a snapshot
+    *
+    * @param json the snapshot, or null
+    * @param tdHash the hash of the Thing Description from which the snapshot must have been derived
+    * @return false if the snapshot cannot be used
+    */
+    private boolean restore(String json, String tdHash) {
+      Snapshot snapshot;
       try {
-        a.getRequest().execute();
-        LOGGER.info(a.getRequest().toString());
-      } catch (IOException e) {
-        LOGGER.severe(e.getMessage());
+        snapshot = json != null ? GSON.fromJson(json, Snapshot.class) : null;
+      } catch (JsonParseException e) {
+        LOGGER.warning("Ignoring an invalid snapshot: " + e.getMessage());
+        snapshot = null;
+      }
+      if (snapshot == null || snapshot.version != SNAPSHOT_VERSION || !tdHash.equals(snapshot.tdHash)
+          || snapshot.actions.isEmpty()) {
+        return false;
+      }
+
+      List<String> actionTypes = new ArrayList<>();
+      for (Snapshot.ActionEntry entry : snapshot.actions) {
+        actionTypes.add(entry.type);
+      }
+      createZones(actionTypes);
+      createStateSpace();
+      LOGGER.info("The lab has a state space of n="+ stateCodec.keyCount());
+
+      Set<String> types = new LinkedHashSet<>();
+      for (Snapshot.ActionEntry entry : snapshot.actions) {
+        Action action = new Action(entry.type, new Object[]{entry.payloadTag}, new Object[]{entry.payload},
+          toRequest(entry));
+        action.setApplicableOn(entry.applicableOnStateAxis, entry.applicableOnStateValue);
+        actionOperations.put(actionSpace.size(), new HttpOperation(entry.method, entry.target, entry.jsonBody));
+        actionSpace.put(actionSpace.size(), action);
+        types.add(entry.type);
       }
+      this.affordanceTypes = new ArrayList<>(types);
+      LOGGER.info("The lab has an action space of m=" + actionSpace.size());
 
+      if (snapshot.statusTarget != null) {
+        this.statusOperation = new HttpOperation(snapshot.statusMethod, snapshot.statusTarget, null);
+      }
+      statusKeys.putAll(snapshot.statusKeys);
+      createDeviceAxes();
+      return true;
+    }
+
+    /**
+    * Creates the {@link TDHttpRequest} of an action restored from a snapshot: the
+    * form of the action with a JSON object payload of a single boolean property
+    */
+    private static TDHttpRequest toRequest(Snapshot.ActionEntry entry) {
+      Form form = new Form.Builder(entry.target)
+        .setMethodName(entry.method)
+        .setContentType(ContentType.APPLICATION_JSON.getMimeType())
+        .addOperationType(TD.invokeAction)
+        .build();
+      ObjectSchema schema = new ObjectSchema.Builder()
+        .addProperty(entry.payloadTag, new BooleanSchema.Builder().build())
+        .build();
+      TDHttpRequest request = new TDHttpRequest(form, TD.invokeAction);
+      request.setObjectPayload(schema, Collections.singletonMap(entry.payloadTag, entry.payload));
+      return request;
+    }
+
+    /**
+    * The action space and the status request of a lab as derived from its Thing
+    * Description, in the form that is cached by a {@link ThingDescriptionCache}
+    */
+    private static final class Snapshot {
+
+      private int version;
+      private String tdHash;
+      private List<ActionEntry> actions = new ArrayList<>();
+      private String statusMethod;
+      private String statusTarget;
+      private Map<String, String> statusKeys = new HashMap<>();
+
+      private static final class ActionEntry {
+        private String type;
+        private String payloadTag;
+        private boolean payload;
+        private int applicableOnStateAxis;
+        private int applicableOnStateValue;
+        private String method;
+        private String target;
+        private String jsonBody;
+      }
+    }
+
+    /**
+    * An HTTP request of the lab, from which a new request is created for every execution
+    */
+    private static final class HttpOperation {
+
+      private final String method;
+      private final URI target;
+      private final HttpHost host;
+      private final String jsonBody;
+
+      private HttpOperation(String method, String target, String jsonBody) {
+        this.method = method;
+        this.target = URI.create(target);
+        this.host = HttpHost.create(this.target);
+        this.jsonBody = jsonBody;
+      }
+
+      private SimpleHttpRequest toRequest() {
+        SimpleHttpRequest request = new SimpleHttpRequest(method, target);
+        if (jsonBody != null) {
+          request.setBody(jsonBody, ContentType.APPLICATION_JSON);
+        }
+        return request;
+      }
     }
 
     /**
@@ -318,12 +982,13 @@ public class Lab extends LearningEnvironment {
     */
     private void createActionSpace() {
 
-      this.affordanceTypes = Arrays.asList(
-      "http://example.org/was#SetZ1Light",
-      "http://example.org/was#SetZ2Light",
-      "http://example.org/was#SetZ1Blinds",
-      "http://example.org/was#SetZ2Blinds"
-      );
+      // The lights of all the zones, then the blinds of all the zones
+      this.affordanceTypes = new ArrayList<>();
+      for (String device : new String[]{ "Light", "Blinds" }) {
+        for (int zone : zones) {
+          affordanceTypes.add("http://example.org/was#SetZ" + zone + device);
+        }
+      }
 
       for (String affType : affordanceTypes) {
 
@@ -349,6 +1014,9 @@ public class Lab extends LearningEnvironment {
                   TDHttpRequest request = new TDHttpRequest(f.get(), TD.invokeAction);
                   request.setObjectPayload((ObjectSchema) ds.get(), payload);
                   Action action = new Action(affType, new Object[]{propName}, new Object[]{propValue}, request);
+                  actionOperations.put(actionSpace.size(), new HttpOperation(
+                    f.get().getMethodName(TD.invokeAction).orElse("POST"), f.get().getTarget(),
+                    GSON.toJson(Collections.singletonMap(propName, propValue))));
                   actionSpace.put(actionSpace.size(), action);
                 }
               }
@@ -366,7 +1034,7 @@ public class Lab extends LearningEnvironment {
     * lux in [100,300) -> level 2
     * lux >= 300 -> level 3
     */
-    private int discretizeLightLevel(Double value) {
+    static int discretizeLightLevel(double value) {
       if (value < 50) {
         return 0;
       } else if (value < 100) {
@@ -384,7 +1052,7 @@ public class Lab extends LearningEnvironment {
     * lux in [200,700) -> level 2
     * lux >= 700 -> level 3
     */
-    private int discretizeSunshine(Double value) {
+    static int discretizeSunshine(double value) {
       if (value < 50) {
         return 0;
       } else if (value < 200) {
@@ -396,18 +1064,74 @@ public class Lab extends LearningEnvironment {
     }
 
     /**
-    * Creates the state space of the lab
+    * Returns the bounds of the raw values of a state of the lab for function
+    * approximation: the light levels are told apart up to 400 lux, a bit above
+    * the threshold of level 3, and the sunshine up to 1000 lux. The devices are
+    * discrete.
+    *
+    * @param zoneCount the number of zones
+    */
+    static double[] rawStateBounds(int zoneCount) {
+      double[] bounds = new double[3 * zoneCount + 1];
+      Arrays.fill(bounds, 0, zoneCount, 400);
+      bounds[3 * zoneCount] = 1000;
+      return bounds;
+    }
+
+    /**
+    * Finds the zones of the lab in the semantic types of its actions, e.g. the
+    * zones [1,2] in "http://example.org/was#SetZ1Light" and
+    * "http://example.org/was#SetZ2Blinds"
+    *
+    * @param actionTypes the semantic types of the actions of the lab
+    */
+    private void createZones(Collection<String> actionTypes) {
+      SortedSet<Integer> found = new TreeSet<>();
+      for (String type : actionTypes) {
+        Matcher matcher = ZONE_ACTION_TYPE.matcher(type);
+        if (matcher.matches()) {
+          found.add(Integer.valueOf(matcher.group(1)));
+        }
+      }
+      if (found.isEmpty()) {
+        LOGGER.warning("No zone found in the actions of the lab, assuming the zones " + zones);
+        return;
+      }
+      this.zones = Collections.unmodifiableList(new ArrayList<>(found));
+      LOGGER.info("The lab has the zones " + zones);
+    }
+
+    /**
+    * Creates the state space of the lab: the light level of each zone, the lights
+    * of each zone, the blinds of each zone, and the sunshine. The states of a state
+    * space that is too large for int indices are not enumerated, and only have
+    * long keys (see {@link StateCodec#isIndexable()}). The index of the state space
+    * is only built on first use, see {@link #getStateSpaceIndex()}.
     */
     private void createStateSpace() {
-      this.stateSpace = Sets.cartesianProduct(
-                    Collections.unmodifiableSet(z1Level.keySet()),
-                    Collections.unmodifiableSet(z2Level.keySet()),
-                    Collections.unmodifiableSet(z1Light.keySet()),
-                    Collections.unmodifiableSet(z2Light.keySet()),
-                    Collections.unmodifiableSet(z1Blinds.keySet()),
-                    Collections.unmodifiableSet(z2Blinds.keySet()),
-                    Collections.unmodifiableSet(sunshine.keySet())
-                    );
+      int zoneCount = zones.size();
+      int[] radices = new int[3 * zoneCount + 1];
+      Arrays.fill(radices, 0, zoneCount, LEVELS);
+      Arrays.fill(radices, zoneCount, 3 * zoneCount, DEVICE_VALUES);
+      radices[3 * zoneCount] = LEVELS;
+      this.stateCodec = new StateCodec(radices);
+
+      List<Set<Integer>> axes = new ArrayList<>();
+      for (int radix : radices) {
+        Set<Integer> values = new LinkedHashSet<>();
+        for (int value = 0; value < radix; value++) {
+          values.add(value);
+        }
+        axes.add(values);
+      }
+      if (stateCodec.isIndexable()) {
+        this.stateSpace = Sets.cartesianProduct(axes);
+      } else {
+        LOGGER.info("The state space of the lab has " + stateCodec.keyCount() + " states, which only have long keys");
+      }
+
+      this.currentState = Arrays.asList(new Integer[radices.length]);
+      this.rawLevels = new double[zoneCount + 1];
     }
 
 
@@ -423,27 +1147,19 @@ public class Lab extends LearningEnvironment {
     }
 
     /**
-    * Set the applicable actions for each substate
+    * Set the applicable actions for each substate: switching the lights on (raising
+    * the blinds) of a zone is applicable when they are off (down), and conversely
     */
     private void setApplicableActions() {
-
-      Action z1LightOnValidAction = getApplicableAction("http://example.org/was#SetZ1Light", true);
-      Action z1LightOffValidAction = getApplicableAction("http://example.org/was#SetZ1Light", false);
-      Action z2LightOnValidAction = getApplicableAction("http://example.org/was#SetZ2Light", true);
-      Action z2LightOffValidAction = getApplicableAction("http://example.org/was#SetZ2Light", false);
-      Action z1BlindsUpValidAction = getApplicableAction("http://example.org/was#SetZ1Blinds", true);
-      Action z1BlindsDownValidAction = getApplicableAction("http://example.org/was#SetZ1Blinds", false);
-      Action z2BlindsUpValidAction = getApplicableAction("http://example.org/was#SetZ2Blinds", true);
-      Action z2BlindsDownValidAction = getApplicableAction("http://example.org/was#SetZ2Blinds", false);
-
-
-      z1LightOnValidAction.setApplicableOn(2, 0);
-      z1LightOffValidAction.setApplicableOn(2, 1);
-      z2LightOnValidAction.setApplicableOn(3, 0);
-      z2LightOffValidAction.setApplicableOn(3, 1);
-      z1BlindsUpValidAction.setApplicableOn(4, 0);
-      z1BlindsDownValidAction.setApplicableOn(4, 1);
-      z2BlindsUpValidAction.setApplicableOn(5, 0);
-      z2BlindsDownValidAction.setApplicableOn(5, 1);
+      int zoneCount = zones.size();
+      for (int zone = 0; zone < zoneCount; zone++) {
+        String lightType = "http://example.org/was#SetZ" + zones.get(zone) + "Light";
+        String blindsType = "http://example.org/was#SetZ" + zones.get(zone) + "Blinds";
+
+        getApplicableAction(lightType, true).setApplicableOn(zoneCount + zone, 0);
+        getApplicableAction(lightType, false).setApplicableOn(zoneCount + zone, 1);
+        getApplicableAction(blindsType, true).setApplicableOn(2 * zoneCount + zone, 0);
+        getApplicableAction(blindsType, false).setApplicableOn(2 * zoneCount + zone, 1);
+      }
     }
 }
@@ -0,0 +1,254 @@
+package tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.async.MinimalHttpAsyncClient;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.config.Http1Config;
+import org.apache.hc.core5.http.nio.AsyncClientEndpoint;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.apache.hc.core5.http.nio.RequestChannel;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+* An asynchronous HTTP client with a pool of persistent (keep-alive) connections,
+* which is used by {@link Lab} instances to interact with lab environments.
+*
+* <p> Requests are executed without blocking the calling thread. Several requests
+* can also be pipelined on a single connection, so that they cost a single round
+* trip. HTTP/1.1 only guarantees that the responses of pipelined requests are
+* returned in order, not that the host processes a request after the previous
+* one is done.
+* </p>
+*
+* <p> The default client is shared by all the {@link Lab} instances of the JVM, and
+* is configured through the system properties lab.http.connectTimeoutMillis
+* (default 5000), lab.http.responseTimeoutMillis (default 10000) and
+* lab.http.maxConnections (default 16).
+* </p>
+*/
+public class LabHttpClient implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(LabHttpClient.class.getName());
+
+  private static LabHttpClient defaultClient;
+
+  private final MinimalHttpAsyncClient client;
+  private final RequestConfig requestConfig;
+
+  /**
+  * Creates and starts a client
+  *
+  * @param connectTimeout the timeout for establishing a connection
+  * @param responseTimeout the timeout for receiving a response
+  * @param maxConnections the maximum number of pooled connections per host
+  */
+  public LabHttpClient(Timeout connectTimeout, Timeout responseTimeout, int maxConnections) {
+    this.requestConfig = RequestConfig.custom()
+      .setConnectTimeout(connectTimeout)
+      .setConnectionRequestTimeout(connectTimeout)
+      .setResponseTimeout(responseTimeout)
+      .build();
+
+    this.client = HttpAsyncClients.createMinimal(
+      HttpVersionPolicy.FORCE_HTTP_1,
+      H2Config.DEFAULT,
+      Http1Config.DEFAULT,
+      IOReactorConfig.custom().setSoTimeout(responseTimeout).setTcpNoDelay(true).build(),
+      PoolingAsyncClientConnectionManagerBuilder.create()
+        .setMaxConnTotal(maxConnections)
+        .setMaxConnPerRoute(maxConnections)
+        .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+        .build());
+    this.client.start();
+  }
+
+  /**
+  * Returns the client that is shared by default, configured from the system properties
+  *
+  * @return the default client
+  */
+  public static synchronized LabHttpClient getDefault() {
+    if (defaultClient == null) {
+      defaultClient = new LabHttpClient(
+        Timeout.ofMilliseconds(Long.getLong("lab.http.connectTimeoutMillis", 5000)),
+        Timeout.ofMilliseconds(Long.getLong("lab.http.responseTimeoutMillis", 10000)),
+        Integer.getInteger("lab.http.maxConnections", 16));
+
+      LabHttpClient client = defaultClient;
+      Runtime.getRuntime().addShutdownHook(new Thread(client::close, "lab-http-client-shutdown"));
+    }
+    return defaultClient;
+  }
+
+  /**
+  * Executes a request on a pooled connection
+  *
+  * @param request the request
+  * @return the future response
+  */
+  public CompletableFuture<SimpleHttpResponse> execute(SimpleHttpRequest request) {
+    CompletableFuture<SimpleHttpResponse> response = new CompletableFuture<>();
+    request.setConfig(requestConfig);
+    client.execute(request, completing(response));
+    return response;
+  }
+
+  /**
+  * Pipelines requests on a single pooled connection to a host: all the requests
+  * are sent without waiting for the responses, which the host returns in order.
+  * Each request is only submitted to the connection once the previous one is
+  * being sent, so that the requests are written in order.
+  *
+  * <p> The host may process a request before the previous one is done, so a
+  * pipelined read may observe the state from before a pipelined write. Requests are
+  * not retried: if the connection drops, the responses that were not received fail,
+  * and the caller cannot tell whether a non-idempotent request (e.g. a POST) was
+  * applied, which is why RFC 7230 advises not to pipeline such requests.
+  * </p>
+  *
+  * @param host the host of all the requests
+  * @param requests the requests, in the order in which they are to be sent
+  * @return the future responses, in the order of the requests
+  */
+  public List<CompletableFuture<SimpleHttpResponse>> executePipelined(HttpHost host, SimpleHttpRequest... requests) {
+    List<CompletableFuture<SimpleHttpResponse>> responses = new ArrayList<>(requests.length);
+    for (int i = 0; i < requests.length; i++) {
+      responses.add(new CompletableFuture<>());
+    }
+
+    HttpClientContext context = HttpClientContext.create();
+    context.setRequestConfig(requestConfig);
+
+    client.lease(host, context, new FutureCallback<AsyncClientEndpoint>() {
+
+      @Override
+      public void completed(AsyncClientEndpoint endpoint) {
+        submit(endpoint, 0);
+
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+          if (e == null) {
+            endpoint.releaseAndReuse();
+          } else {
+            endpoint.releaseAndDiscard();
+          }
+        });
+      }
+
+      @Override
+      public void failed(Exception e) {
+        responses.forEach(response -> response.completeExceptionally(e));
+      }
+
+      @Override
+      public void cancelled() {
+        responses.forEach(response -> response.cancel(false));
+      }
+
+      private void submit(AsyncClientEndpoint endpoint, int i) {
+        Runnable next = i + 1 < requests.length ? () -> submit(endpoint, i + 1) : () -> { };
+        endpoint.execute(new SendingRequestProducer(SimpleRequestProducer.create(requests[i]), next),
+          SimpleResponseConsumer.create(), context, completing(responses.get(i)));
+      }
+    });
+    return responses;
+  }
+
+  /**
+  * Closes the client and its connections
+  */
+  @Override
+  public void close() {
+    client.close(CloseMode.GRACEFUL);
+    LOGGER.fine("Closed the HTTP client");
+  }
+
+  /**
+  * A request producer that runs a callback once its request is being sent
+  */
+  private static final class SendingRequestProducer implements AsyncRequestProducer {
+
+    private final AsyncRequestProducer producer;
+    private Runnable onSend;
+
+    private SendingRequestProducer(AsyncRequestProducer producer, Runnable onSend) {
+      this.producer = producer;
+      this.onSend = onSend;
+    }
+
+    @Override
+    public void sendRequest(RequestChannel channel, HttpContext context) throws HttpException, IOException {
+      producer.sendRequest(channel, context);
+      if (onSend != null) {
+        Runnable callback = onSend;
+        onSend = null;
+        callback.run();
+      }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return producer.isRepeatable();
+    }
+
+    @Override
+    public void failed(Exception cause) {
+      producer.failed(cause);
+    }
+
+    @Override
+    public int available() {
+      return producer.available();
+    }
+
+    @Override
+    public void produce(DataStreamChannel channel) throws IOException {
+      producer.produce(channel);
+    }
+
+    @Override
+    public void releaseResources() {
+      producer.releaseResources();
+    }
+  }
+
+  private static FutureCallback<SimpleHttpResponse> completing(CompletableFuture<SimpleHttpResponse> response) {
+    return new FutureCallback<SimpleHttpResponse>() {
+
+      @Override
+      public void completed(SimpleHttpResponse result) {
+        response.complete(result);
+      }
+
+      @Override
+      public void failed(Exception e) {
+        response.completeExceptionally(e);
+      }
+
+      @Override
+      public void cancelled() {
+        response.cancel(false);
+      }
+    };
+  }
+}
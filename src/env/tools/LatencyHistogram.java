@@ -0,0 +1,102 @@
+package tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies with power-of-two buckets of microseconds, which can
+ * be recorded by several threads without locking.
+ *
+ * <p>
+ * Bucket i counts the latencies in [2^i, 2^(i+1)) microseconds (bucket 0 also
+ * counts latencies below one microsecond). Percentiles are estimated by the upper
+ * bound of the bucket that contains them, so they are accurate within a factor of
+ * two, which is enough to follow HTTP latencies.
+ * </p>
+ */
+public class LatencyHistogram {
+
+  private static final int BUCKETS = 40;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Records a latency
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    long micros = Math.max(1, nanos / 1000);
+    buckets.incrementAndGet(Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros)));
+    count.increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  /**
+   * Returns the number of recorded latencies
+   *
+   * @return the number of latencies
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the mean latency
+   *
+   * @return the mean latency in milliseconds, or 0 if no latency was recorded
+   */
+  public double getMeanMillis() {
+    long n = count.sum();
+    return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+  }
+
+  /**
+   * Returns the maximum latency
+   *
+   * @return the maximum latency in milliseconds
+   */
+  public double getMaxMillis() {
+    return maxNanos.get() / 1e6;
+  }
+
+  /**
+   * Returns an estimate of a percentile of the latencies
+   *
+   * @param percentile the percentile, in [0,100]
+   * @return the upper bound of the bucket of the percentile in milliseconds, or 0 if no latency was recorded
+   */
+  public double getPercentileMillis(double percentile) {
+    long n = count.sum();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min((1L << (i + 1)) / 1e3, getMaxMillis());
+      }
+    }
+    return getMaxMillis();
+  }
+
+  /**
+   * Returns the number of latencies of each bucket
+   *
+   * @return the counts, indexed by bucket
+   */
+  public long[] getBucketCounts() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+}
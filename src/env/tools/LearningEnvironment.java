@@ -1,6 +1,8 @@
 package tools;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
 /**
  * An abstract class for representing a learning environment which can be used
@@ -18,6 +20,27 @@ public abstract class LearningEnvironment {
    */
   protected Set<List<Integer>> stateSpace = new HashSet<>();
 
+  /**
+   * The codec that maps each state of the state space to its position in the
+   * state space and back.
+   */
+  protected StateCodec stateCodec;
+
+  /**
+   * The inverted index of the state space, which answers substate queries
+   * such as {@link #getCompatibleStates(List)}, created on first use if the
+   * subclass does not create it.
+   */
+  protected volatile StateIndex stateSpaceIndex;
+
+  /**
+   * The largest number of Q values (states x actions) that a Q table may hold,
+   * configured through the system property qtable.maxEntries (2^24 by default,
+   * i.e. 128 MB of Q values). The state index and the action masks of larger
+   * state spaces are not built, and their Q values are kept in sparse Q tables.
+   */
+  public static final long MAX_DENSE_ENTRIES = Long.getLong("qtable.maxEntries", 1L << 24);
+
   /**
    * The action space of the learning environment.
    * <p>
@@ -34,6 +57,12 @@ public abstract class LearningEnvironment {
    */
   protected List<String> affordanceTypes = new ArrayList<>();
 
+  /**
+   * The bitmask of the applicable actions of each state (bit a is set if the
+   * action with key a is applicable), computed on first use.
+   */
+  private volatile long[] applicableActionMasks;
+
   /**
    * Returns the size of the state space
    *
@@ -43,6 +72,59 @@ public abstract class LearningEnvironment {
     return stateSpace.size();
   }
 
+  /**
+   * Returns the codec that maps states to their positions in the state space
+   *
+   * @return the state codec
+   */
+  public StateCodec getStateCodec() {
+    return stateCodec;
+  }
+
+  /**
+   * Returns true if the Q values of every state and action fit in a Q table, i.e.
+   * if the states have int indices and there are at most {@link #MAX_DENSE_ENTRIES}
+   * Q values
+   *
+   * @return true if the state space fits in a Q table
+   */
+  public boolean fitsQTable() {
+    return stateCodec.isIndexable() && stateCodec.keyCount() <= MAX_DENSE_ENTRIES / Math.max(1, getActionCount());
+  }
+
+  /**
+   * Returns the inverted index of the state space, which is built on first use
+   *
+   * @return the state space index
+   * @throws IllegalStateException if the state space does not fit in a Q table (see {@link #fitsQTable()})
+   */
+  public StateIndex getStateSpaceIndex() {
+    StateIndex index = stateSpaceIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = stateSpaceIndex;
+        if (index == null) {
+          if (!fitsQTable()) {
+            throw new IllegalStateException("The state space of " + stateCodec.keyCount() + " states is too large to be indexed");
+          }
+          index = new StateIndex(stateCodec);
+          stateSpaceIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the description of a state, e.g. [0,1,0,1,0,0,2]
+   *
+   * @param state the position of the state in the state space
+   * @return the values of the state
+   */
+  public List<Integer> getStateDescription(int state) {
+    return stateCodec.toList(state);
+  }
+
   /**
    * Returns the size of the action space
    *
@@ -79,11 +161,42 @@ public abstract class LearningEnvironment {
    * is represented by the value 1).
    * </p>
    *
+   * <p>
+   * A value of the substate description that is null or "_" matches any value,
+   * e.g. the substate description [3,null,true] is compatible with all the
+   * states described as [3,_,1,_,...,_].
+   * </p>
+   *
    * @param stateDescription the description of the substate
    * @return the list of integer values that represent the compatible states
    */
   public abstract List<Integer> getCompatibleStates(List<Object> stateDescription);
 
+  /**
+   * Returns the states that are compatible to a given substate description, like
+   * {@link #getCompatibleStates(List)} but as a stream of positions in the state
+   * space, in increasing order
+   *
+   * @param stateDescription the description of the substate
+   * @return the positions of the compatible states
+   */
+  public IntStream getCompatibleStateStream(List<Object> stateDescription) {
+    int[] values = new int[stateDescription.size()];
+    for (int axis = 0; axis < values.length; axis++) {
+      Object value = stateDescription.get(axis);
+      if (value == null || "_".equals(value)) {
+        values[axis] = StateIndex.ANY;
+      } else if (value instanceof Boolean) {
+        values[axis] = (Boolean) value ? 1 : 0;
+      } else if (value instanceof Number) {
+        values[axis] = ((Number) value).intValue();
+      } else {
+        return IntStream.empty();
+      }
+    }
+    return getStateSpaceIndex().stream(values);
+  }
+
   /**
    * Returns the current state of the environment.
    * <p>
@@ -92,10 +205,89 @@ public abstract class LearningEnvironment {
    * space.
    * </p>
    *
-   * @return the current state
+   * @return the current state, or -1 if the state could not be read
    */
   public abstract int readCurrentState();
 
+  /**
+   * Returns the position in the state space of a state that is described by
+   * raw values.
+   * <p>
+   * E.g., the state description [120.5,340.0,true,false,true,true,610.2] is
+   * discretized to the state [2,3,1,0,1,1,2] whose position is returned.
+   * </p>
+   *
+   * @param stateDescription the raw description of the state
+   * @return the position of the state in the state space
+   */
+  public abstract int getStateIndex(Object[] stateDescription);
+
+  /**
+   * Returns the key of a state that is described by raw values, like
+   * {@link #getStateIndex(Object[])}, for state spaces that are too large for int
+   * indices (see {@link StateCodec#isIndexable()}). By default, the key is the
+   * index of the state.
+   *
+   * @param stateDescription the raw description of the state
+   * @return the key of the state, or -1 if the description is invalid
+   */
+  public long getStateKey(Object[] stateDescription) {
+    return getStateIndex(stateDescription);
+  }
+
+  /**
+   * Returns the key of the current state of the environment, like
+   * {@link #readCurrentState()}, for state spaces that are too large for int
+   * indices. By default, the key is the index of the state.
+   *
+   * @return the key of the current state, or -1 if the state could not be read
+   */
+  public long readCurrentStateKey() {
+    return readCurrentState();
+  }
+
+  /**
+   * Performs an action in the environment and then returns the key of the
+   * resulting state, like {@link #step(int)}, for state spaces that are too large
+   * for int indices. By default, the key is the index of the state.
+   *
+   * @param action the action
+   * @return the key of the state that results from the action, or -1 if the state could not be read
+   */
+  public long stepKey(int action) {
+    return step(action);
+  }
+
+  /**
+   * Returns the raw values of the state that was last read from the environment.
+   * <p>
+   * E.g., the state [2,3,1,0,1,1,2] may have been read from the raw values
+   * [120.5,340.0,1,0,1,1,610.2]. Booleans are given as 0 or 1. By default, the
+   * discrete values of the given state are returned, for environments that do not
+   * keep the raw values.
+   * </p>
+   *
+   * @param state the state that was last read from the environment
+   * @param values the array that receives the raw value of each axis of the state
+   */
+  public void getRawState(int state, double[] values) {
+    for (int axis = 0; axis < values.length; axis++) {
+      values[axis] = stateCodec.decode(state, axis);
+    }
+  }
+
+  /**
+   * Returns the bound of the raw values of each axis of a state, up to which
+   * function approximation tells the values apart (larger values are treated as
+   * the bound), or 0 for the axes whose raw values are the discrete values of the
+   * state, e.g. booleans. By default, all the axes are discrete.
+   *
+   * @return the bound of each axis
+   */
+  public double[] getRawStateBounds() {
+    return new double[stateCodec.axisCount()];
+  }
+
   /**
    * Returns the actions that are applicable in a given state.
    * <p>
@@ -108,7 +300,83 @@ public abstract class LearningEnvironment {
    * @param state the state
    * @return the applicable actions
    */
-  public abstract List<Integer> getApplicableActions(int state);
+  public List<Integer> getApplicableActions(int state) {
+    List<Integer> applicableActions = new ArrayList<>();
+    for (long mask = getApplicableActionMasks()[state]; mask != 0; mask &= mask - 1) {
+      applicableActions.add(Long.numberOfTrailingZeros(mask));
+    }
+    return applicableActions;
+  }
+
+  /**
+   * Returns the bitmask of the applicable actions of each state: bit a of the
+   * mask of a state is set if the action with key a is applicable in the state,
+   * i.e. if the state has the value on which the action is applicable (see
+   * {@link Action#getApplicableOnStateAxis()}). The masks are computed once, and
+   * must not be modified.
+   *
+   * @return the action masks, indexed by state
+   * @throws IllegalStateException if the state space does not fit in a Q table (see {@link #fitsQTable()})
+   */
+  public long[] getApplicableActionMasks() {
+    long[] masks = applicableActionMasks;
+    if (masks == null) {
+      synchronized (this) {
+        masks = applicableActionMasks;
+        if (masks == null) {
+          masks = computeApplicableActionMasks();
+          applicableActionMasks = masks;
+        }
+      }
+    }
+    return masks;
+  }
+
+  /**
+   * Returns the bitmask of the applicable actions of a state given by its key,
+   * like {@link #getApplicableActionMasks()} but without computing the masks of
+   * all the states if the state space does not fit in a Q table
+   *
+   * @param key the key of the state
+   * @return the bitmask of the applicable actions of the state
+   */
+  public long getApplicableActionMask(long key) {
+    if (fitsQTable()) {
+      return getApplicableActionMasks()[(int) key];
+    }
+    if (getActionCount() > Long.SIZE) {
+      throw new IllegalStateException("Action masks support at most " + Long.SIZE + " actions, got " + getActionCount());
+    }
+    long mask = 0;
+    for (int action = 0; action < getActionCount(); action++) {
+      Action a = getAction(action);
+      if (stateCodec.decodeKey(key, a.getApplicableOnStateAxis()) == a.getApplicableOnStateValue()) {
+        mask |= 1L << action;
+      }
+    }
+    return mask;
+  }
+
+  private long[] computeApplicableActionMasks() {
+    if (!fitsQTable()) {
+      throw new IllegalStateException("The state space of " + stateCodec.keyCount() + " states is too large for action masks");
+    }
+    if (getActionCount() > Long.SIZE) {
+      throw new IllegalStateException("Action masks support at most " + Long.SIZE + " actions, got " + getActionCount());
+    }
+    long[] masks = new long[getStateCount()];
+    for (int action = 0; action < getActionCount(); action++) {
+      Action a = getAction(action);
+      int axis = a.getApplicableOnStateAxis();
+      int value = a.getApplicableOnStateValue();
+      for (int state = 0; state < masks.length; state++) {
+        if (stateCodec.decode(state, axis) == value) {
+          masks[state] |= 1L << action;
+        }
+      }
+    }
+    return masks;
+  }
 
   /**
    * Performs an action in the environment.
@@ -121,4 +389,55 @@ public abstract class LearningEnvironment {
    */
   public abstract void performAction(int action);
 
+  /**
+   * Performs an action in the environment without blocking the calling thread.
+   * <p>
+   * Environments that are accessed remotely override this method; by default,
+   * the action is performed synchronously.
+   * </p>
+   *
+   * @param action the action
+   * @return a future that completes when the action has been performed
+   */
+  public CompletableFuture<Void> performActionAsync(int action) {
+    performAction(action);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Returns the current state of the environment without blocking the calling
+   * thread.
+   * <p>
+   * Environments that are accessed remotely override this method; by default,
+   * the state is read synchronously.
+   * </p>
+   *
+   * @return a future of the current state
+   */
+  public CompletableFuture<Integer> readCurrentStateAsync() {
+    return CompletableFuture.completedFuture(readCurrentState());
+  }
+
+  /**
+   * Performs an action in the environment and then reads the resulting state,
+   * without blocking the calling thread.
+   *
+   * @param action the action
+   * @return a future of the state that results from the action
+   */
+  public CompletableFuture<Integer> stepAsync(int action) {
+    return performActionAsync(action).thenCompose(v -> readCurrentStateAsync());
+  }
+
+  /**
+   * Performs an action in the environment and then reads the resulting state.
+   *
+   * @param action the action
+   * @return the state that results from the action, or -1 if the state could not be read
+   */
+  public int step(int action) {
+    performAction(action);
+    return readCurrentState();
+  }
+
 }
@@ -0,0 +1,220 @@
+package tools;
+
+/**
+ * A Q function that is linear in tile-coded features of the raw values of a
+ * state (e.g. the lux readings of the lab), as an alternative to a {@link QTable}
+ * over discretized states, which loses what the discretization throws away.
+ *
+ * <p>
+ * Each of several tilings partitions the raw state space into tiles: the
+ * continuous axes are cut into intervals up to their bound (see
+ * {@link LearningEnvironment#getRawStateBounds()}), shifted by a different offset
+ * in each tiling, and the discrete axes (e.g. the devices) are used as they are.
+ * A state activates one tile per tiling, and Q(s,a) is the sum of the weights of
+ * the active tiles for the action a. The number of weights only depends on the
+ * numbers of tilings and tiles, not on the resolution of the raw values.
+ * </p>
+ *
+ * <p>
+ * The weights are stored in one primitive array in feature-major order (feature,
+ * then action), so that the Q values of all the actions of a state are read from
+ * the same cache lines. The active features are given by the callers, so that
+ * computing Q values and updating the weights does not allocate. A Q function
+ * must not be updated by several threads.
+ * </p>
+ */
+public class LinearQFunction {
+
+  private final int actionCount;
+  private final int tilings;
+  private final int tilesPerAxis;
+
+  /** The bound of the raw values of each axis, or 0 for a discrete axis */
+  private final double[] bounds;
+
+  /** The number of tiles of each axis in a tiling */
+  private final int[] axisTiles;
+
+  /** The number of tiles of a tiling */
+  private final int tilingSize;
+
+  /** The weight of each (feature, action) pair */
+  private final double[] weights;
+
+  /**
+   * Creates a Q function where all the weights are 0.0
+   *
+   * @param environment the environment, which gives the axes of a state and their bounds
+   * @param tilings the number of tilings
+   * @param tilesPerAxis the number of intervals of a continuous axis in a tiling
+   */
+  public LinearQFunction(LearningEnvironment environment, int tilings, int tilesPerAxis) {
+    if (tilings < 1 || tilesPerAxis < 1) {
+      throw new IllegalArgumentException("Expected at least one tiling and one tile per axis");
+    }
+    StateCodec codec = environment.getStateCodec();
+    this.actionCount = environment.getActionCount();
+    this.tilings = tilings;
+    this.tilesPerAxis = tilesPerAxis;
+    this.bounds = environment.getRawStateBounds().clone();
+    this.axisTiles = new int[bounds.length];
+
+    // A continuous axis has one more tile, which is reached through the offsets
+    int size = 1;
+    for (int axis = 0; axis < bounds.length; axis++) {
+      axisTiles[axis] = bounds[axis] > 0 ? tilesPerAxis + 1 : codec.radix(axis);
+      size = Math.multiplyExact(size, axisTiles[axis]);
+    }
+    this.tilingSize = size;
+    this.weights = new double[Math.multiplyExact(Math.multiplyExact(tilings, size), actionCount)];
+  }
+
+  /**
+   * Returns the number of tilings, i.e. the number of active features of a state
+   *
+   * @return the number of tilings
+   */
+  public int getTilings() {
+    return tilings;
+  }
+
+  /**
+   * Returns the number of features
+   *
+   * @return the number of features
+   */
+  public int getFeatureCount() {
+    return tilings * tilingSize;
+  }
+
+  /**
+   * Returns the number of actions
+   *
+   * @return the number of actions
+   */
+  public int getActionCount() {
+    return actionCount;
+  }
+
+  /**
+   * Returns the raw values of a state description of an agent, e.g.
+   * [120.5,340.0,true,false,true,true,610.2]: numbers are given as they are,
+   * and booleans as 0 or 1
+   *
+   * @param stateDescription the state description
+   * @param values the array that receives the raw value of each axis
+   */
+  public static void toRawState(Object[] stateDescription, double[] values) {
+    for (int axis = 0; axis < values.length; axis++) {
+      Object value = stateDescription[axis];
+      if (value instanceof Boolean) {
+        values[axis] = (Boolean) value ? 1 : 0;
+      } else {
+        values[axis] = ((Number) value).doubleValue();
+      }
+    }
+  }
+
+  /**
+   * Computes the active features of a state: the tile of each tiling that
+   * contains the state
+   *
+   * @param rawState the raw value of each axis of the state
+   * @param features the array that receives the active feature of each tiling
+   */
+  public void encode(double[] rawState, int[] features) {
+    for (int tiling = 0; tiling < tilings; tiling++) {
+      int index = 0;
+      for (int axis = 0; axis < bounds.length; axis++) {
+        int tile;
+        double bound = bounds[axis];
+        if (bound > 0) {
+          // Offsets by odd multiples of the tiling shift the tilings differently along each axis
+          double width = bound / tilesPerAxis;
+          double offset = width * ((tiling * (2 * axis + 1)) % tilings) / tilings;
+          tile = (int) ((Math.min(Math.max(rawState[axis], 0), bound) + offset) / width);
+        } else {
+          tile = Math.min(Math.max((int) rawState[axis], 0), axisTiles[axis] - 1);
+        }
+        index = index * axisTiles[axis] + tile;
+      }
+      features[tiling] = tiling * tilingSize + index;
+    }
+  }
+
+  /**
+   * Returns the Q value of an action in a state
+   *
+   * @param features the active features of the state
+   * @param action the action
+   * @return the Q value
+   */
+  public double getValue(int[] features, int action) {
+    double value = 0;
+    for (int feature : features) {
+      value += weights[feature * actionCount + action];
+    }
+    return value;
+  }
+
+  /**
+   * Returns the action with the maximum Q value in a state, among the applicable
+   * actions. Ties are broken in favor of the action with the lowest key.
+   *
+   * @param features the active features of the state
+   * @param actionMask the bitmask of the applicable actions of the state, or 0 to consider all the actions
+   * @return the action
+   */
+  public int getMaxAction(int[] features, long actionMask) {
+    int best = -1;
+    double bestValue = 0;
+    for (int action = 0; action < actionCount; action++) {
+      if (actionMask != 0 && (actionMask & (1L << action)) == 0) {
+        continue;
+      }
+      double value = getValue(features, action);
+      if (best < 0 || value > bestValue) {
+        best = action;
+        bestValue = value;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns the maximum Q value of a state, among the applicable actions
+   *
+   * @param features the active features of the state
+   * @param actionMask the bitmask of the applicable actions of the state, or 0 to consider all the actions
+   * @return the maximum Q value
+   */
+  public double getMaxValue(int[] features, long actionMask) {
+    return getValue(features, getMaxAction(features, actionMask));
+  }
+
+  /**
+   * Applies the Q-Learning update rule to the weights of the active features of
+   * a state, so that Q(s,a) moves by
+   * alpha * (reward + gamma * max Q(s',a') - Q(s,a))
+   *
+   * @param features the active features of the state
+   * @param action the action performed in the state
+   * @param reward the immediate reward
+   * @param nextFeatures the active features of the state reached by performing the action
+   * @param nextActionMask the bitmask of the applicable actions of the next state, or 0 to consider all the actions
+   * @param alpha the learning rate
+   * @param gamma the discount factor
+   * @return the change of the Q value
+   */
+  public double update(int[] features, int action, double reward, int[] nextFeatures, long nextActionMask,
+      double alpha, double gamma) {
+    double delta = alpha * (reward + gamma * getMaxValue(nextFeatures, nextActionMask) - getValue(features, action));
+
+    // Each tiling has one active feature, so the Q value moves by delta
+    double weightDelta = delta / tilings;
+    for (int feature : features) {
+      weights[feature * actionCount + action] += weightDelta;
+    }
+    return delta;
+  }
+}
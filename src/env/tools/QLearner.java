@@ -1,32 +1,143 @@
 package tools;
 
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntToLongFunction;
 import java.util.logging.*;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import cartago.Artifact;
+import cartago.GUARD;
+import cartago.INTERNAL_OPERATION;
 import cartago.OPERATION;
 import cartago.OpFeedbackParam;
 
 public class QLearner extends Artifact {
 
-  private Lab lab; // the lab environment that will be learnt 
+  private LearningEnvironment lab; // the lab environment that will be learnt 
   private int stateCount; // the number of possible states in the lab environment
   private int actionCount; // the number of possible actions in the lab environment
-  private HashMap<Integer, double[][]> qTables; // a map for storing the qTables computed for different goals
+  private boolean dashboardEnabled = true; // whether calculateQ opens a Q-Learning dashboard
+  private int dashboardFramesPerSecond = 10; // the refresh rate of the dashboard
+  private volatile HashMap<Integer, QTable> qTables; // a map for storing the qTables computed for different goals, replaced as a whole when qTables are installed (see putQTables)
+  private volatile HashMap<Integer, int[]> policies; // the greedy policy (best action by state) of each qTable, replaced together with the qTables
+  private ActionDescriptor[] actionDescriptors; // the descriptions of the actions returned to agents, by action key
+  private QTableStore store; // the persistent store of the qTables, or null if the qTables are not persisted
+  private int checkpointEpisodes = 100; // the number of episodes between two checkpoints of a stored qTable
+  private volatile TrainingSettings settings = TrainingSettings.DEFAULT; // the schedules, convergence criterion, planning and replay of the training runs, replaced as a whole when a setting changes
+  private List<LearningEnvironment> actorEnvironments = new ArrayList<>(); // the environments of the parallel actors, or empty for in-process simulated labs
+  private boolean simulatorTraining = false; // whether goals may be trained against in-process simulated labs when no actor labs are set
+  private final TrainingMetrics metrics = new TrainingMetrics(); // the metrics of the training runs, which are also exposed through JMX
+  private ObjectName metricsName; // the JMX name of the metrics, or null if they are not registered
+  private boolean metricsDefined = false; // whether the metrics are defined as observable properties
+  private long metricsPublishedNanos; // the time (System.nanoTime) at which the metrics were last published
+  private boolean onlineLearning = false; // whether observed transitions update the Q tables, and getActionFromState explores
+  private double onlineAlpha; // the learning rate of online updates
+  private double onlineGamma; // the discount factor of online updates
+  private double onlineEpsilon; // the exploration probability of getActionFromState in online mode
+  private int onlineReward; // the reward assigned to observed transitions that reach the goal state
+  private final SplittableRandom onlineRandom = new SplittableRandom(); // the random number generator of online exploration
+  private final Map<Integer, BitSet> goalStates = new HashMap<>(); // the goal states of each goal key, for online updates
+  private final Map<Integer, int[]> goalValuesByKey = new ConcurrentHashMap<>(); // the goal description of each goal key, for warm starts
+  private int warmStartNeighbours = 0; // the number of trained goals a new Q table is seeded from, or 0 to start from zeros
+  private int warmStartMaxDistance = Integer.MAX_VALUE; // the largest distance of a trained goal a new Q table is seeded from
+  private ExecutorService trainingJobExecutor; // the thread of the background training jobs, created on the first job
+  private TrainingJob trainingJob; // the last background training job, or null
+  private int trainingJobIds = 0; // the id of the last background training job
+  private int approximationTilings = 0; // the number of tilings of linear function approximation, or 0 to learn Q tables
+  private int approximationTiles = 4; // the number of intervals of a continuous state axis in a tiling
+  private volatile HashMap<Integer, LinearQFunction> qFunctions = new HashMap<>(); // the approximated Q functions computed for different goals, replaced as a whole on updates
+  private boolean sparse = false; // whether the Q values are kept in sparse Q tables keyed by state key, always true for labs too large for int indices
+  private volatile HashMap<Integer, SparseQTable> sparseQTables = new HashMap<>(); // the sparse Q tables computed for different goals, replaced as a whole on updates
+
+  private static final String DEFAULT_STORE_DIRECTORY = "qtables"; // the default directory of the persistent store
+
+  private static final int DASHBOARD_QUEUE_CAPACITY = 1 << 14; // the maximum number of step events pending for the dashboard
+
+  private static final int LOCK_STRIPES = 64; // the number of lock stripes of a Q table that is shared by parallel actors
+
+  private static final long METRICS_PUBLISH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1); // how often the metrics are published while training
+
+  private static final AtomicInteger METRICS_IDS = new AtomicInteger(); // distinguishes the JMX names of the metrics of several artifacts
+
+  private static final double MAX_ONLINE_EPSILON = 0.1; // the maximum exploration probability while acting in the lab
+
+  private static final double WARM_START_PRIOR = 1; // the Q value of the preferred action of a state of a warm-started Q table, i.e. the cost of one step
+
+  private static final long TRAINING_JOB_POLL_MILLIS = 500; // how often the progress of a background training job is published
+
+  private static final int SPARSE_INITIAL_CAPACITY = 1 << 12; // the number of visited states a new sparse Q table holds before it grows
 
   private static final Logger LOGGER = Logger.getLogger(QLearner.class.getName());
 
   public void init(String environmentURL) {
 
     // the URL of the W3C Thing Description of the lab Thing
-    this.lab = new Lab(environmentURL);
+    setup(new Lab(environmentURL), DEFAULT_STORE_DIRECTORY);
+  }
+
+  /**
+  * Initializes the artifact against a lab, and maps the Q tables that are stored
+  * in the given directory. Q tables that are computed later are stored in the same
+  * directory, so they survive restarts of the application.
+  *
+  * @param environmentURL the URL of the W3C Thing Description of the lab Thing
+  * @param storeDirectory the directory of the stored Q tables, or "" to not store Q tables
+  */
+  public void init(String environmentURL, String storeDirectory) {
+    setup(new Lab(environmentURL), storeDirectory);
+  }
+
+  /**
+  * Initializes the artifact against an in-process {@link SimulatedLab}, e.g. for
+  * pre-training Q tables without HTTP round trips
+  */
+  public void init() {
+    setup(new SimulatedLab(), null);
+  }
+
+  private void setup(LearningEnvironment environment, String storeDirectory) {
+
+    this.lab = environment;
 
     this.stateCount = this.lab.getStateCount();
-    LOGGER.info("Initialized with a state space of n="+ stateCount);
+    this.sparse = !this.lab.fitsQTable();
+    LOGGER.info("Initialized with a state space of n="+ this.lab.getStateCodec().keyCount()
+        + (sparse ? " (sparse Q tables)" : ""));
 
     this.actionCount = this.lab.getActionCount();
     LOGGER.info("Initialized with an action space of m="+ actionCount);
 
+    this.actionDescriptors = ActionDescriptor.of(this.lab);
+
     qTables = new HashMap<>();
+    policies = new HashMap<>();
+
+    if (lab instanceof Lab) {
+      metrics.setLatencies(((Lab) lab).getActionLatency(), ((Lab) lab).getStatusLatency());
+    }
+    registerMetrics();
+
+    if (storeDirectory != null && !storeDirectory.isEmpty() && !sparse) {
+      try {
+        store = new QTableStore(Paths.get(storeDirectory), lab.getStateCodec(), actionCount);
+        for (QTableStore.Entry entry : store.loadAll()) {
+          qTables.put(Arrays.hashCode(entry.getGoal()), withActionMasks(entry.getQTable()));
+          goalValuesByKey.put(Arrays.hashCode(entry.getGoal()), entry.getGoal());
+          policies.put(Arrays.hashCode(entry.getGoal()), entry.getQTable().toPolicy());
+        }
+        LOGGER.info("Mapped " + qTables.size() + " stored Q tables from " + storeDirectory);
+      } catch (IOException e) {
+        LOGGER.warning("Q tables will not be stored: " + e.getMessage());
+        store = null;
+      }
+    }
   }
 
 /**
@@ -51,9 +162,52 @@ public class QLearner extends Artifact {
 * @param  gammaObj the discount factor [0,1]
 * @param epsilonObj the exploration probability [0,1]
 * @param rewardObj the reward assigned when reaching the goal state
+*
+*<p>
+* If Q tables are stored, the stored Q table of the goal description is trained
+* further. If it was stored by an interrupted run with the same episodes and
+* hyperparameters, only the remaining episodes are run.
+*</p>
+*
+*<p>
+* The learning rate and the exploration probability decay as set by
+* {@link #setSchedule}, and training stops early once the Q matrix has converged
+* as set by {@link #setConvergence}.
+*</p>
 **/
   @OPERATION
   public void calculateQ(Object[] goalDescription , Object episodesObj, Object alphaObj, Object gammaObj, Object epsilonObj, Object rewardObj) {
+    runCalculateQ(goalDescription, episodesObj, alphaObj, gammaObj, epsilonObj, rewardObj);
+  }
+
+/**
+* Computes a Q matrix like {@link #calculateQ(Object[], Object, Object, Object, Object, Object)},
+* and reports why training stopped and how many episodes were run.
+*
+* @param  goalDescription  the desired goal against the which the Q matrix is calculated (e.g., [2,3])
+* @param  episodesObj the maximum number of episodes used for calculating the Q matrix
+* @param  alphaObj the (initial) learning rate with range [0,1].
+* @param  gammaObj the discount factor [0,1]
+* @param epsilonObj the (initial) exploration probability [0,1]
+* @param rewardObj the reward assigned when reaching the goal state
+* @param stopReason the (returned) reason why training stopped: "converged" or "episodes"
+* @param episodesUsed the (returned) number of episodes that were run
+**/
+  @OPERATION
+  public void calculateQ(Object[] goalDescription , Object episodesObj, Object alphaObj, Object gammaObj, Object epsilonObj, Object rewardObj,
+      OpFeedbackParam<String> stopReason, OpFeedbackParam<Integer> episodesUsed) {
+    TrainingController controller = runCalculateQ(goalDescription, episodesObj, alphaObj, gammaObj, epsilonObj, rewardObj);
+    if (controller == null) {
+      return;
+    }
+    stopReason.set(controller.getStopReason().toString());
+    episodesUsed.set(controller.getEpisodes());
+  }
+
+  private TrainingController runCalculateQ(Object[] goalDescription , Object episodesObj, Object alphaObj, Object gammaObj, Object epsilonObj, Object rewardObj) {
+    if (failIfTraining("calculateQ", goalKey(goalDescription))) {
+      return null;
+    }
     
     // ensure that the right datatypes are used
     Integer episodes = Integer.valueOf(episodesObj.toString());
@@ -62,244 +216,1667 @@ public class QLearner extends Artifact {
     Double epsilon = Double.valueOf(epsilonObj.toString());
     Integer reward = Integer.valueOf(rewardObj.toString());
 
+    try {
+      if (approximationTilings > 0) {
+        return calculateQFunction(goalDescription, episodes, alpha, gamma, epsilon, reward);
+      }
+      if (sparse) {
+        return calculateSparseQTable(goalDescription, episodes, alpha, gamma, epsilon, reward);
+      }
+      return calculateQTable(goalDescription, episodes, alpha, gamma, epsilon, reward);
+    } catch (IllegalStateException e) {
+      // e.g. the lab could not be read, so nothing is learnt from the failed step
+      endMetrics();
+      failed("Failed to compute the Q matrix of " + Arrays.toString(goalDescription) + ": " + e.getMessage());
+      return null;
+    }
+  }
 
-    // Convert goalDescription elements to Integer
-    Integer goalZ1 = ((Number) goalDescription[0]).intValue();
-    Integer goalZ2 = ((Number) goalDescription[1]).intValue();
-    List<Integer> intGoalDescription = Arrays.asList(goalZ1, goalZ2);
-
+  /**
+  * Computes the Q table of a goal description, see {@link #calculateQ}
+  */
+  private TrainingController calculateQTable(Object[] goalDescription, int episodes, double alpha, double gamma, double epsilon, int reward) {
 
-    // Initialize the Q-Table
-    double[][] qTable = initializeQTable();
+    // Initialize the Q-Table, or map it from the store
+    QTableStore.Entry stored = openStored(goalDescription);
+    QTable qTable = openQTable(goalDescription, stored);
+    int remainingEpisodes = stored != null ? stored.prepare(episodes, alpha, gamma, epsilon, reward) : episodes;
     
     // Initialize GUI
-    QLearningVisualizer visualizer = new QLearningVisualizer("Q-Learning Dashboard");
-    int step = 0;
-
-
-    // Main Q-Learning loop
-    for (int e = 0; e < episodes; e++) {
-        // Randomize initial state by performing a random action
-        lab.performAction((int) (Math.random() * actionCount));
-        int state = lab.readCurrentState();
-      
-        for (int stepCount = 0; stepCount < 100; stepCount++) { // assuming a max of 1000 steps per episode
-            // Choose action using epsilon-greedy policy
-            int action;
-            if (Math.random() < epsilon) {
-                action = (int) (Math.random() * actionCount);
-            } else {
-                action = getMaxQAction(qTable, state);
-            }
-
-            // Perform action and get reward and next state
-            lab.performAction(action);
-            int nextState = lab.readCurrentState();
-            double immediateReward = getImmediateReward(nextState, goalDescription, reward);
-
-            // Update Q-Value
-            double oldQValue = qTable[state][action];
-            double maxQValueNextState = getMaxQValue(qTable, nextState);
-            qTable[state][action] = oldQValue + alpha * (immediateReward + gamma * maxQValueNextState - oldQValue);
-
-            // Update Q-Value
-            updateQTable(qTable, state, action, immediateReward, nextState, alpha, gamma);
-
-            // Update visualization
-            List<Integer> currentStateDesc = lab.getStateDescription(state);
-            visualizer.update(step, currentStateDesc, intGoalDescription, action, immediateReward);
-            visualizer.updateQTable(qTable);
-            step++;
-
-            // Transition to next state
-            state = nextState;
-            LOGGER.info("Transition to state: " + state);
-            
-            // Check if goal state is reached
-            if (isGoalState(nextState, goalDescription)) {
-                LOGGER.info("Goal reached: " + goalDescription);
-                break;
-            }
-        }
+    TrainingEventQueue events = null;
+    if (dashboardEnabled && !GraphicsEnvironment.isHeadless()) {
+      events = new TrainingEventQueue(DASHBOARD_QUEUE_CAPACITY);
+      List<Integer> intGoalDescription = Arrays.asList(
+          ((Number) goalDescription[0]).intValue(), ((Number) goalDescription[1]).intValue());
+      QLearningVisualizer.open("Q-Learning Dashboard", events, lab.getStateCodec(), qTable,
+          intGoalDescription, dashboardFramesPerSecond);
+    }
+
+    IntConsumer checkpoint = checkpointer(stored, episodes - remainingEpisodes);
+    TrainingController controller = settings.newController(alpha, epsilon);
+    controller.start(qTable, episodes - remainingEpisodes);
+    startMetrics();
+    try {
+      train(lab, qTable, goalDescription, remainingEpisodes, controller, gamma, reward, new SplittableRandom(), events,
+          e -> {
+            checkpoint.accept(e);
+            publishMetrics(false);
+          });
+    } finally {
+      // Let the dashboard plot the last steps and stop refreshing
+      if (events != null) {
+        events.close();
+      }
+    }
+    if (stored != null) {
+      stored.checkpoint(episodes);
     }
 
-    int goalHash = Arrays.hashCode(goalDescription);
-    qTables.put(goalHash, qTable);
+    putQTables(Collections.singletonMap(goalKey(goalDescription), qTable));
+    endMetrics();
+    LOGGER.info("Computed the Q matrix of " + Arrays.toString(goalDescription) + " in " + controller.getEpisodes()
+        + " episodes (stopped: " + controller.getStopReason() + ")");
 
     printQTable(qTable);
-    //visualizer.updateQTable(qTable);
+    return controller;
 }
 
+  /**
+  * Computes the approximated Q function of a goal description, see
+  * {@link #setFunctionApproximation}
+  */
+  private TrainingController calculateQFunction(Object[] goalDescription, int episodes, double alpha, double gamma, double epsilon, int reward) {
+    LinearQFunction qFunction = new LinearQFunction(lab, approximationTilings, approximationTiles);
+    TrainingController controller = settings.newController(alpha, epsilon);
+    controller.start(null, 0);
+    startMetrics();
+    trainLinear(lab, qFunction, goalDescription, episodes, controller, gamma, reward, new SplittableRandom(),
+        e -> publishMetrics(false));
 
-public void calculateQ(String goalDescriptionStr, int episodes, double alpha, double gamma, double epsilon, int reward) {
-    Object[] goalDescription = parseGoalDescription(goalDescriptionStr);
-    calculateQ(goalDescription, episodes, alpha, gamma, epsilon, reward);
-}
+    HashMap<Integer, LinearQFunction> updated = new HashMap<>(qFunctions);
+    updated.put(goalKey(goalDescription), qFunction);
+    qFunctions = updated;
+    endMetrics();
+    LOGGER.info("Computed the Q function of " + Arrays.toString(goalDescription) + " with " + qFunction.getFeatureCount()
+        + " features in " + controller.getEpisodes() + " episodes (stopped: " + controller.getStopReason() + ")");
+    return controller;
+  }
 
-private Object[] parseGoalDescription(String goalDescriptionStr) {
-    String[] parts = goalDescriptionStr.replace("[", "").replace("]", "").split(",");
-    Object[] goalDescription = new Object[parts.length];
-    for (int i = 0; i < parts.length; i++) {
-        goalDescription[i] = Integer.parseInt(parts[i].trim());
-    }
-    return goalDescription;
-}
+  /**
+  * Computes the sparse Q table of a goal description, see {@link #setSparseQTables}
+  */
+  private TrainingController calculateSparseQTable(Object[] goalDescription, int episodes, double alpha, double gamma, double epsilon, int reward) {
+    SparseQTable qTable = new SparseQTable(actionCount, SPARSE_INITIAL_CAPACITY, lab::getApplicableActionMask);
+    TrainingController controller = settings.newController(alpha, epsilon);
+    controller.start(null, 0);
+    startMetrics();
+    trainSparse(lab, qTable, goalDescription, episodes, controller, gamma, reward, new SplittableRandom(),
+        e -> publishMetrics(false));
 
-  private int getMaxQAction(double[][] qTable, int state) {
-      double maxQ = Double.NEGATIVE_INFINITY;
-      int action = -1;
-      for (int a = 0; a < qTable[state].length; a++) {
-          if (qTable[state][a] > maxQ) {
-              maxQ = qTable[state][a];
-              action = a;
-          }
-      }
-      return action;
+    HashMap<Integer, SparseQTable> updated = new HashMap<>(sparseQTables);
+    updated.put(goalKey(goalDescription), qTable);
+    sparseQTables = updated;
+    endMetrics();
+    LOGGER.info("Computed the sparse Q matrix of " + Arrays.toString(goalDescription) + " with " + qTable.size()
+        + " visited states in " + controller.getEpisodes() + " episodes (stopped: " + controller.getStopReason() + ")");
+    return controller;
   }
 
+/**
+* Configures the Q-Learning dashboard that is opened by {@link #calculateQ}. The
+* dashboard consumes the training steps asynchronously, so the speed of training
+* does not depend on whether it is open.
+*
+* @param enabledObj whether a dashboard is opened for each training run
+* @param framesPerSecondObj the number of times per second the dashboard is refreshed
+**/
+  @OPERATION
+  public void configureDashboard(Object enabledObj, Object framesPerSecondObj) {
+    this.dashboardEnabled = Boolean.parseBoolean(enabledObj.toString());
+    this.dashboardFramesPerSecond = Math.max(1, (int) Double.parseDouble(framesPerSecondObj.toString()));
+  }
 
-  private void updateQTable(double[][] qTable, int state, int action, double reward, int nextState, double alpha, double gamma) {
-    double oldQValue = qTable[state][action];
-    double maxQValueNextState = getMaxQValue(qTable, nextState);
-    qTable[state][action] = oldQValue + alpha * (reward + gamma * maxQValueNextState - oldQValue);
+/**
+* Sets the number of episodes between two checkpoints of a stored Q table. At a
+* checkpoint, the Q table and the progress of training are forced to the disk, so
+* that training can be resumed after a crash.
+*
+* @param episodesObj the number of episodes between two checkpoints
+**/
+  @OPERATION
+  public void setCheckpointInterval(Object episodesObj) {
+    this.checkpointEpisodes = Math.max(1, (int) Double.parseDouble(episodesObj.toString()));
   }
 
-  private double getMaxQValue(double[][] qTable, int state) {
-      double maxQ = Double.NEGATIVE_INFINITY;
-      for (double q : qTable[state]) {
-          if (q > maxQ) {
-              maxQ = q;
-          }
-      }
-      return maxQ;
+/**
+* Enables Dyna-Q planning: the transitions observed during training are recorded
+* in a {@link DynaModel}, and after each action performed in the lab, the Q matrix
+* is updated from the given number of transitions replayed from the model. A
+* usable Q matrix then needs fewer episodes, i.e. fewer actions in the lab.
+*
+* @param stepsObj the number of planning updates after each real step, or 0 to disable planning
+**/
+  @OPERATION
+  public void setPlanningSteps(Object stepsObj) {
+    this.settings = settings.withPlanning(Math.max(0, (int) Double.parseDouble(stepsObj.toString())));
   }
 
-  private boolean isGoalState(int state, Object[] goalDescription) {
-    List<Integer> currentState = lab.getStateDescription(state);
-    boolean isGoal = currentState.get(0).equals(goalDescription[0]) && currentState.get(1).equals(goalDescription[1]);
-    if (isGoal) {
-        LOGGER.info("State " + state + " matches goal state: " + Arrays.toString(goalDescription));
+/**
+* Enables experience replay: the transitions observed during training are kept in
+* a {@link ReplayBuffer} of a fixed capacity, and after each action performed in
+* the lab, the Q matrix is updated from a mini-batch of transitions drawn from the
+* buffer.
+*
+* @param capacityObj the maximum number of kept transitions, or 0 to disable experience replay
+* @param batchSizeObj the number of replayed transitions after each real step
+* @param samplingObj "uniform" to draw all the kept transitions equally, or "recency" to favor recent transitions
+**/
+  @OPERATION
+  public void setExperienceReplay(Object capacityObj, Object batchSizeObj, Object samplingObj) {
+    ReplayBuffer.Sampling sampling;
+    try {
+      sampling = ReplayBuffer.Sampling.valueOf(samplingObj.toString().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      failed("Unknown sampling: " + samplingObj);
+      return;
     }
-    return isGoal;
-}
+    this.settings = settings.withReplay(Math.max(0, (int) Double.parseDouble(capacityObj.toString())),
+        Math.max(1, (int) Double.parseDouble(batchSizeObj.toString())), sampling);
+  }
 
+/**
+* Sets the schedules of the learning rate and of the exploration probability:
+* after each episode, they are multiplied by a decay factor, down to a minimum.
+* For example, an exploration probability of 0.9 with a decay of 0.99 and a
+* minimum of 0.05 explores a lot in the first episodes and exploits the learnt
+* Q values afterwards.
+*
+* @param alphaDecayObj the decay factor of the learning rate in (0,1], or 1 for a fixed learning rate
+* @param alphaMinObj the minimum learning rate
+* @param epsilonDecayObj the decay factor of the exploration probability in (0,1], or 1 for a fixed exploration probability
+* @param epsilonMinObj the minimum exploration probability
+**/
+  @OPERATION
+  public void setSchedule(Object alphaDecayObj, Object alphaMinObj, Object epsilonDecayObj, Object epsilonMinObj) {
+    double alphaDecay = Double.parseDouble(alphaDecayObj.toString());
+    double epsilonDecay = Double.parseDouble(epsilonDecayObj.toString());
+    if (alphaDecay <= 0 || alphaDecay > 1 || epsilonDecay <= 0 || epsilonDecay > 1) {
+      failed("The decay factors must be in (0,1]");
+      return;
+    }
+    this.settings = settings.withSchedule(alphaDecay, Math.max(0, Double.parseDouble(alphaMinObj.toString())),
+        epsilonDecay, Math.max(0, Double.parseDouble(epsilonMinObj.toString())));
+  }
 
+/**
+* Enables early stopping: training stops once, for a window of consecutive
+* episodes, no Q value changed by more than a threshold and the greedy policy
+* changed in at most a given number of states. The Q matrix has then converged,
+* and further episodes would only cost time in the lab.
+*
+* @param qDeltaObj the largest change of a Q value in an episode that counts as converged
+* @param policyChangesObj the largest number of states whose greedy action changed in an episode that counts as converged
+* @param windowObj the number of consecutive converged episodes after which training stops, or 0 to disable early stopping
+**/
+  @OPERATION
+  public void setConvergence(Object qDeltaObj, Object policyChangesObj, Object windowObj) {
+    this.settings = settings.withConvergence(Math.max(0, Double.parseDouble(qDeltaObj.toString())),
+        Math.max(0, (int) Double.parseDouble(policyChangesObj.toString())),
+        Math.max(0, (int) Double.parseDouble(windowObj.toString())));
+  }
 
+/**
+* Enables warm starts: when a Q matrix is computed for a goal description that
+* has no Q matrix yet, it is seeded from the Q matrices of the nearest trained
+* goals instead of starting from zeros, so that training needs fewer episodes (and
+* fewer actions in the lab) when the task requirements of an agent change. The
+* distance between two goals is the sum of the differences of their values, e.g.
+* [2,2] is at distance 1 of [2,3]. With several neighbours, their Q matrices are
+* blended with weights that decrease with their distance. The new Q matrix starts
+* with a small preference for the greedy action of the blend in each state (see
+* {@link QTable#seedPolicy}).
+*
+* @param neighboursObj the number of nearest trained goals a new Q matrix is seeded from, or 0 to start from zeros
+* @param maxDistanceObj the largest distance of a trained goal a new Q matrix is seeded from
+**/
+  @OPERATION
+  public void setWarmStart(Object neighboursObj, Object maxDistanceObj) {
+    this.warmStartNeighbours = Math.max(0, (int) Double.parseDouble(neighboursObj.toString()));
+    this.warmStartMaxDistance = Math.max(0, (int) Double.parseDouble(maxDistanceObj.toString()));
+  }
 
-private double getImmediateReward(int state, Object[] goalDescription, int reward) {
-  if (isGoalState(state, goalDescription)) {
-      LOGGER.info("Goal state reached: " + Arrays.toString(goalDescription) + " at state: " + state);
-      return reward;
+/**
+* Enables linear function approximation: {@link #calculateQ} then learns the Q
+* values as a linear function of tile-coded features of the raw state of the lab
+* (the lux values of the light levels and of the sunshine, and the devices; see
+* {@link LinearQFunction}), instead of a Q table over the discretized states, and
+* {@link #getActionFromState} chooses the actions from the raw state description.
+* The memory of a Q function only depends on the numbers of tilings and tiles.
+* Storing, warm starts, planning and experience replay only apply to Q tables.
+*
+* @param tilingsObj the number of tilings, e.g. 8, or 0 to learn Q tables
+* @param tilesObj the number of intervals of a continuous axis in a tiling, e.g. 4
+**/
+  @OPERATION
+  public void setFunctionApproximation(Object tilingsObj, Object tilesObj) {
+    int tilings = Math.max(0, (int) Double.parseDouble(tilingsObj.toString()));
+    if (tilings > 0 && !lab.fitsQTable()) {
+      failed("Function approximation is not available for a lab with " + lab.getStateCodec().keyCount() + " states");
+      return;
+    }
+    this.approximationTilings = tilings;
+    this.approximationTiles = Math.max(1, (int) Double.parseDouble(tilesObj.toString()));
   }
-  return -1;
-}
 
 /**
-* Returns information about the next best action based on a provided state and the QTable for
-* a goal description. The returned information can be used by agents to invoke an action 
-* using a ThingArtifact.
+* Keeps the Q values of {@link #calculateQ} in sparse Q tables, which only hold the
+* states that were visited (see {@link SparseQTable}), instead of Q tables that
+* hold every state of the lab. Labs whose state space is too large for a Q table,
+* e.g. labs with five zones or more, always use sparse Q tables (see
+* {@link LearningEnvironment#fitsQTable()}). Storing, the dashboard,
+* warm starts, planning, experience replay, parallel actors, multi-goal training and
+* background training only apply to Q tables, and function approximation takes
+* precedence when it is enabled.
 *
-* @param  goalDescription  the desired goal against the which the Q matrix is calculated (e.g., [2,3])
-* @param  currentStateDescription the current state e.g. [2,2,true,false,true,true,2]
-* @param  nextBestActionTag the (returned) semantic annotation of the next best action, e.g. "http://example.org/was#SetZ1Light"
-* @param  nextBestActionPayloadTags the (returned) semantic annotations of the payload of the next best action, e.g. [Z1Light]
-* @param nextBestActionPayload the (returned) payload of the next best action, e.g. true
+* @param enabledObj whether the Q values are kept in sparse Q tables
 **/
   @OPERATION
-  public void getActionFromState(Object[] goalDescription, Object[] currentStateDescription,
-      OpFeedbackParam<String> nextBestActionTag, OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-      OpFeedbackParam<Object[]> nextBestActionPayload) {
-        Integer goalZ1 = ((Number) goalDescription[0]).intValue();
-    Integer goalZ2 = ((Number) goalDescription[1]).intValue();
-    int goalHash = Arrays.hashCode(goalDescription);
+  public void setSparseQTables(Object enabledObj) {
+    this.sparse = Boolean.parseBoolean(enabledObj.toString()) || !lab.fitsQTable();
+  }
 
-    double[][] qTable = qTables.get(goalHash);
-    if (qTable == null) {
-        failed("Q-Table for goal state not found.");
+/**
+* Sets the environments of the parallel actors of {@link #calculateQParallel}, and
+* of the goals of {@link #calculateQForGoals}: one {@link Lab} per given Thing
+* Description, e.g. several instances of the simulator. The labs must have the
+* same state space and action space as the lab of the artifact.
+*
+* @param environmentURLs the URLs of the W3C Thing Descriptions of the labs, or [] for in-process simulated labs
+**/
+  @OPERATION
+  public void setActorEnvironments(Object[] environmentURLs) {
+    List<LearningEnvironment> environments = new ArrayList<>();
+    for (Object url : environmentURLs) {
+      Lab environment = new Lab(url.toString());
+      if (!environment.getStateCodec().equals(lab.getStateCodec()) || environment.getActionCount() != actionCount) {
+        failed("The lab of " + url + " has a different state space or action space");
         return;
+      }
+      environments.add(environment);
     }
+    this.actorEnvironments = environments;
+  }
 
+/**
+* Allows {@link #calculateQForGoals} and {@link #startTraining} to train against
+* in-process {@link SimulatedLab}s when no actor labs are set (see {@link #setActorEnvironments}).
+* The Q matrices are then learnt from the physics of the simulator rather than
+* from the lab, so this is only allowed by default if the artifact learns a
+* simulated lab (see {@link #init()}).
+*
+* @param enabledObj whether goals may be trained against simulated labs
+**/
+  @OPERATION
+  public void setSimulatorTraining(Object enabledObj) {
+    this.simulatorTraining = Boolean.parseBoolean(enabledObj.toString());
+  }
 
-    int currentState = lab.getStateIndex(currentStateDescription);
-    int bestAction = getMaxQAction(qTable, currentState);
-
-    switch (bestAction) {
-        case 0:
-            nextBestActionTag.set("http://example.org/was#SetZ1Light");
-            nextBestActionPayloadTags.set(new Object[]{"Z1Light"});
-            nextBestActionPayload.set(new Object[]{true});
-            break;
-        case 1:
-            nextBestActionTag.set("http://example.org/was#SetZ1Light");
-            nextBestActionPayloadTags.set(new Object[]{"Z1Light"});
-            nextBestActionPayload.set(new Object[]{false});
-            break;
-        case 2:
-            nextBestActionTag.set("http://example.org/was#SetZ2Light");
-            nextBestActionPayloadTags.set(new Object[]{"Z2Light"});
-            nextBestActionPayload.set(new Object[]{true});
-            break;
-        case 3:
-            nextBestActionTag.set("http://example.org/was#SetZ2Light");
-            nextBestActionPayloadTags.set(new Object[]{"Z2Light"});
-            nextBestActionPayload.set(new Object[]{false});
-            break;
-        case 4:
-            nextBestActionTag.set("http://example.org/was#SetZ1Blinds");
-            nextBestActionPayloadTags.set(new Object[]{"Z1Blinds"});
-            nextBestActionPayload.set(new Object[]{true});
-            break;
-        case 5:
-            nextBestActionTag.set("http://example.org/was#SetZ1Blinds");
-            nextBestActionPayloadTags.set(new Object[]{"Z1Blinds"});
-            nextBestActionPayload.set(new Object[]{false});
-            break;
-        case 6:
-            nextBestActionTag.set("http://example.org/was#SetZ2Blinds");
-            nextBestActionPayloadTags.set(new Object[]{"Z2Blinds"});
-            nextBestActionPayload.set(new Object[]{true});
-            break;
-        case 7:
-            nextBestActionTag.set("http://example.org/was#SetZ2Blinds");
-            nextBestActionPayloadTags.set(new Object[]{"Z2Blinds"});
-            nextBestActionPayload.set(new Object[]{false});
-            break;
-        default:
-            failed("Invalid action index: " + bestAction);
-      }
-         
+/**
+* Computes a Q matrix like {@link #calculateQ}, with several actors that run in
+* parallel and update the same Q matrix. Each actor interacts with its own
+* environment, so training is not bound by the step latency of a single lab. The
+* episodes are shared out among the actors.
+*
+*<p>
+* The actors interact with the labs set by {@link #setActorEnvironments} (one actor
+* per lab), or else with the given number of in-process {@link SimulatedLab}s, which
+* must have the state space of the lab (i.e. two zones). The Q matrix is updated
+* Hogwild-style: each update locks one of several stripes of states, so actors
+* rarely wait for each other.
+*</p>
+*
+* @param  goalDescription  the desired goal against the which the Q matrix is calculated (e.g., [2,3])
+* @param  episodesObj the total number of episodes used for calculating the Q matrix
+* @param  alphaObj the learning rate with range [0,1].
+* @param  gammaObj the discount factor [0,1]
+* @param epsilonObj the exploration probability [0,1]
+* @param rewardObj the reward assigned when reaching the goal state
+* @param actorsObj the number of actors, if they interact with in-process simulated labs
+**/
+  @OPERATION
+  public void calculateQParallel(Object[] goalDescription, Object episodesObj, Object alphaObj, Object gammaObj, Object epsilonObj, Object rewardObj, Object actorsObj) {
+    if (failIfSparse("calculateQParallel") || failIfTraining("calculateQParallel", goalKey(goalDescription))) {
+      return;
+    }
 
+    // ensure that the right datatypes are used
+    int episodes = Integer.parseInt(episodesObj.toString());
+    double alpha = Double.parseDouble(alphaObj.toString());
+    double gamma = Double.parseDouble(gammaObj.toString());
+    double epsilon = Double.parseDouble(epsilonObj.toString());
+    int reward = Integer.parseInt(rewardObj.toString());
+
+    // Create the environments of the actors, which must have the state space of the lab
+    SplittableRandom seeds = new SplittableRandom();
+    List<LearningEnvironment> environments = createTrainingEnvironments(
+      (int) Double.parseDouble(actorsObj.toString()), true, seeds);
+    if (environments == null) {
+      return;
     }
+    int actors = environments.size();
 
-    /**
-    * Print the Q matrix
-    *
-    * @param qTable the Q matrix
-    */
-  void printQTable(double[][] qTable) {
-    System.out.println("Q matrix");
-    for (int i = 0; i < qTable.length; i++) {
-      System.out.print("From state " + i + ":  ");
-     for (int j = 0; j < qTable[i].length; j++) {
-      System.out.printf("%6.2f ", (qTable[i][j]));
+    // Initialize the Q-Table, or map it from the store, and share it among the actors
+    QTableStore.Entry stored = openStored(goalDescription);
+    QTable qTable = openQTable(goalDescription, stored);
+    int remainingEpisodes = stored != null ? stored.prepare(episodes, alpha, gamma, epsilon, reward) : episodes;
+    qTable.setLockStripes(LOCK_STRIPES);
+
+    // Count the episodes of all the actors for checkpointing
+    IntConsumer checkpoint = checkpointer(stored, episodes - remainingEpisodes);
+    AtomicInteger completed = new AtomicInteger();
+
+    startMetrics();
+    ExecutorService pool = Executors.newFixedThreadPool(actors);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < actors; i++) {
+        LearningEnvironment environment = environments.get(i);
+        int actorEpisodes = remainingEpisodes / actors + (i < remainingEpisodes % actors ? 1 : 0);
+        SplittableRandom random = seeds.split();
+
+        // Each actor decays its schedules with its own episodes, and stops once it sees the Q matrix converge
+        TrainingController controller = settings.newController(alpha, epsilon);
+        controller.start(qTable, (episodes - remainingEpisodes) / actors);
+
+        results.add(pool.submit(() -> train(environment, qTable, goalDescription, actorEpisodes,
+            controller, gamma, reward, random, null, e -> checkpoint.accept(completed.incrementAndGet()))));
       }
-      System.out.println();
+      for (Future<?> result : results) {
+        result.get();
+      }
+      qTable.setLockStripes(0);
+      if (stored != null) {
+        stored.checkpoint(episodes);
+      }
+      LOGGER.info("Computed the Q matrix of " + Arrays.toString(goalDescription) + " with " + actors + " actors");
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failed("Interrupted while computing the Q matrix");
+      return;
+    } catch (ExecutionException e) {
+      failed("Failed to compute the Q matrix: " + e.getCause());
+      return;
+    } finally {
+      pool.shutdownNow();
+      endMetrics();
     }
+
+    putQTables(Collections.singletonMap(goalKey(goalDescription), qTable));
   }
 
-  /**
-  * Initialize a Q matrix
-  *
-  * @return the Q matrix
-  */
- private double[][] initializeQTable() {
-    double[][] qTable = new double[this.stateCount][this.actionCount];
-    for (int i = 0; i < stateCount; i++){
-      for(int j = 0; j < actionCount; j++){
-        qTable[i][j] = 0.0;
+/**
+* Computes the Q matrices for several goal descriptions at once, e.g. for all the
+* 16 goal descriptions of exercise 11. The goals are trained in parallel on a pool
+* with (at most) one thread per available core, each with its own stream of random
+* numbers. The Q matrices are stored together once all the goals have been trained.
+*
+*<p>
+* The goals are trained against the labs set by {@link #setActorEnvironments}, one
+* goal per lab at a time. If no labs are set, each goal is trained against its own
+* in-process {@link SimulatedLab}, which must be allowed by
+* {@link #setSimulatorTraining} unless the artifact learns a simulated lab.
+*</p>
+*
+* @param  goalDescriptions the desired goals against which the Q matrices are calculated (e.g., [[2,2],[2,3]])
+* @param  episodesObj the number of episodes used for calculating each Q matrix
+* @param  alphaObj the learning rate with range [0,1].
+* @param  gammaObj the discount factor [0,1]
+* @param epsilonObj the exploration probability [0,1]
+* @param rewardObj the reward assigned when reaching the goal state
+**/
+  @OPERATION
+  public void calculateQForGoals(Object[] goalDescriptions, Object episodesObj, Object alphaObj, Object gammaObj, Object epsilonObj, Object rewardObj) {
+    if (failIfSparse("calculateQForGoals")) {
+      return;
+    }
+    int[] goalKeys = new int[goalDescriptions.length];
+    for (int i = 0; i < goalKeys.length; i++) {
+      goalKeys[i] = goalKey((Object[]) goalDescriptions[i]);
+    }
+    if (failIfTraining("calculateQForGoals", goalKeys)) {
+      return;
+    }
+
+    // ensure that the right datatypes are used
+    int episodes = Integer.parseInt(episodesObj.toString());
+    double alpha = Double.parseDouble(alphaObj.toString());
+    double gamma = Double.parseDouble(gammaObj.toString());
+    double epsilon = Double.parseDouble(epsilonObj.toString());
+    int reward = Integer.parseInt(rewardObj.toString());
+
+    // The environments of the goals, which are lent to one goal at a time
+    SplittableRandom seeds = new SplittableRandom();
+    List<LearningEnvironment> environments = createTrainingEnvironments(goalDescriptions.length,
+        simulatorTraining || lab instanceof SimulatedLab, seeds);
+    if (environments == null) {
+      return;
+    }
+    BlockingQueue<LearningEnvironment> idleEnvironments = new LinkedBlockingQueue<>(environments);
+
+    int threads = Math.max(1, Math.min(Math.min(goalDescriptions.length, environments.size()),
+        Runtime.getRuntime().availableProcessors()));
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    startMetrics();
+
+    try {
+      List<Future<QTable>> results = new ArrayList<>();
+      for (Object goal : goalDescriptions) {
+        Object[] goalDescription = (Object[]) goal;
+        SplittableRandom random = seeds.split();
+        QTableStore.Entry stored = openStored(goalDescription);
+        int remainingEpisodes = stored != null ? stored.prepare(episodes, alpha, gamma, epsilon, reward) : episodes;
+
+        results.add(pool.submit(() -> {
+          QTable qTable = openQTable(goalDescription, stored);
+          TrainingController controller = settings.newController(alpha, epsilon);
+          controller.start(qTable, episodes - remainingEpisodes);
+          LearningEnvironment environment = idleEnvironments.take();
+          try {
+            train(environment, qTable, goalDescription, remainingEpisodes, controller, gamma, reward, random, null,
+                checkpointer(stored, episodes - remainingEpisodes));
+          } finally {
+            idleEnvironments.add(environment);
+          }
+          if (stored != null) {
+            stored.checkpoint(episodes);
+          }
+          return qTable;
+        }));
+      }
+
+      Map<Integer, QTable> trained = new HashMap<>();
+      for (int i = 0; i < goalDescriptions.length; i++) {
+        trained.put(goalKey((Object[]) goalDescriptions[i]), results.get(i).get());
       }
+      putQTables(trained);
+      LOGGER.info("Computed Q matrices for " + trained.size() + " goals on " + threads + " threads");
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failed("Interrupted while computing the Q matrices");
+    } catch (ExecutionException e) {
+      failed("Failed to compute the Q matrices: " + e.getCause());
+    } finally {
+      pool.shutdownNow();
+      endMetrics();
     }
-    return qTable;
+  }
+
+/**
+* Computes the Q matrices for several goal descriptions with a single training run
+* against the lab. Every observed transition updates the Q matrices of all the
+* goals, with the reward that each goal assigns to it (see {@link HindsightQTables}),
+* so the lab performs the actions of one run instead of one run per goal. The
+* episodes pursue the goals in turn.
+*
+* @param  goalDescriptions the desired goals against which the Q matrices are calculated (e.g., [[2,2],[2,3]]), or [] for all the combinations of light levels
+* @param  episodesObj the number of episodes of the training run
+* @param  alphaObj the (initial) learning rate with range [0,1].
+* @param  gammaObj the discount factor [0,1]
+* @param epsilonObj the (initial) exploration probability [0,1]
+* @param rewardObj the reward assigned when reaching the goal state
+**/
+  @OPERATION
+  public void calculateQHindsight(Object[] goalDescriptions, Object episodesObj, Object alphaObj, Object gammaObj, Object epsilonObj, Object rewardObj) {
+    if (failIfSparse("calculateQHindsight")) {
+      return;
+    }
+
+    // ensure that the right datatypes are used
+    int episodes = Integer.parseInt(episodesObj.toString());
+    double alpha = Double.parseDouble(alphaObj.toString());
+    double gamma = Double.parseDouble(gammaObj.toString());
+    double epsilon = Double.parseDouble(epsilonObj.toString());
+    int reward = Integer.parseInt(rewardObj.toString());
+
+    // The goals, by default all the combinations of the light levels of the zones
+    int[][] goals;
+    if (goalDescriptions.length > 0) {
+      goals = new int[goalDescriptions.length][];
+      for (int i = 0; i < goals.length; i++) {
+        goals[i] = goalValues((Object[]) goalDescriptions[i]);
+      }
+    } else {
+      goals = allGoals();
+    }
+    int[] goalKeys = new int[goals.length];
+    for (int i = 0; i < goalKeys.length; i++) {
+      goalKeys[i] = Arrays.hashCode(goals[i]);
+    }
+    if (failIfTraining("calculateQHindsight", goalKeys)) {
+      return;
+    }
+    long entries = (long) goals.length * lab.getStateCount() * actionCount;
+    if (entries > LearningEnvironment.MAX_DENSE_ENTRIES) {
+      failed("The Q matrices of " + goals.length + " goals have " + entries + " Q values, more than the "
+        + LearningEnvironment.MAX_DENSE_ENTRIES + " that are trained at once");
+      return;
+    }
+
+    // Continue from the Q matrices of the goals that were trained before
+    HindsightQTables tables = new HindsightQTables(lab, goals);
+    HashMap<Integer, QTable> current = qTables;
+    for (int goal = 0; goal < goals.length; goal++) {
+      QTable trained = current.get(Arrays.hashCode(goals[goal]));
+      if (trained != null) {
+        tables.getQTable(goal).copyFrom(trained);
+      }
+    }
+
+    TrainingController controller = settings.withConvergence(0, 0, 0).newController(alpha, epsilon);
+    controller.start(tables.getQTable(0), 0);
+    startMetrics();
+    try {
+      trainHindsight(lab, tables, episodes, controller, gamma, reward, new SplittableRandom(), e -> publishMetrics(false));
+    } catch (IllegalStateException e) {
+      endMetrics();
+      failed("Failed to compute the Q matrices: " + e.getMessage());
+      return;
+    }
+
+    // Store the Q matrices, in their own files if Q tables are stored
+    Map<Integer, QTable> trained = new HashMap<>();
+    for (int goal = 0; goal < goals.length; goal++) {
+      QTable qTable = tables.getQTable(goal);
+      goalValuesByKey.put(Arrays.hashCode(goals[goal]), goals[goal]);
+      QTableStore.Entry stored = openStored(Arrays.stream(goals[goal]).boxed().toArray());
+      if (stored != null) {
+        stored.getQTable().copyFrom(qTable);
+        stored.prepare(episodes, alpha, gamma, epsilon, reward);
+        stored.checkpoint(episodes);
+        qTable = stored.getQTable();
+      }
+      trained.put(Arrays.hashCode(goals[goal]), qTable);
+    }
+    putQTables(trained);
+    endMetrics();
+    LOGGER.info("Computed Q matrices for " + goals.length + " goals with one training run of " + episodes + " episodes");
+  }
+
+/**
+* Starts computing the Q matrix of a goal description in the background, and
+* returns immediately. Unlike {@link #calculateQ}, the artifact is not blocked
+* while training, so agents can keep controlling the lab with the current policy
+* of the goal (see {@link #getActionFromState}) while a better one trains.
+*
+*<p>
+* The job trains a copy of the current Q matrix of the goal (or a new one) apart
+* from the lab of the artifact, so that the lab stays free for the agents: against
+* the first lab set by {@link #setActorEnvironments}, or else against an in-process
+* {@link SimulatedLab} if allowed by {@link #setSimulatorTraining} or if the
+* artifact learns a simulated lab. The operation fails if there is no such lab,
+* or if it has another state space than the lab of the artifact.
+* The trained Q matrix replaces the current one once the job has completed.
+* Only one job runs at a time.
+*</p>
+*
+*<p>
+* So that the trained Q matrix does not replace newer Q values of the goal, the
+* other operations that compute the Q matrix of the goal fail while the job runs,
+* and the transitions that agents observe for the goal meanwhile (see
+* {@link #observeTransition}) are also applied to the trained Q matrix before it is
+* installed.
+*</p>
+*
+*<p>
+* The progress of the job is published as the observable property
+* training_job(JobId, Status, Episode, Episodes, Reward, MaxQDelta), where the
+* status is "running", "episodes", "converged", "cancelled" or "failed", and the
+* reward and the largest change of a Q value are those of the last episode.
+*</p>
+*
+* @param  goalDescription  the desired goal against the which the Q matrix is calculated (e.g., [2,3])
+* @param  episodesObj the maximum number of episodes used for calculating the Q matrix
+* @param  alphaObj the (initial) learning rate with range [0,1].
+* @param  gammaObj the discount factor [0,1]
+* @param epsilonObj the (initial) exploration probability [0,1]
+* @param rewardObj the reward assigned when reaching the goal state
+* @param jobId the (returned) id of the job, for {@link #awaitTraining} and {@link #cancelTraining}
+**/
+  @OPERATION
+  public void startTraining(Object[] goalDescription, Object episodesObj, Object alphaObj, Object gammaObj, Object epsilonObj, Object rewardObj,
+      OpFeedbackParam<Integer> jobId) {
+    if (failIfSparse("startTraining")) {
+      return;
+    }
+    if (trainingJob != null && !trainingJob.isFinished()) {
+      failed("The training job " + trainingJob.getId() + " is still running");
+      return;
+    }
+
+    // ensure that the right datatypes are used
+    int episodes = Integer.parseInt(episodesObj.toString());
+    double alpha = Double.parseDouble(alphaObj.toString());
+    double gamma = Double.parseDouble(gammaObj.toString());
+    double epsilon = Double.parseDouble(epsilonObj.toString());
+    int reward = Integer.parseInt(rewardObj.toString());
+
+    List<LearningEnvironment> environments = createTrainingEnvironments(1,
+      simulatorTraining || lab instanceof SimulatedLab, new SplittableRandom());
+    if (environments == null) {
+      return;
+    }
+    LearningEnvironment environment = environments.get(0);
+
+    // Train a copy of the current Q matrix, which agents keep using meanwhile
+    QTable qTable = openQTable(goalDescription, null);
+    QTable current = qTables.get(goalKey(goalDescription));
+    if (current != null) {
+      qTable.copyFrom(current);
+    }
+
+    TrainingController controller = settings.newController(alpha, epsilon);
+    controller.start(qTable, 0);
+    TrainingJob job = new TrainingJob(++trainingJobIds, goalDescription, episodes, controller);
+    if (trainingJobExecutor == null) {
+      trainingJobExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "QLearner-training");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    job.setResult(trainingJobExecutor.submit(() -> {
+      train(environment, qTable, goalDescription, episodes, controller, gamma, reward, new SplittableRandom(), null, job::setEpisode);
+      return qTable;
+    }));
+    trainingJob = job;
+    startMetrics();
+    publishTrainingJob(job);
+    LOGGER.info("Started the training job " + job.getId() + " for " + Arrays.toString(goalDescription));
+
+    // Installs the trained Q matrix, in its own file if Q tables are stored
+    Runnable install = () -> {
+      QTable trained = qTable;
+      job.applyObservedTransitions(trained);
+      QTableStore.Entry stored = openStored(goalDescription);
+      if (stored != null) {
+        stored.getQTable().copyFrom(trained);
+        stored.prepare(episodes, alpha, gamma, epsilon, reward);
+        stored.checkpoint(episodes);
+        trained = stored.getQTable();
+      }
+      putQTables(Collections.singletonMap(goalKey(goalDescription), trained));
+    };
+    execInternalOp("monitorTraining", job, install);
+    jobId.set(job.getId());
+  }
+
+/**
+* Publishes the progress of a background training job until it ends, and then
+* installs its Q matrix, unless the job was cancelled or failed. The operation
+* waits between two polls without blocking the artifact, and installs the Q
+* matrix from the thread of the artifact, so that it does not race with the
+* other operations.
+*
+* @param job the training job
+* @param install installs the trained Q matrix
+**/
+  @INTERNAL_OPERATION
+  void monitorTraining(TrainingJob job, Runnable install) {
+    while (!job.isDone()) {
+      await_time(TRAINING_JOB_POLL_MILLIS);
+      publishTrainingJob(job);
+      publishMetrics(false);
+    }
+
+    TrainingJob.Status status = job.getStatus();
+    if (status == TrainingJob.Status.EPISODES || status == TrainingJob.Status.CONVERGED) {
+      install.run();
+      LOGGER.info("The training job " + job.getId() + " computed the Q matrix of " + Arrays.toString(job.getGoalDescription())
+          + " in " + job.getEpisode() + " episodes (stopped: " + status + ")");
+    } else {
+      LOGGER.warning("The training job " + job.getId() + " ended without a Q matrix (" + status + ")");
+    }
+    job.setFinished();
+    endMetrics();
+    publishTrainingJob(job);
+  }
+
+/**
+* Waits until a background training job has ended and its Q matrix has been
+* installed. Other operations of the artifact keep running meanwhile.
+*
+* @param jobIdObj the id of the job, as returned by {@link #startTraining}
+* @param status the (returned) status of the job: "episodes", "converged", "cancelled" or "failed"
+* @param episodesUsed the (returned) number of episodes that were run
+**/
+  @OPERATION
+  public void awaitTraining(Object jobIdObj, OpFeedbackParam<String> status, OpFeedbackParam<Integer> episodesUsed) {
+    TrainingJob job = findTrainingJob(jobIdObj);
+    if (job == null) {
+      return;
+    }
+    await("isTrainingFinished", job);
+    status.set(job.getStatus().toString());
+    episodesUsed.set(job.getEpisode());
+  }
+
+  @GUARD
+  boolean isTrainingFinished(TrainingJob job) {
+    return job.isFinished();
+  }
+
+/**
+* Cancels a background training job: it stops after the current episode, and its
+* Q matrix is discarded, so agents keep using the current policy of the goal.
+*
+* @param jobIdObj the id of the job, as returned by {@link #startTraining}
+**/
+  @OPERATION
+  public void cancelTraining(Object jobIdObj) {
+    TrainingJob job = findTrainingJob(jobIdObj);
+    if (job != null) {
+      job.cancel();
+    }
+  }
+
+  /**
+  * Returns the background training job with the given id, or fails the operation
+  * if it is not the last job
+  */
+  private TrainingJob findTrainingJob(Object jobIdObj) {
+    int id = (int) Double.parseDouble(jobIdObj.toString());
+    if (trainingJob == null || trainingJob.getId() != id) {
+      failed("Unknown training job: " + id);
+      return null;
+    }
+    return trainingJob;
+  }
+
+  /**
+  * Publishes the progress of a background training job as the observable property
+  * training_job. Nothing is published if the artifact is used outside of a workspace.
+  */
+  private void publishTrainingJob(TrainingJob job) {
+    if (getId() == null) {
+      return;
+    }
+    Object[] values = { job.getId(), job.getStatus().toString(), job.getEpisode(), job.getEpisodes(),
+        metrics.getLastEpisodeReward(), metrics.getLastMaxQDelta() };
+    if (getObsProperty("training_job") == null) {
+      defineObsProperty("training_job", values);
+    } else {
+      updateObsProperty("training_job", values);
+    }
+  }
+
+  /**
+  * Runs the Q-Learning loop against an environment and a goal description, and
+  * updates the given Q matrix in place
+  *
+  * @param environment the environment to learn
+  * @param qTable the Q matrix to update
+  * @param goalDescription the desired goal (e.g., [2,3])
+  * @param episodes the maximum number of episodes
+  * @param controller the started controller that gives the learning rate and exploration probability of each episode, and stops training once the Q matrix has converged
+  * @param gamma the discount factor
+  * @param reward the reward assigned when reaching the goal state
+  * @param random the random number generator, which is not shared with other threads
+  * @param events the queue into which step events are published, or null
+  * @param onEpisode the listener that is given the number of completed episodes after each episode
+  */
+  void train(LearningEnvironment environment, QTable qTable, Object[] goalDescription,
+      int episodes, TrainingController controller, double gamma, int reward,
+      SplittableRandom random, TrainingEventQueue events, IntConsumer onEpisode) {
+    // The goal states, i.e. the states that are compatible with the goal description
+    BitSet goalStates = environment.getStateSpaceIndex().select(goalValues(goalDescription));
+
+    // Only explore the actions that have an effect in the current state
+    long[] actionMasks = environment.getApplicableActionMasks();
+
+    // Record the observed transitions for Dyna-Q planning, if enabled
+    TrainingSettings settings = this.settings;
+    int planning = settings.getPlanningSteps();
+    DynaModel model = planning > 0 ? new DynaModel(qTable.getStateCount(), qTable.getActionCount()) : null;
+
+    // Keep the observed transitions for experience replay, if enabled
+    int batchSize = settings.getReplayBatchSize();
+    ReplayBuffer replay = settings.getReplayCapacity() > 0
+        ? new ReplayBuffer(settings.getReplayCapacity(), settings.getReplaySampling()) : null;
+
+    EpisodeDriver.ValueFunction valueFunction = new EpisodeDriver.ValueFunction() {
+
+      // The number of steps of the run, for the dashboard
+      private int step;
+
+      @Override
+      public int select(long state) {
+        return qTable.getMaxAction((int) state);
+      }
+
+      @Override
+      public double update(long state, int action, double immediateReward, long nextState, double alpha, double gamma) {
+        double qDelta = updateQTable(qTable, (int) state, action, immediateReward, (int) nextState, alpha, gamma);
+
+        // Plan with simulated experience from the model
+        if (model != null) {
+          model.record((int) state, action, (int) nextState, immediateReward);
+          model.plan(qTable, planning, alpha, gamma, random);
+        }
+
+        // Replay a mini-batch of kept transitions
+        if (replay != null) {
+          replay.add((int) state, action, immediateReward, (int) nextState);
+          replay.replay(qTable, batchSize, alpha, gamma, random);
+        }
+
+        // Publish the step to the dashboard, which drops it if it falls behind
+        if (events != null) {
+          events.offer(step, (int) state, action, immediateReward);
+        }
+        step++;
+        return qDelta;
+      }
+
+      @Override
+      public double maxValue(long state) {
+        return qTable.getMaxValue((int) state);
+      }
+
+      @Override
+      public QTable getQTable() {
+        return qTable;
+      }
+    };
+    new EpisodeDriver(metrics, actionCount, Arrays.toString(goalDescription), "Q matrix").run(environment::step,
+        state -> actionMasks[(int) state], state -> isGoalState(goalStates, (int) state), reward,
+        valueFunction, episodes, controller, gamma, random, onEpisode);
+  }
+
+  /**
+  * Runs the Q-Learning loop against an environment and a goal description with
+  * linear function approximation, and updates the given Q function in place. The
+  * actions are chosen and the Q values are updated from the raw values of the
+  * states, while the goal states and the rewards depend on the discretized states.
+  *
+  * @param environment the environment to learn
+  * @param qFunction the Q function to update
+  * @param goalDescription the desired goal (e.g., [2,3])
+  * @param episodes the maximum number of episodes
+  * @param controller the started controller that gives the learning rate and exploration probability of each episode, and stops training once the Q values have converged
+  * @param gamma the discount factor
+  * @param reward the reward assigned when reaching the goal state
+  * @param random the random number generator, which is not shared with other threads
+  * @param onEpisode the listener that is given the number of completed episodes after each episode
+  */
+  void trainLinear(LearningEnvironment environment, LinearQFunction qFunction, Object[] goalDescription,
+      int episodes, TrainingController controller, double gamma, int reward,
+      SplittableRandom random, IntConsumer onEpisode) {
+    BitSet goalStates = environment.getStateSpaceIndex().select(goalValues(goalDescription));
+    long[] actionMasks = environment.getApplicableActionMasks();
+
+    // The raw values of the states, and the active features of the previous and of
+    // the latest state read from the environment, reused by all the steps. The raw
+    // values are only available for the latest state, so the features are encoded
+    // as soon as a state is read.
+    double[] rawState = new double[environment.getStateCodec().axisCount()];
+    int[][] features = { new int[qFunction.getTilings()], new int[qFunction.getTilings()] };
+    IntToLongFunction step = action -> {
+      int state = environment.step(action);
+      if (state >= 0) {
+        int[] swap = features[0];
+        features[0] = features[1];
+        features[1] = swap;
+        environment.getRawState(state, rawState);
+        qFunction.encode(rawState, features[1]);
+      }
+      return state;
+    };
+
+    EpisodeDriver.ValueFunction valueFunction = new EpisodeDriver.ValueFunction() {
+
+      @Override
+      public int select(long state) {
+        return qFunction.getMaxAction(features[1], actionMasks[(int) state]);
+      }
+
+      @Override
+      public double update(long state, int action, double immediateReward, long nextState, double alpha, double gamma) {
+        return qFunction.update(features[0], action, immediateReward, features[1], actionMasks[(int) nextState], alpha, gamma);
+      }
+
+      @Override
+      public double maxValue(long state) {
+        return qFunction.getMaxValue(features[1], actionMasks[(int) state]);
+      }
+    };
+    new EpisodeDriver(metrics, actionCount, Arrays.toString(goalDescription), "Q function").run(step,
+        state -> actionMasks[(int) state], state -> isGoalState(goalStates, (int) state), reward,
+        valueFunction, episodes, controller, gamma, random, onEpisode);
+  }
+
+  /**
+  * Runs the Q-Learning loop against an environment and a goal description, and
+  * updates the given sparse Q matrix in place. The states are handled by their
+  * keys, so the environment may have more states than an int can index.
+  *
+  * @param environment the environment to learn
+  * @param qTable the Q matrix to update
+  * @param goalDescription the desired goal (e.g., [2,3])
+  * @param episodes the maximum number of episodes
+  * @param controller the started controller that gives the learning rate and exploration probability of each episode, and stops training once the Q values have converged
+  * @param gamma the discount factor
+  * @param reward the reward assigned when reaching the goal state
+  * @param random the random number generator, which is not shared with other threads
+  * @param onEpisode the listener that is given the number of completed episodes after each episode
+  */
+  void trainSparse(LearningEnvironment environment, SparseQTable qTable, Object[] goalDescription,
+      int episodes, TrainingController controller, double gamma, int reward,
+      SplittableRandom random, IntConsumer onEpisode) {
+    StateCodec codec = environment.getStateCodec();
+    int[] goal = goalValues(goalDescription);
+
+    EpisodeDriver.ValueFunction valueFunction = new EpisodeDriver.ValueFunction() {
+
+      @Override
+      public int select(long state) {
+        return qTable.getMaxAction(state);
+      }
+
+      @Override
+      public double update(long state, int action, double immediateReward, long nextState, double alpha, double gamma) {
+        return qTable.update(state, action, immediateReward, nextState, alpha, gamma);
+      }
+
+      @Override
+      public double maxValue(long state) {
+        return qTable.getMaxValue(state);
+      }
+    };
+    new EpisodeDriver(metrics, actionCount, Arrays.toString(goalDescription), "sparse Q matrix").run(environment::stepKey,
+        environment::getApplicableActionMask, state -> isGoalKey(codec, goal, state), reward,
+        valueFunction, episodes, controller, gamma, random, onEpisode);
+  }
+
+  /**
+  * Runs the Q-Learning loop against an environment for several goal descriptions
+  * at once. Each episode pursues one goal with an epsilon-greedy policy on its Q
+  * matrix, and each step updates the Q matrices of all the goals.
+  *
+  * @param environment the environment to learn
+  * @param tables the Q matrices to update
+  * @param episodes the number of episodes
+  * @param controller the started controller that gives the learning rate and exploration probability of each episode
+  * @param gamma the discount factor
+  * @param reward the reward assigned when reaching a goal state
+  * @param random the random number generator, which is not shared with other threads
+  * @param onEpisode the listener that is given the number of completed episodes after each episode
+  */
+  void trainHindsight(LearningEnvironment environment, HindsightQTables tables, int episodes,
+      TrainingController controller, double gamma, int reward, SplittableRandom random, IntConsumer onEpisode) {
+    long[] actionMasks = environment.getApplicableActionMasks();
+
+    // The goal that is pursued in the current episode
+    int[] goal = new int[1];
+
+    EpisodeDriver.ValueFunction valueFunction = new EpisodeDriver.ValueFunction() {
+
+      @Override
+      public void beginEpisode(int episode) {
+        goal[0] = episode % tables.getGoalCount();
+      }
+
+      @Override
+      public int select(long state) {
+        return tables.getQTable(goal[0]).getMaxAction((int) state);
+      }
+
+      @Override
+      public double update(long state, int action, double immediateReward, long nextState, double alpha, double gamma) {
+        // Update the Q matrices of all the goals from the transition, each with its own reward
+        return tables.update((int) state, action, (int) nextState, reward, alpha, gamma);
+      }
+
+      @Override
+      public double maxValue(long state) {
+        return tables.getQTable(goal[0]).getMaxValue((int) state);
+      }
+
+      @Override
+      public QTable getQTable() {
+        return tables.getQTable(goal[0]);
+      }
+    };
+    new EpisodeDriver(metrics, actionCount, tables.getGoalCount() + " goals", "Q matrices").run(environment::step,
+        state -> actionMasks[(int) state], state -> tables.isGoalState(goal[0], (int) state), reward,
+        valueFunction, episodes, controller, gamma, random, onEpisode);
+  }
+
+  /**
+  * Returns the environments in which goals are trained apart from the lab of the
+  * artifact: the labs set by {@link #setActorEnvironments}, or else new in-process
+  * simulated labs, or fails the operation if simulated labs are not allowed or do
+  * not have the state space of the lab
+  *
+  * @param simulatedLabs the number of simulated labs
+  * @param simulatorAllowed whether simulated labs may be used
+  * @param seeds the generator of the seeds of the simulated labs
+  * @return the environments, or null if the operation failed
+  */
+  private List<LearningEnvironment> createTrainingEnvironments(int simulatedLabs, boolean simulatorAllowed,
+      SplittableRandom seeds) {
+    if (!actorEnvironments.isEmpty()) {
+      return new ArrayList<>(actorEnvironments);
+    }
+    if (!simulatorAllowed) {
+      failed("No lab to train against: set the actor labs with setActorEnvironments, or allow simulated labs with setSimulatorTraining");
+      return null;
+    }
+    List<LearningEnvironment> environments = new ArrayList<>();
+    for (int i = 0; i < Math.max(1, simulatedLabs); i++) {
+      environments.add(new SimulatedLab(seeds.split()));
+    }
+    StateCodec simulatedCodec = environments.get(0).getStateCodec();
+    if (!simulatedCodec.equals(lab.getStateCodec()) || environments.get(0).getActionCount() != actionCount) {
+      failed("The simulated lab has the state space " + simulatedCodec + ", not the state space " + lab.getStateCodec() + " of the lab");
+      return null;
+    }
+    return environments;
+  }
+
+  /**
+  * Returns all the goal descriptions of the lab: every combination of the light
+  * levels of its zones, which are the first of the 3n+1 axes of the states of a
+  * lab with n zones (e.g. the 16 goals [0,0]..[3,3] of a lab with two zones)
+  *
+  * @return the goal descriptions
+  */
+  private int[][] allGoals() {
+    StateCodec codec = lab.getStateCodec();
+    int zoneCount = (codec.axisCount() - 1) / 3;
+    int goalCount = 1;
+    for (int zone = 0; zone < zoneCount; zone++) {
+      goalCount = Math.multiplyExact(goalCount, codec.radix(zone));
+    }
+    int[][] goals = new int[goalCount][zoneCount];
+    for (int i = 0; i < goalCount; i++) {
+      for (int zone = zoneCount - 1, rest = i; zone >= 0; zone--) {
+        goals[i][zone] = rest % codec.radix(zone);
+        rest /= codec.radix(zone);
+      }
+    }
+    return goals;
+  }
+
+  /**
+  * Fails an operation that only applies to Q tables if the Q values are kept in
+  * sparse Q tables, see {@link #setSparseQTables}
+  *
+  * @param operation the name of the operation
+  * @return true if the operation failed
+  */
+  private boolean failIfSparse(String operation) {
+    if (sparse) {
+      failed(operation + " is not available with sparse Q tables");
+    }
+    return sparse;
+  }
+
+  /**
+  * Fails an operation that computes the Q matrices of goals if the background
+  * training job computes the Q matrix of one of them, as the job would replace that
+  * Q matrix once it completes, see {@link #startTraining}
+  *
+  * @param operation the name of the operation
+  * @param goalKeys the keys of the goals of the operation
+  * @return true if the operation failed
+  */
+  private boolean failIfTraining(String operation, int... goalKeys) {
+    TrainingJob job = trainingJob;
+    if (job == null || job.isFinished()) {
+      return false;
+    }
+    int jobGoalKey = goalKey(job.getGoalDescription());
+    for (int goalKey : goalKeys) {
+      if (goalKey == jobGoalKey) {
+        failed(operation + " is not available while the training job " + job.getId() + " computes the Q matrix of "
+            + Arrays.toString(job.getGoalDescription()));
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+  * Registers the training metrics as a JMX MBean, so that they can be followed
+  * with e.g. JConsole while training
+  */
+  private void registerMetrics() {
+    try {
+      ObjectName name = new ObjectName("tools:type=TrainingMetrics,id=" + METRICS_IDS.incrementAndGet());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+      metricsName = name;
+    } catch (JMException e) {
+      LOGGER.warning("The training metrics are not exposed through JMX: " + e.getMessage());
+    }
+  }
+
+  @Override
+  protected void dispose() {
+    if (trainingJob != null) {
+      trainingJob.cancel();
+    }
+    if (trainingJobExecutor != null) {
+      trainingJobExecutor.shutdownNow();
+    }
+    if (metricsName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+      } catch (JMException e) {
+        LOGGER.warning("Could not unregister the training metrics: " + e.getMessage());
+      }
+      metricsName = null;
+    }
+  }
+
+  /**
+  * Records the start of a training run, and publishes the metrics
+  */
+  private void startMetrics() {
+    metrics.startRun();
+    publishMetrics(true);
+  }
+
+  /**
+  * Records the end of a training run, and publishes the metrics
+  */
+  private void endMetrics() {
+    metrics.endRun();
+    publishMetrics(true);
+  }
+
+  /**
+  * Publishes the training metrics as observable properties of the artifact. This
+  * must be called from the thread of an operation, not from the threads of the
+  * actors. Nothing is published if the artifact is used outside of a workspace,
+  * e.g. by the benchmarks.
+  *
+  * @param force whether to publish even if the metrics were published less than a second ago
+  */
+  private void publishMetrics(boolean force) {
+    if (getId() == null) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (!force && now - metricsPublishedNanos < METRICS_PUBLISH_INTERVAL_NANOS) {
+      return;
+    }
+    metricsPublishedNanos = now;
+
+    if (!metricsDefined) {
+      defineObsProperty("training_steps", metrics.getSteps());
+      defineObsProperty("training_episodes", metrics.getEpisodes());
+      defineObsProperty("steps_per_second", metrics.getStepsPerSecond());
+      defineObsProperty("episode_length", metrics.getLastEpisodeLength());
+      defineObsProperty("episode_reward", metrics.getLastEpisodeReward());
+      defineObsProperty("max_q_delta", metrics.getLastMaxQDelta());
+      defineObsProperty("goal_hit_rate", metrics.getGoalHitRate());
+      metricsDefined = true;
+      return;
+    }
+    updateObsProperty("training_steps", metrics.getSteps());
+    updateObsProperty("training_episodes", metrics.getEpisodes());
+    updateObsProperty("steps_per_second", metrics.getStepsPerSecond());
+    updateObsProperty("episode_length", metrics.getLastEpisodeLength());
+    updateObsProperty("episode_reward", metrics.getLastEpisodeReward());
+    updateObsProperty("max_q_delta", metrics.getLastMaxQDelta());
+    updateObsProperty("goal_hit_rate", metrics.getGoalHitRate());
+  }
+
+  /**
+  * Returns the Q matrix to train for a goal description: the stored one, or a new
+  * one. If the goal has no trained Q matrix yet and warm starts are enabled, the Q
+  * matrix is seeded from the Q matrices of the nearest trained goals.
+  *
+  * @param goalDescription the goal description
+  * @param stored the stored Q table of the goal description, or null
+  */
+  private QTable openQTable(Object[] goalDescription, QTableStore.Entry stored) {
+    QTable qTable = stored != null ? stored.getQTable() : initializeQTable();
+    int key = goalKey(goalDescription);
+    int[] goal = goalValues(goalDescription);
+    goalValuesByKey.put(key, goal);
+
+    HashMap<Integer, QTable> trained = qTables;
+    if (warmStartNeighbours == 0 || trained.containsKey(key)) {
+      return qTable;
+    }
+
+    // Find the nearest trained goals
+    List<Map.Entry<Integer, Integer>> neighbours = new ArrayList<>();
+    for (Integer trainedKey : trained.keySet()) {
+      int[] trainedGoal = goalValuesByKey.get(trainedKey);
+      if (trainedGoal != null && trainedGoal.length == goal.length) {
+        int distance = 0;
+        for (int i = 0; i < goal.length; i++) {
+          distance += Math.abs(goal[i] - trainedGoal[i]);
+        }
+        if (distance <= warmStartMaxDistance) {
+          neighbours.add(new AbstractMap.SimpleEntry<>(trainedKey, distance));
+        }
+      }
+    }
+    if (neighbours.isEmpty()) {
+      return qTable;
+    }
+    neighbours.sort(Map.Entry.comparingByValue());
+    neighbours = neighbours.subList(0, Math.min(warmStartNeighbours, neighbours.size()));
+
+    QTable[] sources = new QTable[neighbours.size()];
+    double[] weights = new double[neighbours.size()];
+    for (int i = 0; i < sources.length; i++) {
+      sources[i] = trained.get(neighbours.get(i).getKey());
+      weights[i] = 1.0 / (1 + neighbours.get(i).getValue());
+    }
+    qTable.seedPolicy(sources, weights, WARM_START_PRIOR);
+    LOGGER.info("Seeded the Q matrix of " + Arrays.toString(goalDescription) + " from " + sources.length + " trained goals");
+    return qTable;
+  }
+
+  /**
+  * Returns a random action among the applicable actions of a state
+  *
+  * @param actionMask the bitmask of the applicable actions of the state, or 0 to draw from all the actions
+  * @param random the random number generator
+  */
+  private int randomAction(long actionMask, SplittableRandom random) {
+    return EpisodeDriver.randomAction(actionMask, actionCount, random);
+  }
+
+  /**
+  * Restricts the greedy actions of a Q matrix to the applicable actions of each
+  * state of the lab, unless it is already restricted
+  *
+  * @return the Q matrix
+  */
+  private QTable withActionMasks(QTable qTable) {
+    if (qTable.getActionMasks() == null) {
+      qTable.setActionMasks(lab.getApplicableActionMasks());
+    }
+    return qTable;
+  }
+
+  /**
+  * Returns the stored Q table of a goal description, or null if Q tables are not stored
+  */
+  private QTableStore.Entry openStored(Object[] goalDescription) {
+    if (store == null) {
+      return null;
+    }
+    try {
+      QTableStore.Entry entry = store.open(goalValues(goalDescription));
+      withActionMasks(entry.getQTable());
+      return entry;
+    } catch (IOException e) {
+      LOGGER.warning("The Q table of " + Arrays.toString(goalDescription) + " will not be stored: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+  * Returns an episode listener that checkpoints a stored Q table every
+  * checkpointEpisodes episodes
+  *
+  * @param stored the stored Q table, or null
+  * @param episodesDone the number of episodes of the run that were completed before
+  */
+  private IntConsumer checkpointer(QTableStore.Entry stored, int episodesDone) {
+    int interval = checkpointEpisodes;
+    return e -> {
+      if (stored != null && e % interval == 0) {
+        stored.checkpoint(episodesDone + e);
+      }
+    };
+  }
+
+  /**
+  * Stores computed Q matrices, and compiles their greedy policies for
+  * {@link #getActionFromState}. The maps of Q matrices and of policies are replaced
+  * as a whole, so that readers either see all or none of the given Q matrices.
+  * Online updates change an installed Q matrix and its policy in place, under the
+  * same lock (see {@link #updateQTable}).
+  *
+  * @param trained the Q matrices by goal key
+  */
+  private synchronized void putQTables(Map<Integer, QTable> trained) {
+    HashMap<Integer, QTable> updated = new HashMap<>(qTables);
+    HashMap<Integer, int[]> updatedPolicies = new HashMap<>(policies);
+    for (Map.Entry<Integer, QTable> entry : trained.entrySet()) {
+      updated.put(entry.getKey(), entry.getValue());
+      updatedPolicies.put(entry.getKey(), entry.getValue().toPolicy());
+    }
+    qTables = updated;
+    policies = updatedPolicies;
+  }
+
+  /**
+  * Returns the key of the Q matrix of a goal description. Numbers are compared by
+  * their integer value, e.g. [2.0,3.0] and [2,3] have the same key.
+  *
+  * @param goalDescription the goal description (e.g., [2,3])
+  * @return the key
+  */
+  private static int goalKey(Object[] goalDescription) {
+    // the same as Arrays.hashCode(goalValues(goalDescription)), without allocating
+    int key = 1;
+    for (Object value : goalDescription) {
+      key = 31 * key + ((Number) value).intValue();
+    }
+    return key;
+  }
+
+  /**
+  * Returns the integer values of a goal description
+  */
+  private static int[] goalValues(Object[] goalDescription) {
+    int[] goal = new int[goalDescription.length];
+    for (int i = 0; i < goal.length; i++) {
+      goal[i] = ((Number) goalDescription[i]).intValue();
+    }
+    return goal;
+  }
+
+
+public void calculateQ(String goalDescriptionStr, int episodes, double alpha, double gamma, double epsilon, int reward) {
+    Object[] goalDescription = parseGoalDescription(goalDescriptionStr);
+    calculateQ(goalDescription, episodes, alpha, gamma, epsilon, reward);
+}
+
+private Object[] parseGoalDescription(String goalDescriptionStr) {
+    String[] parts = goalDescriptionStr.replace("[", "").replace("]", "").split(",");
+    Object[] goalDescription = new Object[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+        goalDescription[i] = Integer.parseInt(parts[i].trim());
+    }
+    return goalDescription;
+}
+
+  private double updateQTable(QTable qTable, int state, int action, double reward, int nextState, double alpha, double gamma) {
+    return qTable.update(state, action, reward, nextState, alpha, gamma);
+  }
+
+  private boolean isGoalState(BitSet goalStates, int state) {
+    return goalStates.get(state);
+}
+
+  /**
+  * Tells whether the first axes of a state given by its key have the values of a goal
+  */
+  private static boolean isGoalKey(StateCodec codec, int[] goal, long key) {
+    for (int axis = 0; axis < goal.length; axis++) {
+      if (codec.decodeKey(key, axis) != goal[axis]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+
+
+/**
+* Returns information about the next best action based on a provided state and the QTable for
+* a goal description. The returned information can be used by agents to invoke an action 
+* using a ThingArtifact.
+*
+* @param  goalDescription  the desired goal against the which the Q matrix is calculated (e.g., [2,3])
+* @param  currentStateDescription the current state e.g. [2,2,true,false,true,true,2]
+* @param  nextBestActionTag the (returned) semantic annotation of the next best action, e.g. "http://example.org/was#SetZ1Light"
+* @param  nextBestActionPayloadTags the (returned) semantic annotations of the payload of the next best action, e.g. [Z1Light]
+* @param nextBestActionPayload the (returned) payload of the next best action, e.g. true
+**/
+  @OPERATION
+  public void getActionFromState(Object[] goalDescription, Object[] currentStateDescription,
+      OpFeedbackParam<String> nextBestActionTag, OpFeedbackParam<Object[]> nextBestActionPayloadTags,
+      OpFeedbackParam<Object[]> nextBestActionPayload) {
+    if (sparse && approximationTilings == 0) {
+      SparseQTable sparseQTable = sparseQTables.get(goalKey(goalDescription));
+      if (sparseQTable == null) {
+        failed("Q-Table for goal state not found.");
+        return;
+      }
+      long currentKey = lab.getStateKey(currentStateDescription);
+      if (currentKey < 0) {
+        failed("Invalid state description: " + Arrays.toString(currentStateDescription));
+        return;
+      }
+      int action = sparseQTable.getMaxAction(currentKey);
+      if (onlineLearning && onlineEpsilon > 0 && onlineRandom.nextDouble() < onlineEpsilon) {
+        action = randomAction(lab.getApplicableActionMask(currentKey), onlineRandom);
+      }
+      setBestAction(action, nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
+      return;
+    }
+
+    int[] policy = policies.get(goalKey(goalDescription));
+    LinearQFunction qFunction = approximationTilings > 0 ? qFunctions.get(goalKey(goalDescription)) : null;
+    if (policy == null && qFunction == null) {
+      failed("Q-Table for goal state not found.");
+      return;
+    }
+
+    int currentState = lab.getStateIndex(currentStateDescription);
+    if (currentState < 0) {
+      failed("Invalid state description: " + Arrays.toString(currentStateDescription));
+      return;
+    }
+
+    int action;
+    if (qFunction != null) {
+      // With function approximation, choose from the raw values of the state
+      double[] rawState = new double[lab.getStateCodec().axisCount()];
+      LinearQFunction.toRawState(currentStateDescription, rawState);
+      int[] features = new int[qFunction.getTilings()];
+      qFunction.encode(rawState, features);
+      action = qFunction.getMaxAction(features, lab.getApplicableActionMasks()[currentState]);
+    } else {
+      action = policy[currentState];
+    }
+
+    // In online mode, explore occasionally so that the policy keeps improving
+    if (onlineLearning && onlineEpsilon > 0 && onlineRandom.nextDouble() < onlineEpsilon) {
+      action = randomAction(lab.getApplicableActionMasks()[currentState], onlineRandom);
+    }
+    setBestAction(action, nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
+  }
+
+  /**
+  * Returns the description of an action to an agent, see {@link #getActionFromState}
+  */
+  private void setBestAction(int action, OpFeedbackParam<String> nextBestActionTag,
+      OpFeedbackParam<Object[]> nextBestActionPayloadTags, OpFeedbackParam<Object[]> nextBestActionPayload) {
+    ActionDescriptor bestAction = actionDescriptors[action];
+    nextBestActionTag.set(bestAction.getActionTag());
+    nextBestActionPayloadTags.set(bestAction.getPayloadTags());
+    nextBestActionPayload.set(bestAction.getPayload());
+  }
+
+/**
+* Enables online learning: the transitions that agents observe while acting in the
+* lab and report with {@link #observeTransition} update the Q table of their goal,
+* so the policy keeps improving (e.g. with the seasons of the sunshine) without
+* separate training sessions. In online mode, {@link #getActionFromState} returns a
+* random action with the given exploration probability, which is bounded to 0.1 so
+* that the lab stays under control.
+*
+* @param alphaObj the learning rate of the online updates with range [0,1], or 0 to disable online learning
+* @param gammaObj the discount factor [0,1]
+* @param epsilonObj the exploration probability while acting [0,0.1]
+* @param rewardObj the reward assigned when reaching the goal state
+**/
+  @OPERATION
+  public void setOnlineLearning(Object alphaObj, Object gammaObj, Object epsilonObj, Object rewardObj) {
+    this.onlineAlpha = Math.max(0, Double.parseDouble(alphaObj.toString()));
+    this.onlineGamma = Double.parseDouble(gammaObj.toString());
+    this.onlineEpsilon = Math.max(0, Math.min(MAX_ONLINE_EPSILON, Double.parseDouble(epsilonObj.toString())));
+    this.onlineReward = (int) Double.parseDouble(rewardObj.toString());
+    this.onlineLearning = onlineAlpha > 0;
+  }
+
+/**
+* Updates the Q table of a goal description from a transition that was observed
+* while acting in the lab, if online learning is enabled (see
+* {@link #setOnlineLearning}). The action is given as returned by
+* {@link #getActionFromState}.
+*
+* @param  goalDescription  the goal the agent is pursuing (e.g., [2,3])
+* @param  previousStateDescription the state in which the action was performed e.g. [2,2,true,false,true,true,2]
+* @param  actionTag the semantic annotation of the performed action, e.g. "http://example.org/was#SetZ1Light"
+* @param  actionPayload the payload of the performed action, e.g. [true]
+* @param  currentStateDescription the state observed after performing the action
+**/
+  @OPERATION
+  public void observeTransition(Object[] goalDescription, Object[] previousStateDescription, String actionTag,
+      Object[] actionPayload, Object[] currentStateDescription) {
+    if (!onlineLearning) {
+      return;
+    }
+    if (sparse && approximationTilings == 0) {
+      observeSparseTransition(goalDescription, previousStateDescription, actionTag, actionPayload, currentStateDescription);
+      return;
+    }
+
+    int goalKey = goalKey(goalDescription);
+    LinearQFunction qFunction = approximationTilings > 0 ? qFunctions.get(goalKey) : null;
+    if (!qTables.containsKey(goalKey) && qFunction == null) {
+      failed("Q-Table for goal state not found.");
+      return;
+    }
+
+    int state = lab.getStateIndex(previousStateDescription);
+    int nextState = lab.getStateIndex(currentStateDescription);
+    if (state < 0 || nextState < 0) {
+      failed("Invalid state description: " + Arrays.toString(state < 0 ? previousStateDescription : currentStateDescription));
+      return;
+    }
+
+    int action = findAction(actionTag, actionPayload);
+    if (action < 0) {
+      failed("Unknown action: " + actionTag + " " + Arrays.toString(actionPayload));
+      return;
+    }
+
+    BitSet goal = goalStates.computeIfAbsent(goalKey, k -> lab.getStateSpaceIndex().select(goalValues(goalDescription)));
+    double reward = isGoalState(goal, nextState) ? onlineReward : -1;
+
+    // With function approximation, getActionFromState chooses from the Q function
+    if (qFunction != null) {
+      double[] rawState = new double[lab.getStateCodec().axisCount()];
+      int[] features = new int[qFunction.getTilings()];
+      int[] nextFeatures = new int[qFunction.getTilings()];
+      LinearQFunction.toRawState(previousStateDescription, rawState);
+      qFunction.encode(rawState, features);
+      LinearQFunction.toRawState(currentStateDescription, rawState);
+      qFunction.encode(rawState, nextFeatures);
+      qFunction.update(features, action, reward, nextFeatures, lab.getApplicableActionMasks()[nextState], onlineAlpha, onlineGamma);
+    }
+    updateQTable(goalKey, state, action, reward, nextState);
+    metrics.recordOnlineUpdate();
+
+    // A background job replaces the Q matrix of the goal once it completes, so its Q matrix gets the update too
+    TrainingJob job = trainingJob;
+    if (job != null && !job.isFinished() && goalKey(job.getGoalDescription()) == goalKey) {
+      job.observeTransition(state, action, reward, nextState, onlineAlpha, onlineGamma);
+    }
+  }
+
+  /**
+  * Applies an online update to an installed Q matrix and to its greedy policy,
+  * see {@link #observeTransition}. The update holds the lock of {@link #putQTables},
+  * so that it applies to the Q matrix that is installed when it runs.
+  *
+  * @return false if no Q matrix is installed for the goal
+  */
+  private synchronized boolean updateQTable(int goalKey, int state, int action, double reward, int nextState) {
+    QTable qTable = qTables.get(goalKey);
+    if (qTable == null) {
+      return false;
+    }
+    qTable.update(state, action, reward, nextState, onlineAlpha, onlineGamma);
+
+    // Only the greedy action of the updated state can have changed
+    policies.get(goalKey)[state] = qTable.getMaxAction(state);
+    return true;
+  }
+
+  /**
+  * Updates the sparse Q table of a goal description from an observed transition,
+  * see {@link #observeTransition}
+  */
+  private void observeSparseTransition(Object[] goalDescription, Object[] previousStateDescription, String actionTag,
+      Object[] actionPayload, Object[] currentStateDescription) {
+    SparseQTable qTable = sparseQTables.get(goalKey(goalDescription));
+    if (qTable == null) {
+      failed("Q-Table for goal state not found.");
+      return;
+    }
+
+    long state = lab.getStateKey(previousStateDescription);
+    long nextState = lab.getStateKey(currentStateDescription);
+    if (state < 0 || nextState < 0) {
+      failed("Invalid state description: " + Arrays.toString(state < 0 ? previousStateDescription : currentStateDescription));
+      return;
+    }
+
+    int action = findAction(actionTag, actionPayload);
+    if (action < 0) {
+      failed("Unknown action: " + actionTag + " " + Arrays.toString(actionPayload));
+      return;
+    }
+
+    double reward = isGoalKey(lab.getStateCodec(), goalValues(goalDescription), nextState) ? onlineReward : -1;
+    qTable.update(state, action, reward, nextState, onlineAlpha, onlineGamma);
+    metrics.recordOnlineUpdate();
+  }
+
+  /**
+  * Returns the key of the action with the given semantic annotation and payload
+  *
+  * @return the action key, or -1 if no action matches
+  */
+  private int findAction(String actionTag, Object[] actionPayload) {
+    for (int action = 0; action < actionDescriptors.length; action++) {
+      if (actionDescriptors[action].matches(actionTag, actionPayload)) {
+        return action;
+      }
+    }
+    return -1;
+  }
+
+    /**
+    * Print the Q matrix
+    *
+    * @param qTable the Q matrix
+    */
+  void printQTable(QTable qTable) {
+    System.out.println("Q matrix");
+    for (int i = 0; i < qTable.getStateCount(); i++) {
+      System.out.print("From state " + i + ":  ");
+     for (int j = 0; j < qTable.getActionCount(); j++) {
+      System.out.printf("%6.2f ", (qTable.get(i, j)));
+      }
+      System.out.println();
+    }
+  }
+
+  /**
+  * Initialize a Q matrix
+  *
+  * @return the Q matrix
+  */
+ private QTable initializeQTable() {
+    return withActionMasks(new QTable(this.stateCount, this.actionCount));
   }
 }
 
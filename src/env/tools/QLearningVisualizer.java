@@ -12,15 +12,34 @@ import org.jfree.ui.ApplicationFrame;
 import org.jfree.ui.RefineryUtilities;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowEvent;
 import java.util.List;
 
+/**
+ * A dashboard that plots the progress of Q-Learning.
+ *
+ * <p>
+ * The dashboard does not take part in training: the training loop publishes step
+ * events into a {@link TrainingEventQueue}, and the dashboard consumes them on the
+ * Swing event dispatch thread at a fixed frame rate, until training has ended and
+ * the last events are plotted. If more events are pending than can be plotted in a
+ * frame, they are sampled. The Q-table view reads the
+ * {@link QTable} under training directly when it is painted.
+ * </p>
+ */
 public class QLearningVisualizer extends ApplicationFrame {
 
+    /** The maximum number of step events plotted per frame */
+    private static final int MAX_EVENTS_PER_FRAME = 200;
+
+    /** The maximum number of points kept in each plotted series */
+    private static final int MAX_SERIES_ITEMS = 5000;
+
     private XYSeriesCollection stateDataset;
     private XYSeriesCollection actionDataset;
     private XYSeriesCollection rewardDataset;
@@ -38,7 +57,12 @@ public class QLearningVisualizer extends ApplicationFrame {
     private XYSeries outdoorLightSeries;
 
     private JTable qTableDisplay;
-    private DefaultTableModel qTableModel;
+    private QTableModel qTableModel;
+
+    private TrainingEventQueue events;
+    private StateCodec codec;
+    private List<Integer> goalState;
+    private Timer frameTimer;
 
     private JTextField goalDescriptionField;
     private JTextField episodesField;
@@ -56,6 +80,68 @@ public class QLearningVisualizer extends ApplicationFrame {
         setupListeners();
     }
 
+    /**
+     * Creates a dashboard that plots the step events of a training run. Must be
+     * called on the event dispatch thread.
+     *
+     * @param title the title of the dashboard
+     * @param events the queue into which the training loop publishes step events
+     * @param codec the codec of the states of the trained environment
+     * @param qTable the Q-table under training
+     * @param goalState the goal description of the training run
+     * @param framesPerSecond the number of times per second the dashboard is refreshed
+     */
+    public QLearningVisualizer(String title, TrainingEventQueue events, StateCodec codec,
+                               QTable qTable, List<Integer> goalState, int framesPerSecond) {
+        this(title);
+        this.events = events;
+        this.codec = codec;
+        this.goalState = goalState;
+        qTableModel.setQTable(qTable);
+
+        frameTimer = new Timer(1000 / Math.max(1, framesPerSecond), e -> refresh());
+        frameTimer.start();
+    }
+
+    /**
+     * Closes the dashboard of a training run without exiting the application
+     */
+    @Override
+    public void windowClosing(WindowEvent event) {
+        if (events != null && event.getWindow() == this) {
+            dispose();
+        } else {
+            super.windowClosing(event);
+        }
+    }
+
+    /**
+     * Stops refreshing a closed dashboard, and releases the Q-table under training
+     */
+    @Override
+    public void windowClosed(WindowEvent event) {
+        stopRefreshing();
+        qTableModel.setQTable(null);
+    }
+
+    private void stopRefreshing() {
+        if (frameTimer != null) {
+            frameTimer.stop();
+        }
+    }
+
+    /**
+     * Opens a dashboard for a training run on the event dispatch thread, without
+     * waiting for it to be displayed
+     *
+     * @see #QLearningVisualizer(String, TrainingEventQueue, StateCodec, QTable, List, int)
+     */
+    public static void open(String title, TrainingEventQueue events, StateCodec codec,
+                            QTable qTable, List<Integer> goalState, int framesPerSecond) {
+        SwingUtilities.invokeLater(() ->
+                new QLearningVisualizer(title, events, codec, qTable, goalState, framesPerSecond));
+    }
+
     private void initComponents() {
         stateDataset = new XYSeriesCollection();
         actionDataset = new XYSeriesCollection();
@@ -74,6 +160,10 @@ public class QLearningVisualizer extends ApplicationFrame {
         z2LightSeries = new XYSeries("Z2 Light");
         outdoorLightSeries = new XYSeries("Outdoor Light");
 
+        for (XYSeries series : allSeries()) {
+            series.setMaximumItemCount(MAX_SERIES_ITEMS);
+        }
+
         stateDataset.addSeries(currentStateSeries);
         stateDataset.addSeries(goalStateSeries);
         actionDataset.addSeries(actionSeries);
@@ -179,11 +269,14 @@ public class QLearningVisualizer extends ApplicationFrame {
     }
 
     private JPanel createQTablePanel() {
-        qTableModel = new DefaultTableModel();
+        qTableModel = new QTableModel();
         qTableDisplay = new JTable(qTableModel);
         JScrollPane scrollPane = new JScrollPane(qTableDisplay);
         qTableDisplay.setFillsViewportHeight(true);
 
+        // Set custom renderer to display heatmap in the Q-table
+        qTableDisplay.setDefaultRenderer(Object.class, new HeatMapCellRenderer());
+
         JPanel panel = new JPanel(new BorderLayout());
         panel.add(scrollPane, BorderLayout.CENTER);
         panel.setBorder(BorderFactory.createTitledBorder("Q-Table"));
@@ -201,20 +294,12 @@ public class QLearningVisualizer extends ApplicationFrame {
 
     private void resetAndStartLearning() {
         // Clear existing data series
-        currentStateSeries.clear();
-        goalStateSeries.clear();
-        actionSeries.clear();
-        rewardSeries.clear();
-        z1LevelSeries.clear();
-        z2LevelSeries.clear();
-        z1BlindsSeries.clear();
-        z2BlindsSeries.clear();
-        z1LightSeries.clear();
-        z2LightSeries.clear();
-        outdoorLightSeries.clear();
+        for (XYSeries series : allSeries()) {
+            series.clear();
+        }
         
         // Clear Q-Table
-        qTableModel.setRowCount(0);
+        qTableModel.setQTable(null);
         
         // Extract parameters and start learning
         startLearning();
@@ -242,38 +327,91 @@ public class QLearningVisualizer extends ApplicationFrame {
         }
     }
 
+    /**
+     * Plots a training step. Must be called on the event dispatch thread. The
+     * charts are redrawn on the next frame.
+     */
     public void update(int step, List<Integer> currentState, List<Integer> goalState, int action, double reward) {
-        currentStateSeries.add(step, currentState.get(0));
-        goalStateSeries.add(step, goalState.get(0));
-        actionSeries.add(step, action);
-        rewardSeries.add(step, reward);
-
-        z1LevelSeries.add(step, currentState.get(0));
-        z2LevelSeries.add(step, currentState.get(1));
-        z1BlindsSeries.add(step, currentState.get(4));
-        z2BlindsSeries.add(step, currentState.get(5));
-        z1LightSeries.add(step, currentState.get(2));
-        z2LightSeries.add(step, currentState.get(3));
-        outdoorLightSeries.add(step, currentState.get(6));
+        currentStateSeries.add(step, currentState.get(0), false);
+        goalStateSeries.add(step, goalState.get(0), false);
+        actionSeries.add(step, action, false);
+        rewardSeries.add(step, reward, false);
+
+        z1LevelSeries.add(step, currentState.get(0), false);
+        z2LevelSeries.add(step, currentState.get(1), false);
+        z1BlindsSeries.add(step, currentState.get(4), false);
+        z2BlindsSeries.add(step, currentState.get(5), false);
+        z1LightSeries.add(step, currentState.get(2), false);
+        z2LightSeries.add(step, currentState.get(3), false);
+        outdoorLightSeries.add(step, currentState.get(6), false);
     }
 
-    public void updateQTable(double[][] qTable) {
-        String[] columnNames = new String[qTable[0].length];
-        for (int i = 0; i < qTable[0].length; i++) {
-            columnNames[i] = "Action " + i;
-        }
+    /**
+     * Displays the given Q-table. Must be called on the event dispatch thread.
+     */
+    public void updateQTable(QTable qTable) {
+        qTableModel.setQTable(qTable);
+    }
 
-        String[][] data = new String[qTable.length][qTable[0].length];
-        for (int i = 0; i < qTable.length; i++) {
-            for (int j = 0; j < qTable[i].length; j++) {
-                data[i][j] = String.format("%.2f", qTable[i][j]);
+    /**
+     * Consumes the pending step events and redraws the dashboard
+     */
+    private void refresh() {
+        int plotted = events.drain((step, state, action, reward) ->
+                update(step, codec.toList(state), goalState, action, reward), MAX_EVENTS_PER_FRAME);
+
+        if (plotted > 0) {
+            for (XYSeries series : allSeries()) {
+                series.fireSeriesChanged();
             }
         }
+        qTableDisplay.repaint();
 
-        qTableModel.setDataVector(data, columnNames);
+        // The last frame of a training run that has ended
+        if (events.isDrained()) {
+            stopRefreshing();
+        }
+    }
 
-        // Set custom renderer to display heatmap in the Q-table
-        qTableDisplay.setDefaultRenderer(Object.class, new HeatMapCellRenderer());
+    private XYSeries[] allSeries() {
+        return new XYSeries[] {
+                currentStateSeries, goalStateSeries, actionSeries, rewardSeries,
+                z1LevelSeries, z2LevelSeries, z1BlindsSeries, z2BlindsSeries,
+                z1LightSeries, z2LightSeries, outdoorLightSeries
+        };
+    }
+
+    /**
+     * A table model that reads the Q values of a {@link QTable} when the table is painted
+     */
+    private static class QTableModel extends AbstractTableModel {
+
+        private QTable qTable;
+
+        void setQTable(QTable qTable) {
+            this.qTable = qTable;
+            fireTableStructureChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return qTable == null ? 0 : qTable.getStateCount();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return qTable == null ? 0 : qTable.getActionCount();
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return "Action " + column;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return qTable.get(row, column);
+        }
     }
 
     private static class HeatMapCellRenderer extends DefaultTableCellRenderer {
@@ -291,6 +429,7 @@ public class QLearningVisualizer extends ApplicationFrame {
         }
 
         private Color getHeatMapColor(double value) {
+            value = Math.max(0, Math.min(1, value));
             int green = (int) ((1 - value) * 255);
             int red = (int) (value * 255);
             return new Color(red, green, 0);
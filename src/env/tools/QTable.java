@@ -0,0 +1,379 @@
+package tools;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * A Q matrix that stores the Q values of all the (state, action) pairs in one
+ * contiguous primitive buffer, in row-major order (state, then action). The
+ * buffer is either a heap array or a memory-mapped file of a {@link QTableStore}.
+ *
+ * <p>
+ * The maximum Q value and the action with the maximum Q value (argmax) of each
+ * state are cached and kept up to date on every write, so that greedy action
+ * selection and Q value updates need no row scans. A row is only rescanned
+ * when the Q value of its current argmax decreases. Ties are broken in favor of
+ * the action with the lowest key.
+ * </p>
+ *
+ * <p>
+ * By default, a Q matrix must not be written by several threads. After
+ * {@link #setLockStripes(int)}, writes lock one of several stripes of states, so
+ * that several actors can update the same Q matrix in parallel (Hogwild-style:
+ * the maximum Q value of the next state is read without locking its stripe).
+ * </p>
+ *
+ * <p>
+ * After {@link #setActionMasks(long[])}, the maximum Q value and the argmax of a
+ * state only consider the actions that are applicable in the state, so greedy
+ * action selection and the Q-Learning update ignore the actions that would have no
+ * effect.
+ * </p>
+ */
+public class QTable {
+
+  private final int stateCount;
+  private final int actionCount;
+  private final DoubleBuffer values;
+  private final double[] maxValues;
+  private final int[] argmax;
+
+  /** The locks of the stripes of states, or null if writes are not locked */
+  private volatile Object[] stripes;
+
+  /** The bitmask of the applicable actions of each state, or null if all the actions are applicable */
+  private long[] actionMasks;
+
+  /**
+   * Creates a Q matrix where all the Q values are 0.0
+   *
+   * @param stateCount the number of states
+   * @param actionCount the number of actions
+   */
+  public QTable(int stateCount, int actionCount) {
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.values = DoubleBuffer.wrap(new double[Math.multiplyExact(stateCount, actionCount)]);
+    this.maxValues = new double[stateCount];
+    this.argmax = new int[stateCount];
+  }
+
+  /**
+   * Creates a Q matrix whose Q values are stored in the given buffer, without
+   * copying them. Writes to the Q matrix go through to the buffer.
+   *
+   * @param stateCount the number of states
+   * @param actionCount the number of actions
+   * @param values the buffer of stateCount * actionCount Q values in row-major order
+   */
+  public QTable(int stateCount, int actionCount, DoubleBuffer values) {
+    if (values.capacity() != stateCount * actionCount) {
+      throw new IllegalArgumentException("Expected " + stateCount * actionCount + " Q values, got " + values.capacity());
+    }
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.values = values;
+    this.maxValues = new double[stateCount];
+    this.argmax = new int[stateCount];
+
+    for (int state = 0; state < stateCount; state++) {
+      rescan(state);
+    }
+  }
+
+  /**
+   * Returns the number of states
+   *
+   * @return the number of states
+   */
+  public int getStateCount() {
+    return stateCount;
+  }
+
+  /**
+   * Returns the number of actions
+   *
+   * @return the number of actions
+   */
+  public int getActionCount() {
+    return actionCount;
+  }
+
+  /**
+   * Returns the Q value of a (state, action) pair
+   *
+   * @param state the state
+   * @param action the action
+   * @return the Q value
+   */
+  public double get(int state, int action) {
+    return values.get(state * actionCount + action);
+  }
+
+  /**
+   * Sets the Q value of a (state, action) pair
+   *
+   * @param state the state
+   * @param action the action
+   * @param value the new Q value
+   */
+  public void set(int state, int action, double value) {
+    Object[] locks = stripes;
+    if (locks == null) {
+      write(state, action, value);
+    } else {
+      synchronized (locks[state & (locks.length - 1)]) {
+        write(state, action, value);
+      }
+    }
+  }
+
+  /**
+   * Copies the Q values of another Q matrix of the same size. The Q matrix must not
+   * be updated concurrently.
+   *
+   * @param source the Q matrix to copy
+   */
+  public void copyFrom(QTable source) {
+    if (source.stateCount != stateCount || source.actionCount != actionCount) {
+      throw new IllegalArgumentException("The Q matrices have different sizes");
+    }
+    for (int state = 0; state < stateCount; state++) {
+      for (int action = 0; action < actionCount; action++) {
+        values.put(state * actionCount + action, source.get(state, action));
+      }
+      rescan(state);
+    }
+  }
+
+  /**
+   * Seeds the Q matrix with the greedy policy of a weighted blend of other Q
+   * matrices of the same size, e.g. to warm-start training from the Q matrices of
+   * related goals. In each state, the action with the maximum blended Q value gets
+   * the prior value, and the other actions get 0. The Q matrix must not be updated
+   * concurrently.
+   *
+   * <p>
+   * The Q values themselves are not copied: their magnitude is specific to the
+   * goal they were trained for, and would have to be unlearnt, whereas the greedy
+   * actions carry what the goals have in common.
+   * </p>
+   *
+   * @param sources the Q matrices to blend
+   * @param weights the (positive) weight of each Q matrix
+   * @param prior the Q value of the preferred action of each state
+   */
+  public void seedPolicy(QTable[] sources, double[] weights, double prior) {
+    for (QTable source : sources) {
+      if (source.stateCount != stateCount || source.actionCount != actionCount) {
+        throw new IllegalArgumentException("The Q matrices have different sizes");
+      }
+    }
+
+    for (int state = 0; state < stateCount; state++) {
+      int best = 0;
+      double bestValue = Double.NEGATIVE_INFINITY;
+      for (int action = 0; action < actionCount; action++) {
+        if (!isApplicable(state, action)) {
+          continue;
+        }
+        double value = 0;
+        for (int i = 0; i < sources.length; i++) {
+          value += weights[i] * sources[i].get(state, action);
+        }
+        if (value > bestValue) {
+          bestValue = value;
+          best = action;
+        }
+      }
+      for (int action = 0; action < actionCount; action++) {
+        values.put(state * actionCount + action, action == best ? prior : 0);
+      }
+      rescan(state);
+    }
+  }
+
+  /**
+   * Writes a Q value and updates the cached maximum Q value and argmax of its state
+   */
+  private void write(int state, int action, double value) {
+    double oldValue = values.get(state * actionCount + action);
+    values.put(state * actionCount + action, value);
+    if (!isApplicable(state, action)) {
+      return;
+    }
+
+    int best = argmax[state];
+    if (value > maxValues[state] || (value == maxValues[state] && action < best)) {
+      maxValues[state] = value;
+      argmax[state] = action;
+    } else if (action == best && value < oldValue) {
+      rescan(state);
+    }
+  }
+
+  /**
+   * Applies the Q-Learning update rule to a (state, action) pair:
+   * Q(s,a) = Q(s,a) + alpha * (reward + gamma * max Q(s',a') - Q(s,a))
+   *
+   * @param state the state
+   * @param action the action performed in the state
+   * @param reward the immediate reward
+   * @param nextState the state reached by performing the action
+   * @param alpha the learning rate
+   * @param gamma the discount factor
+   * @return the change of the Q value
+   */
+  public double update(int state, int action, double reward, int nextState, double alpha, double gamma) {
+    Object[] locks = stripes;
+    if (locks == null) {
+      return apply(state, action, reward, nextState, alpha, gamma);
+    }
+    synchronized (locks[state & (locks.length - 1)]) {
+      return apply(state, action, reward, nextState, alpha, gamma);
+    }
+  }
+
+  private double apply(int state, int action, double reward, int nextState, double alpha, double gamma) {
+    double oldValue = values.get(state * actionCount + action);
+    double delta = alpha * (reward + gamma * maxValues[nextState] - oldValue);
+    write(state, action, oldValue + delta);
+    return delta;
+  }
+
+  /**
+   * Makes writes of the Q matrix safe for concurrent writers, by locking one of
+   * the given number of stripes of states per write. Must be called before the Q
+   * matrix is shared with the writers.
+   *
+   * @param count the number of stripes, rounded up to a power of two, or 0 to not lock writes
+   */
+  public void setLockStripes(int count) {
+    if (count <= 0) {
+      stripes = null;
+      return;
+    }
+    Object[] locks = new Object[Integer.highestOneBit(Math.max(1, count - 1)) << 1];
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+    stripes = locks;
+  }
+
+  /**
+   * Restricts the maximum Q value and the argmax of each state to the actions
+   * that are applicable in the state, e.g. as given by
+   * {@link LearningEnvironment#getApplicableActionMasks()}. In a state without
+   * applicable actions, all the actions are considered. Must be called before the
+   * Q matrix is shared with the writers.
+   *
+   * @param masks the bitmask of the applicable actions of each state, or null to consider all the actions
+   */
+  public void setActionMasks(long[] masks) {
+    if (masks != null && masks.length != stateCount) {
+      throw new IllegalArgumentException("Expected " + stateCount + " action masks, got " + masks.length);
+    }
+    this.actionMasks = masks;
+    for (int state = 0; state < stateCount; state++) {
+      rescan(state);
+    }
+  }
+
+  /**
+   * Returns the bitmask of the applicable actions of each state
+   *
+   * @return the action masks, or null if all the actions are applicable
+   */
+  public long[] getActionMasks() {
+    return actionMasks;
+  }
+
+  /**
+   * Tells whether an action is considered by the maximum Q value of a state
+   */
+  private boolean isApplicable(int state, int action) {
+    long[] masks = actionMasks;
+    return masks == null || masks[state] == 0 || (masks[state] & (1L << action)) != 0;
+  }
+
+  /**
+   * Returns the maximum Q value of a state
+   *
+   * @param state the state
+   * @return the maximum Q value
+   */
+  public double getMaxValue(int state) {
+    return maxValues[state];
+  }
+
+  /**
+   * Returns the action with the maximum Q value in a state
+   *
+   * @param state the state
+   * @return the action
+   */
+  public int getMaxAction(int state) {
+    return argmax[state];
+  }
+
+  /**
+   * Returns the greedy policy of the Q matrix: the action with the maximum Q
+   * value in each state
+   *
+   * @return the action of each state, indexed by state
+   */
+  public int[] toPolicy() {
+    return argmax.clone();
+  }
+
+  /**
+   * Copies the greedy policy of the Q matrix into a policy, and counts the states
+   * whose action changed, without allocating
+   *
+   * @param policy the policy to update, indexed by state
+   * @return the number of states whose action changed
+   */
+  public int updatePolicy(int[] policy) {
+    int changes = 0;
+    for (int state = 0; state < stateCount; state++) {
+      int action = argmax[state];
+      if (policy[state] != action) {
+        policy[state] = action;
+        changes++;
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * Returns a copy of the Q values as a matrix
+   *
+   * @return the Q matrix
+   */
+  public double[][] toArray() {
+    double[][] matrix = new double[stateCount][actionCount];
+    for (int state = 0; state < stateCount; state++) {
+      for (int action = 0; action < actionCount; action++) {
+        matrix[state][action] = values.get(state * actionCount + action);
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Recomputes the cached maximum Q value and argmax of a state
+   */
+  private void rescan(int state) {
+    int offset = state * actionCount;
+    int best = -1;
+    double bestValue = 0;
+    for (int action = 0; action < actionCount; action++) {
+      double value = values.get(offset + action);
+      if (isApplicable(state, action) && (best < 0 || value > bestValue)) {
+        best = action;
+        bestValue = value;
+      }
+    }
+    maxValues[state] = bestValue;
+    argmax[state] = best;
+  }
+}
@@ -0,0 +1,301 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * A persistent store of Q matrices, with one memory-mapped binary file per goal
+ * description.
+ *
+ * <p>
+ * Each file starts with a header of {@value #HEADER_SIZE} bytes that records a
+ * format version, the shape of the state space and of the action space, the goal
+ * description, the hyperparameters of the training run and its progress. The
+ * header is followed by the Q values in row-major order. All the values are
+ * little-endian.
+ * </p>
+ *
+ * <p>
+ * The Q values of a stored Q matrix are not copied to the heap: the {@link QTable}
+ * of an {@link Entry} reads and writes the mapped file directly. Changes are thus
+ * kept by the operating system if the JVM crashes, and {@link Entry#checkpoint(long)}
+ * forces them to the disk.
+ * </p>
+ */
+public class QTableStore {
+
+  /** The magic number of a Q matrix file ("QTB1") */
+  static final int MAGIC = 0x51544231;
+
+  /** The version of the file format */
+  static final int VERSION = 1;
+
+  /** The size of the header of a Q matrix file */
+  static final int HEADER_SIZE = 256;
+
+  /** The maximum number of axes of a state */
+  static final int MAX_AXES = 16;
+
+  /** The maximum number of values of a goal description */
+  static final int MAX_GOAL_LENGTH = 8;
+
+  private static final int STATE_COUNT = 8;
+  private static final int ACTION_COUNT = 12;
+  private static final int AXIS_COUNT = 16;
+  private static final int RADICES = 20;
+  private static final int GOAL_LENGTH = RADICES + 4 * MAX_AXES;
+  private static final int GOAL = GOAL_LENGTH + 4;
+  private static final int ALPHA = GOAL + 4 * MAX_GOAL_LENGTH;
+  private static final int GAMMA = ALPHA + 8;
+  private static final int EPSILON = GAMMA + 8;
+  private static final int REWARD = EPSILON + 8;
+  private static final int EPISODES_REQUESTED = REWARD + 8;
+  private static final int EPISODES_COMPLETED = EPISODES_REQUESTED + 8;
+
+  private static final String FILE_PREFIX = "goal";
+  private static final String FILE_SUFFIX = ".qtable";
+
+  private static final Logger LOGGER = Logger.getLogger(QTableStore.class.getName());
+
+  private final Path directory;
+  private final StateCodec codec;
+  private final int actionCount;
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  /**
+   * Creates a store of Q matrices for the given state space and action space
+   *
+   * @param directory the directory of the Q matrix files, which is created if needed
+   * @param codec the codec of the state space
+   * @param actionCount the number of actions
+   */
+  public QTableStore(Path directory, StateCodec codec, int actionCount) throws IOException {
+    if (codec.axisCount() > MAX_AXES) {
+      throw new IllegalArgumentException("A state has more than " + MAX_AXES + " axes");
+    }
+    this.directory = Files.createDirectories(directory);
+    this.codec = codec;
+    this.actionCount = actionCount;
+  }
+
+  /**
+   * Maps all the Q matrix files of the directory that match the state space and
+   * the action space of the store. Files that do not match are skipped.
+   *
+   * @return the stored Q matrices
+   */
+  public synchronized List<Entry> loadAll() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+      for (Path file : files) {
+        try {
+          Entry entry = map(file, false);
+          entries.putIfAbsent(fileName(entry.getGoal()), entry);
+        } catch (IOException e) {
+          LOGGER.warning("Skipping " + file + ": " + e.getMessage());
+        }
+      }
+    }
+    return new ArrayList<>(entries.values());
+  }
+
+  /**
+   * Returns the stored Q matrix of a goal description. If no matching file
+   * exists, a file with Q values of 0.0 is created.
+   *
+   * @param goal the goal description, e.g. [2,3]
+   * @return the stored Q matrix
+   */
+  public synchronized Entry open(int[] goal) throws IOException {
+    if (goal.length > MAX_GOAL_LENGTH) {
+      throw new IllegalArgumentException("A goal description has more than " + MAX_GOAL_LENGTH + " values");
+    }
+
+    String name = fileName(goal);
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      Path file = directory.resolve(name);
+      try {
+        entry = map(file, false);
+      } catch (NoSuchFileException e) {
+        entry = map(file, true);
+      } catch (IOException e) {
+        LOGGER.warning("Replacing " + file + ": " + e.getMessage());
+        entry = map(file, true);
+      }
+      entry.writeGoal(goal);
+      entries.put(name, entry);
+    }
+    return entry;
+  }
+
+  private Entry map(Path file, boolean create) throws IOException {
+    long size = HEADER_SIZE + 8L * codec.size() * actionCount;
+
+    Set<OpenOption> options = new HashSet<>(Arrays.asList(StandardOpenOption.READ, StandardOpenOption.WRITE));
+    if (create) {
+      options.add(StandardOpenOption.CREATE);
+      options.add(StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    try (FileChannel channel = FileChannel.open(file, options)) {
+      if (!create && channel.size() != size) {
+        throw new IOException("unexpected file size " + channel.size() + ", expected " + size);
+      }
+
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+      if (create) {
+        writeHeader(buffer);
+      } else {
+        validateHeader(buffer);
+      }
+      return new Entry(buffer);
+    }
+  }
+
+  private void writeHeader(ByteBuffer header) {
+    header.putInt(0, MAGIC);
+    header.putInt(4, VERSION);
+    header.putInt(STATE_COUNT, codec.size());
+    header.putInt(ACTION_COUNT, actionCount);
+    header.putInt(AXIS_COUNT, codec.axisCount());
+    for (int axis = 0; axis < codec.axisCount(); axis++) {
+      header.putInt(RADICES + 4 * axis, codec.radix(axis));
+    }
+  }
+
+  private void validateHeader(ByteBuffer header) throws IOException {
+    if (header.getInt(0) != MAGIC) {
+      throw new IOException("not a Q matrix file");
+    }
+    if (header.getInt(4) != VERSION) {
+      throw new IOException("unsupported version " + header.getInt(4));
+    }
+    if (header.getInt(STATE_COUNT) != codec.size() || header.getInt(ACTION_COUNT) != actionCount
+        || header.getInt(AXIS_COUNT) != codec.axisCount()) {
+      throw new IOException("the shape of the state space or of the action space does not match");
+    }
+    for (int axis = 0; axis < codec.axisCount(); axis++) {
+      if (header.getInt(RADICES + 4 * axis) != codec.radix(axis)) {
+        throw new IOException("the values of axis " + axis + " do not match");
+      }
+    }
+  }
+
+  private static String fileName(int[] goal) {
+    StringBuilder name = new StringBuilder(FILE_PREFIX);
+    for (int value : goal) {
+      name.append('-').append(value);
+    }
+    return name.append(FILE_SUFFIX).toString();
+  }
+
+  /**
+   * A Q matrix of the store, together with the header of its file
+   */
+  public class Entry {
+
+    private final MappedByteBuffer buffer;
+    private final QTable qTable;
+
+    private Entry(MappedByteBuffer buffer) {
+      this.buffer = buffer;
+
+      ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      data.position(HEADER_SIZE);
+      this.qTable = new QTable(codec.size(), actionCount, data.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+    }
+
+    /**
+     * Returns the Q matrix, which is backed by the mapped file
+     *
+     * @return the Q matrix
+     */
+    public QTable getQTable() {
+      return qTable;
+    }
+
+    /**
+     * Returns the goal description of the Q matrix
+     *
+     * @return the goal description
+     */
+    public int[] getGoal() {
+      int[] goal = new int[buffer.getInt(GOAL_LENGTH)];
+      for (int i = 0; i < goal.length; i++) {
+        goal[i] = buffer.getInt(GOAL + 4 * i);
+      }
+      return goal;
+    }
+
+    /**
+     * Returns the number of episodes that have been completed by the training
+     * run recorded in the header
+     *
+     * @return the number of completed episodes
+     */
+    public long getEpisodesCompleted() {
+      return buffer.getLong(EPISODES_COMPLETED);
+    }
+
+    /**
+     * Prepares the Q matrix for a training run and returns the number of episodes
+     * that remain to be run. If the header records an interrupted run with the same
+     * episodes and hyperparameters, the run is resumed: only the episodes that were
+     * not completed remain. Otherwise, e.g. if the recorded run was completed, a new
+     * run starts from the stored Q values.
+     *
+     * @param episodes the number of episodes of the run
+     * @param alpha the learning rate
+     * @param gamma the discount factor
+     * @param epsilon the exploration probability
+     * @param reward the reward assigned when reaching the goal state
+     * @return the number of episodes to run
+     */
+    public synchronized int prepare(int episodes, double alpha, double gamma, double epsilon, double reward) {
+      boolean interruptedRun = buffer.getLong(EPISODES_REQUESTED) == episodes
+          && getEpisodesCompleted() < episodes
+          && buffer.getDouble(ALPHA) == alpha
+          && buffer.getDouble(GAMMA) == gamma
+          && buffer.getDouble(EPSILON) == epsilon
+          && buffer.getDouble(REWARD) == reward;
+
+      if (interruptedRun) {
+        return (int) (episodes - getEpisodesCompleted());
+      }
+
+      buffer.putDouble(ALPHA, alpha);
+      buffer.putDouble(GAMMA, gamma);
+      buffer.putDouble(EPSILON, epsilon);
+      buffer.putDouble(REWARD, reward);
+      buffer.putLong(EPISODES_REQUESTED, episodes);
+      buffer.putLong(EPISODES_COMPLETED, 0);
+      return episodes;
+    }
+
+    /**
+     * Records the progress of the training run and forces the Q values and the
+     * header to the disk
+     *
+     * @param episodesCompleted the number of completed episodes of the run
+     */
+    public synchronized void checkpoint(long episodesCompleted) {
+      buffer.putLong(EPISODES_COMPLETED, episodesCompleted);
+      buffer.force();
+    }
+
+    private void writeGoal(int[] goal) {
+      buffer.putInt(GOAL_LENGTH, goal.length);
+      for (int i = 0; i < goal.length; i++) {
+        buffer.putInt(GOAL + 4 * i, goal[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package tools;
+
+import java.util.SplittableRandom;
+
+/**
+ * A fixed-capacity experience replay buffer of the transitions observed while
+ * learning. When the buffer is full, a new transition replaces the oldest one.
+ *
+ * <p>
+ * Transitions are stored in parallel primitive arrays that are used as a ring
+ * buffer, so recording and replaying transitions do not allocate. Replayed
+ * transitions are drawn either uniformly or with a weight that decreases
+ * linearly with their age, so that recent transitions are replayed more often.
+ * </p>
+ */
+public class ReplayBuffer {
+
+  /**
+   * How the replayed transitions are drawn from the buffer
+   */
+  public enum Sampling {
+
+    /** All the transitions of the buffer are equally likely */
+    UNIFORM,
+
+    /** The likelihood of a transition decreases linearly with its age */
+    RECENCY
+  }
+
+  private final int capacity;
+  private final Sampling sampling;
+  private final int[] states;
+  private final int[] actions;
+  private final double[] rewards;
+  private final int[] nextStates;
+
+  /** The slot of the next transition to write */
+  private int next;
+
+  /** The number of transitions in the buffer */
+  private int size;
+
+  /**
+   * Creates an empty buffer
+   *
+   * @param capacity the maximum number of transitions
+   * @param sampling how the replayed transitions are drawn
+   */
+  public ReplayBuffer(int capacity, Sampling sampling) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+    this.capacity = capacity;
+    this.sampling = sampling;
+    this.states = new int[capacity];
+    this.actions = new int[capacity];
+    this.rewards = new double[capacity];
+    this.nextStates = new int[capacity];
+  }
+
+  /**
+   * Records a transition
+   *
+   * @param state the state in which the action was performed
+   * @param action the performed action
+   * @param reward the immediate reward
+   * @param nextState the state reached by performing the action
+   */
+  public void add(int state, int action, double reward, int nextState) {
+    states[next] = state;
+    actions[next] = action;
+    rewards[next] = reward;
+    nextStates[next] = nextState;
+    next = next + 1 < capacity ? next + 1 : 0;
+    if (size < capacity) {
+      size++;
+    }
+  }
+
+  /**
+   * Applies the Q-Learning update rule to a mini-batch of transitions drawn from
+   * the buffer
+   *
+   * @param qTable the Q matrix to update
+   * @param batchSize the number of replayed transitions
+   * @param alpha the learning rate
+   * @param gamma the discount factor
+   * @param random the random number generator
+   * @return the number of replayed transitions
+   */
+  public int replay(QTable qTable, int batchSize, double alpha, double gamma, SplittableRandom random) {
+    if (size == 0) {
+      return 0;
+    }
+    for (int i = 0; i < batchSize; i++) {
+      int slot = sample(random);
+      qTable.update(states[slot], actions[slot], rewards[slot], nextStates[slot], alpha, gamma);
+    }
+    return batchSize;
+  }
+
+  /**
+   * Draws the slot of a transition of the buffer
+   */
+  private int sample(SplittableRandom random) {
+    int age;
+    if (sampling == Sampling.RECENCY) {
+      // 1 - sqrt(u) has the density 2(1 - x) on [0,1), i.e. linearly decreasing with the age
+      age = Math.min(size - 1, (int) (size * (1 - Math.sqrt(random.nextDouble()))));
+    } else {
+      age = random.nextInt(size);
+    }
+    int slot = next - 1 - age;
+    return slot >= 0 ? slot : slot + capacity;
+  }
+
+  /**
+   * Returns the number of transitions in the buffer
+   *
+   * @return the number of transitions
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the maximum number of transitions of the buffer
+   *
+   * @return the capacity
+   */
+  public int capacity() {
+    return capacity;
+  }
+}
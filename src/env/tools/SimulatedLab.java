@@ -0,0 +1,268 @@
+package tools;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import com.google.common.collect.Sets;
+
+/**
+* A class that extends {@link LearningEnvironment} for representing a simulated
+* lab environment that runs inside the JVM.
+*
+* <p> A SimulatedLab instance reproduces the physics of the "Update action" and
+* "Update environment" nodes of the Node-RED flow in simulator/simulator_flow.json:
+* the light levels of the zones result from the lights and from the sunshine that
+* enters through the blinds, the sunshine hovers around 600..650 lux, and switching
+* devices on has an energy cost. Since no HTTP requests are involved, a
+* {@link QLearner} can train against it at millions of steps per second, e.g. to
+* pre-train Q tables before fine-tuning them against the real lab.
+* </p>
+*
+* <p> The state space and the action space are the same as the ones of a
+* {@link Lab} that is created from the Thing Description of the simulated lab.
+* Each performed action advances the simulation by one tick (0.1h), like the
+* "Repeat" node of the flow does between two requests.
+* </p>
+*/
+public class SimulatedLab extends LearningEnvironment {
+
+  /** The semantic types of the actions of the lab, in the order of the {@link Lab} */
+  private static final String[] ACTION_TYPES = {
+    "http://example.org/was#SetZ1Light",
+    "http://example.org/was#SetZ2Light",
+    "http://example.org/was#SetZ1Blinds",
+    "http://example.org/was#SetZ2Blinds"
+  };
+
+  /** The names of the devices that are set by the actions of the lab */
+  private static final String[] DEVICES = { "Z1Light", "Z2Light", "Z1Blinds", "Z2Blinds" };
+
+  /** The position of the first device axis in a state of the lab */
+  private static final int DEVICE_AXIS = 2;
+
+  /** The lux contributed by the lights of a zone to the same zone */
+  private static final double LIGHT_OWN_ZONE = 300;
+
+  /** The lux contributed by the lights of a zone to the other zone */
+  private static final double LIGHT_OTHER_ZONE = 50;
+
+  /** The share of the sunshine let in by the blinds of a zone to the same zone */
+  private static final double BLINDS_OWN_ZONE = 0.5;
+
+  /** The share of the sunshine let in by the blinds of a zone to the other zone */
+  private static final double BLINDS_OTHER_ZONE = 0.25;
+
+  /** The energy cost of switching the lights on */
+  private static final int LIGHT_COST = 100;
+
+  /** The energy cost of raising the blinds */
+  private static final int BLINDS_COST = 5;
+
+  private final SplittableRandom random;
+
+  /** The status of the devices, indexed like {@link #DEVICES} */
+  private final boolean[] devices = new boolean[DEVICES.length];
+
+  private double z1Level;
+  private double z2Level;
+  private double sunshine;
+  private double hour;
+  private int totalEnergyCost;
+  private int energyCost;
+
+  /**
+  * Creates a simulated lab with a random seed
+  */
+  public SimulatedLab() {
+    this(new SplittableRandom());
+  }
+
+  /**
+  * Creates a simulated lab whose sunshine noise is drawn from the given seed
+  *
+  * @param seed the seed of the random number generator
+  */
+  public SimulatedLab(long seed) {
+    this(new SplittableRandom(seed));
+  }
+
+  /**
+  * Creates a simulated lab whose sunshine noise is drawn from the given
+  * random number generator
+  *
+  * @param random the random number generator, which is not shared with other threads
+  */
+  public SimulatedLab(SplittableRandom random) {
+    this.random = random;
+    createStateSpace();
+    createActionSpace();
+    reset();
+  }
+
+  /**
+  * Resets the simulation to the values of the "Initialization" node of the flow
+  */
+  public void reset() {
+    Arrays.fill(devices, false);
+    z1Level = 0;
+    z2Level = 0;
+    sunshine = 0;
+    hour = 0;
+    totalEnergyCost = 0;
+    energyCost = 0;
+  }
+
+  /**
+  * @see {@link LearningEnvironment#getCompatibleStates(List)}
+  */
+  @Override
+  public List<Integer> getCompatibleStates(List<Object> stateDescription) {
+    return getCompatibleStateStream(stateDescription).boxed().collect(Collectors.toList());
+  }
+
+  /**
+  * @see {@link LearningEnvironment#readCurrentState()}
+  */
+  @Override
+  public int readCurrentState() {
+    return stateCodec.encode(
+      Lab.discretizeLightLevel(z1Level),
+      Lab.discretizeLightLevel(z2Level),
+      devices[0] ? 1 : 0,
+      devices[1] ? 1 : 0,
+      devices[2] ? 1 : 0,
+      devices[3] ? 1 : 0,
+      Lab.discretizeSunshine(sunshine));
+  }
+
+  /**
+  * @see {@link LearningEnvironment#getStateIndex(Object[])}
+  */
+  @Override
+  public int getStateIndex(Object[] stateDescription) {
+    return stateCodec.encode(
+      Lab.discretizeLightLevel(((Number) stateDescription[0]).doubleValue()),
+      Lab.discretizeLightLevel(((Number) stateDescription[1]).doubleValue()),
+      (Boolean) stateDescription[2] ? 1 : 0,
+      (Boolean) stateDescription[3] ? 1 : 0,
+      (Boolean) stateDescription[4] ? 1 : 0,
+      (Boolean) stateDescription[5] ? 1 : 0,
+      Lab.discretizeSunshine(((Number) stateDescription[6]).doubleValue()));
+  }
+
+  /**
+  * Performs an action like the "Update action" node of the flow, and advances
+  * the simulation by one tick
+  *
+  * @see {@link LearningEnvironment#performAction(int)}
+  */
+  @Override
+  public void performAction(int action) {
+    int device = action / 2;
+    boolean value = (action & 1) == 1;
+
+    if (!devices[device] && value) {
+      energyCost = device < 2 ? LIGHT_COST : BLINDS_COST;
+    }
+    devices[device] = value;
+
+    updateEnvironment();
+  }
+
+  /**
+  * Advances the simulation by one tick like the "Update environment" node of the flow.
+  * As in the flow, the light levels are computed from the sunshine of the previous tick.
+  */
+  public void updateEnvironment() {
+    double sun = sunshine;
+
+    hour = hour >= 24 ? 0.1 : hour + 0.1;
+    sunshine = 600 + 50 * random.nextDouble();
+
+    z1Level = (devices[0] ? LIGHT_OWN_ZONE : 0)
+      + (devices[1] ? LIGHT_OTHER_ZONE : 0)
+      + (devices[2] ? sun * BLINDS_OWN_ZONE : 0)
+      + (devices[3] ? sun * BLINDS_OTHER_ZONE : 0);
+
+    z2Level = (devices[0] ? LIGHT_OTHER_ZONE : 0)
+      + (devices[1] ? LIGHT_OWN_ZONE : 0)
+      + (devices[2] ? sun * BLINDS_OTHER_ZONE : 0)
+      + (devices[3] ? sun * BLINDS_OWN_ZONE : 0);
+
+    totalEnergyCost += (devices[0] ? 1 : 0) + (devices[1] ? 1 : 0);
+  }
+
+  /**
+  * @see {@link LearningEnvironment#getRawState(int, double[])}
+  */
+  @Override
+  public void getRawState(int state, double[] values) {
+    values[0] = z1Level;
+    values[1] = z2Level;
+    for (int device = 0; device < devices.length; device++) {
+      values[DEVICE_AXIS + device] = devices[device] ? 1 : 0;
+    }
+    values[6] = sunshine;
+  }
+
+  /**
+  * @see {@link LearningEnvironment#getRawStateBounds()}
+  */
+  @Override
+  public double[] getRawStateBounds() {
+    return Lab.rawStateBounds(2);
+  }
+
+  public double getZ1Level() {
+    return z1Level;
+  }
+
+  public double getZ2Level() {
+    return z2Level;
+  }
+
+  public double getSunshine() {
+    return sunshine;
+  }
+
+  public double getHour() {
+    return hour;
+  }
+
+  public int getTotalEnergyCost() {
+    return totalEnergyCost;
+  }
+
+  public int getEnergyCost() {
+    return energyCost;
+  }
+
+  /**
+  * Creates the state space of the simulated lab, which is the same as the
+  * state space of a {@link Lab}
+  */
+  private void createStateSpace() {
+    Set<Integer> levels = new LinkedHashSet<>(Arrays.asList(0, 1, 2, 3));
+    Set<Integer> bits = new LinkedHashSet<>(Arrays.asList(0, 1));
+
+    this.stateSpace = Sets.cartesianProduct(Arrays.asList(levels, levels, bits, bits, bits, bits, levels));
+    this.stateCodec = new StateCodec(4, 4, 2, 2, 2, 2, 4);
+    this.stateSpaceIndex = new StateIndex(stateCodec);
+  }
+
+  /**
+  * Creates the action space of the simulated lab. For each device, the action
+  * that switches it off precedes the action that switches it on, as in a
+  * {@link Lab}. Actions of a simulated lab carry no HTTP request.
+  */
+  private void createActionSpace() {
+    this.affordanceTypes = Arrays.asList(ACTION_TYPES);
+
+    for (int device = 0; device < DEVICES.length; device++) {
+      for (boolean value : new boolean[] { false, true }) {
+        Action action = new Action(ACTION_TYPES[device], new Object[]{DEVICES[device]}, new Object[]{value}, null);
+        action.setApplicableOn(DEVICE_AXIS + device, value ? 0 : 1);
+        actionSpace.put(actionSpace.size(), action);
+      }
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package tools;
+
+import java.util.Arrays;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A Q matrix that only stores the Q values of the states that were visited, for
+ * state spaces that are too large for a {@link QTable}, e.g. the state space of a
+ * lab with many zones. A state that was not visited has the Q value 0.0 for every
+ * action.
+ *
+ * <p>
+ * The states are the long keys of a {@link StateCodec}, and are kept in an
+ * open-addressing hash table with linear probing over primitive arrays: a slot
+ * holds the key of a state, and the Q values of the state are stored in one
+ * contiguous primitive array in slot-major order (slot, then action). Looking up
+ * and updating Q values does not allocate, except when the table grows.
+ * </p>
+ *
+ * <p>
+ * As in a {@link QTable}, the maximum Q value and the argmax of each visited
+ * state are cached, and only consider the actions that are applicable in the
+ * state. A sparse Q matrix must not be written by several threads.
+ * </p>
+ */
+public class SparseQTable {
+
+  /** The key of an empty slot (the keys of states are not negative) */
+  private static final long EMPTY = -1;
+
+  /** The largest share of occupied slots, after which the table grows */
+  private static final double LOAD_FACTOR = 0.5;
+
+  private final int actionCount;
+  private final LongUnaryOperator actionMasks;
+
+  private long[] keys;
+  private double[] values;
+  private double[] maxValues;
+  private int[] argmax;
+  private long[] masks;
+  private int size;
+
+  /**
+   * Creates a sparse Q matrix without visited states
+   *
+   * @param actionCount the number of actions
+   * @param initialCapacity the number of states that can be visited before the table grows
+   * @param actionMasks gives the bitmask of the applicable actions of a state from its key, or 0 if all the actions are applicable
+   */
+  public SparseQTable(int actionCount, int initialCapacity, LongUnaryOperator actionMasks) {
+    this.actionCount = actionCount;
+    this.actionMasks = actionMasks;
+    allocate(Integer.highestOneBit(Math.max(2, (int) (initialCapacity / LOAD_FACTOR) - 1)) << 1);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    values = new double[Math.multiplyExact(capacity, actionCount)];
+    maxValues = new double[capacity];
+    argmax = new int[capacity];
+    masks = new long[capacity];
+    size = 0;
+  }
+
+  /**
+   * Returns the number of actions
+   *
+   * @return the number of actions
+   */
+  public int getActionCount() {
+    return actionCount;
+  }
+
+  /**
+   * Returns the number of visited states
+   *
+   * @return the number of states that have Q values
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of states that can be stored before the table grows
+   *
+   * @return the capacity
+   */
+  public int capacity() {
+    return (int) (keys.length * LOAD_FACTOR);
+  }
+
+  /**
+   * Returns the Q value of a (state, action) pair
+   *
+   * @param key the key of the state
+   * @param action the action
+   * @return the Q value, or 0.0 if the state was not visited
+   */
+  public double get(long key, int action) {
+    int slot = find(key);
+    return slot < 0 ? 0 : values[slot * actionCount + action];
+  }
+
+  /**
+   * Returns the maximum Q value of a state
+   *
+   * @param key the key of the state
+   * @return the maximum Q value, or 0.0 if the state was not visited
+   */
+  public double getMaxValue(long key) {
+    int slot = find(key);
+    return slot < 0 ? 0 : maxValues[slot];
+  }
+
+  /**
+   * Returns the action with the maximum Q value in a state. Ties are broken in
+   * favor of the applicable action with the lowest key.
+   *
+   * @param key the key of the state
+   * @return the action
+   */
+  public int getMaxAction(long key) {
+    int slot = find(key);
+    if (slot >= 0) {
+      return argmax[slot];
+    }
+    long mask = actionMasks.applyAsLong(key);
+    return mask == 0 ? 0 : Long.numberOfTrailingZeros(mask);
+  }
+
+  /**
+   * Applies the Q-Learning update rule to a (state, action) pair:
+   * Q(s,a) = Q(s,a) + alpha * (reward + gamma * max Q(s',a') - Q(s,a))
+   *
+   * @param key the key of the state
+   * @param action the action performed in the state
+   * @param reward the immediate reward
+   * @param nextKey the key of the state reached by performing the action
+   * @param alpha the learning rate
+   * @param gamma the discount factor
+   * @return the change of the Q value
+   */
+  public double update(long key, int action, double reward, long nextKey, double alpha, double gamma) {
+    double nextMaxValue = getMaxValue(nextKey);
+    int slot = insert(key);
+    int offset = slot * actionCount + action;
+    double oldValue = values[offset];
+    double delta = alpha * (reward + gamma * nextMaxValue - oldValue);
+    double value = oldValue + delta;
+    values[offset] = value;
+
+    // Keep the cached maximum Q value and argmax of the state up to date
+    if (masks[slot] == 0 || (masks[slot] & (1L << action)) != 0) {
+      int best = argmax[slot];
+      if (value > maxValues[slot] || (value == maxValues[slot] && action < best)) {
+        maxValues[slot] = value;
+        argmax[slot] = action;
+      } else if (action == best && value < oldValue) {
+        rescan(slot);
+      }
+    }
+    return delta;
+  }
+
+  /**
+   * Returns the slot of a state, or -1 if the state was not visited
+   */
+  private int find(long key) {
+    int mask = keys.length - 1;
+    for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+      long k = keys[slot];
+      if (k == key) {
+        return slot;
+      }
+      if (k == EMPTY) {
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * Returns the slot of a state, and adds the state with Q values of 0.0 if it
+   * was not visited
+   */
+  private int insert(long key) {
+    int slot = find(key);
+    if (slot >= 0) {
+      return slot;
+    }
+    if (size + 1 > keys.length * LOAD_FACTOR) {
+      grow();
+    }
+    int mask = keys.length - 1;
+    slot = hash(key) & mask;
+    while (keys[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    masks[slot] = actionMasks.applyAsLong(key);
+    rescan(slot);
+    size++;
+    return slot;
+  }
+
+  /**
+   * Doubles the number of slots, and moves the visited states to their new slots
+   */
+  private void grow() {
+    long[] oldKeys = keys;
+    double[] oldValues = values;
+    double[] oldMaxValues = maxValues;
+    int[] oldArgmax = argmax;
+    long[] oldMasks = masks;
+    int oldSize = size;
+
+    allocate(oldKeys.length << 1);
+    int mask = keys.length - 1;
+    for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+      long key = oldKeys[oldSlot];
+      if (key == EMPTY) {
+        continue;
+      }
+      int slot = hash(key) & mask;
+      while (keys[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      System.arraycopy(oldValues, oldSlot * actionCount, values, slot * actionCount, actionCount);
+      maxValues[slot] = oldMaxValues[oldSlot];
+      argmax[slot] = oldArgmax[oldSlot];
+      masks[slot] = oldMasks[oldSlot];
+    }
+    size = oldSize;
+  }
+
+  /**
+   * Recomputes the cached maximum Q value and argmax of a slot
+   */
+  private void rescan(int slot) {
+    int offset = slot * actionCount;
+    long mask = masks[slot];
+    int best = -1;
+    double bestValue = 0;
+    for (int action = 0; action < actionCount; action++) {
+      double value = values[offset + action];
+      if ((mask == 0 || (mask & (1L << action)) != 0) && (best < 0 || value > bestValue)) {
+        best = action;
+        bestValue = value;
+      }
+    }
+    maxValues[slot] = bestValue;
+    argmax[slot] = best;
+  }
+
+  /**
+   * Spreads the bits of a key, whose low bits only encode the last axes of the state
+   */
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -0,0 +1,290 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * A mixed-radix codec that maps the states of a learning environment to
+ * integer indices (or long keys) and back.
+ *
+ * <p>
+ * A state is a vector of axis values (e.g. [z1Level, z2Level, z1Light, ...]),
+ * where the value of axis i lies in [0, radix(i)). The index of a state is
+ * its position in the lexicographic ordering of the state space, i.e. the
+ * ordering of {@link com.google.common.collect.Sets#cartesianProduct(List)},
+ * where the last axis varies fastest. E.g. with the radices of the lab
+ * [4,4,2,2,2,2,4], the state [0,0,0,0,0,0,1] has the index 1.
+ * </p>
+ *
+ * <p>
+ * State spaces that have more states than an int can index, e.g. the state space
+ * of a lab with many zones, only have long keys: the key of a state is computed
+ * like its index, and the int indices are not available (see {@link #isIndexable()}).
+ * For the other state spaces, the key of a state is its index.
+ * </p>
+ *
+ * <p>
+ * Encoding and decoding are constant time per axis and do not allocate.
+ * </p>
+ */
+public final class StateCodec {
+
+  private final int[] radices;
+  private final int[] strides;
+  private final long[] keyStrides;
+  private final long keyCount;
+  private final int size;
+
+  /**
+   * Creates a codec for a state space with the given number of values per axis
+   *
+   * @param radices the number of possible values of each axis
+   */
+  public StateCodec(int... radices) {
+    this.radices = radices.clone();
+    this.strides = new int[radices.length];
+    this.keyStrides = new long[radices.length];
+
+    long stride = 1;
+    for (int axis = radices.length - 1; axis >= 0; axis--) {
+      if (radices[axis] <= 0) {
+        throw new IllegalArgumentException("Invalid radix " + radices[axis] + " for axis " + axis);
+      }
+      this.keyStrides[axis] = stride;
+      this.strides[axis] = (int) Math.min(stride, Integer.MAX_VALUE);
+      try {
+        stride = Math.multiplyExact(stride, radices[axis]);
+      } catch (ArithmeticException e) {
+        throw new IllegalArgumentException("State space too large for a long key: " + Arrays.toString(radices));
+      }
+    }
+    this.keyCount = stride;
+    this.size = stride <= Integer.MAX_VALUE ? (int) stride : -1;
+  }
+
+  /**
+   * Returns the number of states
+   *
+   * @return the size of the state space
+   * @throws IllegalStateException if the state space is too large for int indices
+   */
+  public int size() {
+    if (size < 0) {
+      throw new IllegalStateException("State space too large for an int index: " + Arrays.toString(radices));
+    }
+    return size;
+  }
+
+  /**
+   * Tells whether the states have int indices, i.e. whether the state space has
+   * at most Integer.MAX_VALUE states
+   *
+   * @return true if the states have int indices
+   */
+  public boolean isIndexable() {
+    return size >= 0;
+  }
+
+  /**
+   * Returns the number of states, which is also the number of keys
+   *
+   * @return the number of keys
+   */
+  public long keyCount() {
+    return keyCount;
+  }
+
+  /**
+   * Returns the number of axes of a state
+   *
+   * @return the number of axes
+   */
+  public int axisCount() {
+    return radices.length;
+  }
+
+  /**
+   * Returns the number of possible values of an axis
+   *
+   * @param axis the axis
+   * @return the radix of the axis
+   */
+  public int radix(int axis) {
+    return radices[axis];
+  }
+
+  /**
+   * Returns the distance between the indices of two states that differ
+   * only by one in the value of the given axis
+   *
+   * @param axis the axis
+   * @return the stride of the axis
+   */
+  public int stride(int axis) {
+    return strides[axis];
+  }
+
+  /**
+   * Encodes a state given as axis values to its index
+   *
+   * @param state the axis values of the state
+   * @return the index of the state, or -1 if a value is out of range or the state space is not indexable
+   */
+  public int encode(int... state) {
+    if (size < 0) {
+      return -1;
+    }
+    int index = 0;
+    for (int axis = 0; axis < radices.length; axis++) {
+      int value = state[axis];
+      if (value < 0 || value >= radices[axis]) {
+        return -1;
+      }
+      index += value * strides[axis];
+    }
+    return index;
+  }
+
+  /**
+   * Encodes a state given as a list of axis values to its index
+   *
+   * @param state the axis values of the state
+   * @return the index of the state, or -1 if a value is missing or out of range, or the state space is not indexable
+   */
+  public int encode(List<Integer> state) {
+    if (size < 0) {
+      return -1;
+    }
+    int index = 0;
+    for (int axis = 0; axis < radices.length; axis++) {
+      Integer value = state.get(axis);
+      if (value == null || value < 0 || value >= radices[axis]) {
+        return -1;
+      }
+      index += value * strides[axis];
+    }
+    return index;
+  }
+
+  /**
+   * Encodes a state given as axis values to its key
+   *
+   * @param state the axis values of the state
+   * @return the key of the state, or -1 if a value is out of range
+   */
+  public long encodeKey(int... state) {
+    long key = 0;
+    for (int axis = 0; axis < radices.length; axis++) {
+      int value = state[axis];
+      if (value < 0 || value >= radices[axis]) {
+        return -1;
+      }
+      key += value * keyStrides[axis];
+    }
+    return key;
+  }
+
+  /**
+   * Encodes a state given as a list of axis values to its key
+   *
+   * @param state the axis values of the state
+   * @return the key of the state, or -1 if a value is missing or out of range
+   */
+  public long encodeKey(List<Integer> state) {
+    long key = 0;
+    for (int axis = 0; axis < radices.length; axis++) {
+      Integer value = state.get(axis);
+      if (value == null || value < 0 || value >= radices[axis]) {
+        return -1;
+      }
+      key += value * keyStrides[axis];
+    }
+    return key;
+  }
+
+  /**
+   * Returns the value of a single axis of a state given by its key
+   *
+   * @param key the key of the state
+   * @param axis the axis
+   * @return the value of the axis
+   */
+  public int decodeKey(long key, int axis) {
+    return (int) ((key / keyStrides[axis]) % radices[axis]);
+  }
+
+  /**
+   * Returns the value of a single axis of an encoded state
+   *
+   * @param index the index of the state
+   * @param axis the axis
+   * @return the value of the axis
+   */
+  public int decode(int index, int axis) {
+    return (index / strides[axis]) % radices[axis];
+  }
+
+  /**
+   * Decodes the index of a state into the given array of axis values
+   *
+   * @param index the index of the state
+   * @param state the array that receives the axis values
+   * @return the given array
+   */
+  public int[] decode(int index, int[] state) {
+    for (int axis = radices.length - 1; axis >= 0; axis--) {
+      state[axis] = index % radices[axis];
+      index /= radices[axis];
+    }
+    return state;
+  }
+
+  /**
+   * Returns the index of the state that results from setting one axis of a
+   * given state to a new value
+   *
+   * @param index the index of the state
+   * @param axis the axis
+   * @param value the new value of the axis
+   * @return the index of the resulting state
+   */
+  public int with(int index, int axis, int value) {
+    return index + (value - decode(index, axis)) * strides[axis];
+  }
+
+  /**
+   * Decodes the index of a state into a list of axis values
+   *
+   * @param index the index of the state
+   * @return the axis values of the state
+   */
+  public List<Integer> toList(int index) {
+    Integer[] state = new Integer[radices.length];
+    for (int axis = radices.length - 1; axis >= 0; axis--) {
+      state[axis] = index % radices[axis];
+      index /= radices[axis];
+    }
+    return Arrays.asList(state);
+  }
+
+  /**
+   * Tells whether another codec has the same axes, i.e. whether states are
+   * encoded the same way by both codecs
+   *
+   * @param o the other codec
+   * @return true if both codecs have the same radices
+   */
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof StateCodec && Arrays.equals(radices, ((StateCodec) o).radices);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(radices);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(radices);
+  }
+}
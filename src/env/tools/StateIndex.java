@@ -0,0 +1,108 @@
+package tools;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * An inverted index of a state space, with one bitset per (axis, value) pair
+ * that holds the indices of the states where the axis has the value.
+ *
+ * <p>
+ * The states that match a substate description (e.g. [2,3,_,_,_,_,_]) are the
+ * intersection of the bitsets of the described axes, so a query costs a few
+ * word-wise ANDs instead of a scan of the state space. The index is built once
+ * from the {@link StateCodec} of a learning environment and is read-only
+ * afterwards, so it can be queried by several threads.
+ * </p>
+ */
+public final class StateIndex {
+
+  /** The value of an axis that matches any value */
+  public static final int ANY = -1;
+
+  private final StateCodec codec;
+
+  /** The states where an axis has a value, indexed by axis and value */
+  private final BitSet[][] states;
+
+  /** All the states of the state space */
+  private final BitSet all;
+
+  /**
+   * Builds the index of a state space
+   *
+   * @param codec the codec of the state space
+   */
+  public StateIndex(StateCodec codec) {
+    this.codec = codec;
+    this.states = new BitSet[codec.axisCount()][];
+    for (int axis = 0; axis < codec.axisCount(); axis++) {
+      states[axis] = new BitSet[codec.radix(axis)];
+      for (int value = 0; value < codec.radix(axis); value++) {
+        states[axis][value] = new BitSet(codec.size());
+      }
+    }
+
+    int[] state = new int[codec.axisCount()];
+    for (int index = 0; index < codec.size(); index++) {
+      codec.decode(index, state);
+      for (int axis = 0; axis < state.length; axis++) {
+        states[axis][state[axis]].set(index);
+      }
+    }
+
+    this.all = new BitSet(codec.size());
+    this.all.set(0, codec.size());
+  }
+
+  /**
+   * Returns the states that match a substate description. The description gives
+   * the values of the first axes of the states; axes with the value {@link #ANY}
+   * and axes after the end of the description match any value.
+   *
+   * @param values the values of the first axes
+   * @return the matching states, as a new bitset of state indices
+   */
+  public BitSet select(int... values) {
+    if (values.length > codec.axisCount()) {
+      return new BitSet();
+    }
+
+    BitSet selected = null;
+    for (int axis = 0; axis < values.length; axis++) {
+      int value = values[axis];
+      if (value == ANY) {
+        continue;
+      }
+      if (value < 0 || value >= codec.radix(axis)) {
+        return new BitSet();
+      }
+      if (selected == null) {
+        selected = (BitSet) states[axis][value].clone();
+      } else {
+        selected.and(states[axis][value]);
+      }
+    }
+    return selected != null ? selected : (BitSet) all.clone();
+  }
+
+  /**
+   * Returns the states that match a substate description, in increasing order
+   *
+   * @param values the values of the first axes, see {@link #select(int...)}
+   * @return the indices of the matching states
+   */
+  public IntStream stream(int... values) {
+    return select(values).stream();
+  }
+
+  /**
+   * Returns the number of states that match a substate description
+   *
+   * @param values the values of the first axes, see {@link #select(int...)}
+   * @return the number of matching states
+   */
+  public int count(int... values) {
+    return select(values).cardinality();
+  }
+}
@@ -0,0 +1,283 @@
+package tools;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.*;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
+
+/**
+* A disk cache of W3C Web of Things Thing Descriptions, which lets a {@link Lab}
+* start without reading its Thing Description from the network.
+*
+* <p> For each URL, the cache keeps the content of the Thing Description with its
+* ETag and SHA-256 hash, and a snapshot that the {@link Lab} derives from it. A
+* cached Thing Description is revalidated with a conditional request (If-None-Match),
+* so an unchanged Thing Description is not downloaded again. If the server sends
+* no ETag, a download is only stored if its hash differs.
+* </p>
+*
+* <p> The default cache is disabled, so that a {@link Lab} always starts from the
+* current Thing Description and writes nothing to the working directory. It is
+* enabled by setting the system property lab.td.cacheDirectory to the directory
+* of the cache, e.g. "td-cache".
+* </p>
+*/
+public class ThingDescriptionCache {
+
+  private static final Logger LOGGER = Logger.getLogger(ThingDescriptionCache.class.getName());
+
+  private static ThingDescriptionCache defaultCache;
+
+  private final Path directory;
+  private final LabHttpClient httpClient;
+
+  /**
+  * Creates a cache
+  *
+  * @param directory the directory of the cached files, which is created when needed
+  * @param httpClient the HTTP client used for reading Thing Descriptions
+  */
+  public ThingDescriptionCache(Path directory, LabHttpClient httpClient) {
+    this.directory = directory;
+    this.httpClient = httpClient;
+  }
+
+  /**
+  * Returns the cache that is used by default, configured from the system properties
+  *
+  * @return the default cache, or null if the default cache is disabled
+  */
+  public static synchronized ThingDescriptionCache getDefault() {
+    String directory = System.getProperty("lab.td.cacheDirectory", "");
+    if (directory.isEmpty()) {
+      return null;
+    }
+    if (defaultCache == null) {
+      defaultCache = new ThingDescriptionCache(Paths.get(directory), LabHttpClient.getDefault());
+    }
+    return defaultCache;
+  }
+
+  /**
+  * A Thing Description, as read from its URL
+  */
+  public static final class Entry {
+
+    private final String url;
+    private final String content;
+    private final String etag;
+    private final String hash;
+
+    private Entry(String url, String content, String etag) {
+      this.url = url;
+      this.content = content;
+      this.etag = etag;
+      this.hash = sha256(content);
+    }
+
+    public String getUrl() {
+      return url;
+    }
+
+    /**
+    * Returns the content of the Thing Description, in Turtle
+    */
+    public String getContent() {
+      return content;
+    }
+
+    /**
+    * Returns the ETag of the Thing Description, or null if the server sent none
+    */
+    public String getEtag() {
+      return etag;
+    }
+
+    /**
+    * Returns the SHA-256 hash of the content, in hexadecimal
+    */
+    public String getHash() {
+      return hash;
+    }
+  }
+
+  /**
+  * Returns the cached Thing Description of a URL
+  *
+  * @param url the URL of the Thing Description
+  * @return the cached Thing Description, or null if the URL is not cached
+  */
+  public Entry get(String url) {
+    Path content = file(url, ".ttl");
+    Path metadata = file(url, ".properties");
+    if (!Files.exists(content) || !Files.exists(metadata)) {
+      return null;
+    }
+
+    try (Reader reader = Files.newBufferedReader(metadata, StandardCharsets.UTF_8)) {
+      Properties properties = new Properties();
+      properties.load(reader);
+
+      Entry entry = new Entry(url, new String(Files.readAllBytes(content), StandardCharsets.UTF_8),
+        properties.getProperty("etag"));
+
+      // Ignore a cached Thing Description that was not written completely
+      if (!entry.getHash().equals(properties.getProperty("sha256"))) {
+        LOGGER.warning("Ignoring the corrupted cache of " + url);
+        return null;
+      }
+      return entry;
+    } catch (IOException e) {
+      LOGGER.warning("Ignoring the cache of " + url + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+  * Reads a Thing Description from its URL, and caches it
+  *
+  * @param url the URL of the Thing Description
+  * @param cached the cached Thing Description of the URL, or null
+  * @return the current Thing Description, which is the cached one if it has not changed
+  * @throws IOException if the Thing Description cannot be read
+  */
+  public Entry fetch(String url, Entry cached) throws IOException {
+    try {
+      return fetchAsync(url, cached).join();
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+    }
+  }
+
+  /**
+  * Reads a Thing Description from its URL and caches it, without blocking
+  *
+  * @param url the URL of the Thing Description
+  * @param cached the cached Thing Description of the URL, or null
+  * @return the future current Thing Description
+  */
+  public CompletableFuture<Entry> fetchAsync(String url, Entry cached) {
+    SimpleHttpRequest request = new SimpleHttpRequest("GET", URI.create(url));
+    request.setHeader(HttpHeaders.ACCEPT, "text/turtle, */*;q=0.5");
+    if (cached != null && cached.getEtag() != null) {
+      request.setHeader(HttpHeaders.IF_NONE_MATCH, cached.getEtag());
+    }
+
+    return httpClient.execute(request).thenApply(response -> {
+      if (response.getCode() == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+        LOGGER.fine("The Thing Description of " + url + " has not changed");
+        return cached;
+      }
+      if (response.getCode() != HttpStatus.SC_OK) {
+        throw new CompletionException(new IOException("Reading " + url + " failed with status " + response.getCode()));
+      }
+
+      Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+      Entry entry = new Entry(url, response.getBodyText(), etag != null ? etag.getValue() : null);
+      if (cached != null && entry.getHash().equals(cached.getHash()) && Objects.equals(entry.getEtag(), cached.getEtag())) {
+        return cached;
+      }
+
+      try {
+        put(entry);
+      } catch (IOException e) {
+        LOGGER.warning("The Thing Description of " + url + " was not cached: " + e.getMessage());
+      }
+      return entry;
+    });
+  }
+
+  /**
+  * Returns the snapshot that was derived from the cached Thing Description of a URL
+  *
+  * @param url the URL of the Thing Description
+  * @return the snapshot, or null if none is cached
+  */
+  public String getSnapshot(String url) {
+    try {
+      return new String(Files.readAllBytes(file(url, ".snapshot.json")), StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      LOGGER.warning("Ignoring the cached snapshot of " + url + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+  * Caches the snapshot that was derived from the Thing Description of a URL
+  *
+  * @param url the URL of the Thing Description
+  * @param snapshot the snapshot
+  */
+  public void putSnapshot(String url, String snapshot) {
+    try {
+      write(file(url, ".snapshot.json"), snapshot);
+    } catch (IOException e) {
+      LOGGER.warning("The snapshot of " + url + " was not cached: " + e.getMessage());
+    }
+  }
+
+  private void put(Entry entry) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("url", entry.getUrl());
+    properties.setProperty("sha256", entry.getHash());
+    if (entry.getEtag() != null) {
+      properties.setProperty("etag", entry.getEtag());
+    }
+
+    write(file(entry.getUrl(), ".ttl"), entry.getContent());
+    try (Writer writer = new StringWriter()) {
+      properties.store(writer, null);
+      write(file(entry.getUrl(), ".properties"), writer.toString());
+    }
+    LOGGER.info("Cached the Thing Description of " + entry.getUrl());
+  }
+
+  /**
+  * Replaces a file atomically, so that readers never see a partially written file
+  */
+  private void write(Path file, String content) throws IOException {
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(temporary, content.getBytes(StandardCharsets.UTF_8));
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+  * Returns a cached file of a URL, which is named after the hash of the URL
+  */
+  private Path file(String url, String suffix) {
+    return directory.resolve(sha256(url).substring(0, 16) + suffix);
+  }
+
+  private static String sha256(String content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder(2 * digest.length);
+      for (byte b : digest) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
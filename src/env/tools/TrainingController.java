@@ -0,0 +1,199 @@
+package tools;
+
+/**
+ * Controls a training run of a {@link QLearner}: it gives the learning rate and
+ * the exploration probability of each episode, and stops the run once the Q
+ * matrix has converged.
+ *
+ * <p>
+ * The learning rate and the exploration probability decay exponentially with the
+ * episodes, down to a minimum. The Q matrix is considered converged when, for a
+ * window of consecutive episodes, no Q value changed by more than a threshold and
+ * the greedy policy changed in at most a given number of states.
+ * </p>
+ *
+ * <p>
+ * A controller is used by a single thread and for a single run, except for
+ * {@link #cancel()}, which may be called by any thread.
+ * </p>
+ */
+public class TrainingController {
+
+  /**
+   * Why a training run stopped
+   */
+  public enum StopReason {
+
+    /** All the requested episodes were run */
+    EPISODES,
+
+    /** The Q matrix converged before all the requested episodes were run */
+    CONVERGED,
+
+    /** The run was cancelled */
+    CANCELLED;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+
+  private final double alpha;
+  private final double alphaDecay;
+  private final double alphaMin;
+  private final double epsilon;
+  private final double epsilonDecay;
+  private final double epsilonMin;
+  private final double qDeltaThreshold;
+  private final int policyChangeThreshold;
+  private final int window;
+
+  /** The greedy policy at the end of the last episode */
+  private int[] policy;
+
+  /** The number of completed episodes, including those of an interrupted run that is resumed */
+  private int episode;
+
+  /** The number of episodes completed by this controller */
+  private int episodes;
+
+  /** The number of consecutive episodes that met the convergence criterion */
+  private int stableEpisodes;
+
+  private StopReason stopReason = StopReason.EPISODES;
+
+  /** Whether the run should stop after the current episode */
+  private volatile boolean cancelled;
+
+  /**
+   * Creates a controller
+   *
+   * @param alpha the initial learning rate
+   * @param alphaDecay the factor applied to the learning rate after each episode, in (0,1]
+   * @param alphaMin the minimum learning rate
+   * @param epsilon the initial exploration probability
+   * @param epsilonDecay the factor applied to the exploration probability after each episode, in (0,1]
+   * @param epsilonMin the minimum exploration probability
+   * @param qDeltaThreshold the largest change of a Q value in an episode that counts as converged
+   * @param policyChangeThreshold the largest number of states whose greedy action changed in an episode that counts as converged
+   * @param window the number of consecutive converged episodes after which the run stops, or 0 to never stop early
+   */
+  public TrainingController(double alpha, double alphaDecay, double alphaMin,
+      double epsilon, double epsilonDecay, double epsilonMin,
+      double qDeltaThreshold, int policyChangeThreshold, int window) {
+    this.alpha = alpha;
+    this.alphaDecay = alphaDecay;
+    this.alphaMin = Math.min(alpha, alphaMin);
+    this.epsilon = epsilon;
+    this.epsilonDecay = epsilonDecay;
+    this.epsilonMin = Math.min(epsilon, epsilonMin);
+    this.qDeltaThreshold = qDeltaThreshold;
+    this.policyChangeThreshold = policyChangeThreshold;
+    this.window = window;
+  }
+
+  /**
+   * Creates a controller with a fixed learning rate and exploration probability,
+   * which never stops early
+   *
+   * @param alpha the learning rate
+   * @param epsilon the exploration probability
+   * @return the controller
+   */
+  public static TrainingController fixed(double alpha, double epsilon) {
+    return new TrainingController(alpha, 1, alpha, epsilon, 1, epsilon, 0, 0, 0);
+  }
+
+  /**
+   * Starts a run
+   *
+   * @param qTable the trained Q matrix, or null if the Q values are approximated (convergence then only depends on the changes of the Q values)
+   * @param firstEpisode the number of episodes that were completed before, e.g. by an interrupted run
+   */
+  public void start(QTable qTable, int firstEpisode) {
+    this.policy = window > 0 && qTable != null ? qTable.toPolicy() : null;
+    this.episode = firstEpisode;
+    this.episodes = 0;
+    this.stableEpisodes = 0;
+    this.stopReason = StopReason.EPISODES;
+  }
+
+  /**
+   * Returns the learning rate of the current episode
+   *
+   * @return the learning rate
+   */
+  public double getAlpha() {
+    return decay(alpha, alphaDecay, alphaMin);
+  }
+
+  /**
+   * Returns the exploration probability of the current episode
+   *
+   * @return the exploration probability
+   */
+  public double getEpsilon() {
+    return decay(epsilon, epsilonDecay, epsilonMin);
+  }
+
+  private double decay(double initial, double factor, double min) {
+    return factor >= 1 ? initial : Math.max(min, initial * Math.pow(factor, episode));
+  }
+
+  /**
+   * Ends an episode, and tells whether the run should stop
+   *
+   * @param qTable the trained Q matrix, or null if the Q values are approximated
+   * @param maxQDelta the largest absolute change of a Q value in the episode
+   * @return true if the Q matrix has converged or the run was cancelled
+   */
+  public boolean endEpisode(QTable qTable, double maxQDelta) {
+    episode++;
+    episodes++;
+    if (cancelled) {
+      stopReason = StopReason.CANCELLED;
+      return true;
+    }
+    if (window <= 0) {
+      return false;
+    }
+
+    int policyChanges = policy != null ? qTable.updatePolicy(policy) : 0;
+    if (maxQDelta <= qDeltaThreshold && policyChanges <= policyChangeThreshold) {
+      stableEpisodes++;
+    } else {
+      stableEpisodes = 0;
+    }
+    if (stableEpisodes >= window) {
+      stopReason = StopReason.CONVERGED;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Requests the run to stop after the current episode
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Returns the number of episodes run since the start of the run
+   *
+   * @return the number of episodes
+   */
+  public int getEpisodes() {
+    return episodes;
+  }
+
+  /**
+   * Returns why the run stopped
+   *
+   * @return the stop reason
+   */
+  public StopReason getStopReason() {
+    return stopReason;
+  }
+}
@@ -0,0 +1,144 @@
+package tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free bounded queue of training step events, which decouples the
+ * Q-Learning loop from consumers such as the {@link QLearningVisualizer}.
+ *
+ * <p>
+ * Events are stored in parallel primitive arrays that are used as a ring
+ * buffer, so publishing an event does not allocate. The queue has a single
+ * producer (the training loop) and a single consumer (e.g. the Swing event
+ * dispatch thread). When the queue is full, new events are dropped instead of
+ * blocking the producer, so that training never waits for the consumer.
+ * </p>
+ */
+public class TrainingEventQueue {
+
+  /**
+   * A consumer of training step events
+   */
+  public interface Handler {
+
+    /**
+     * Handles a training step event
+     *
+     * @param step the number of the step since the start of training
+     * @param state the state in which the action was performed
+     * @param action the performed action
+     * @param reward the immediate reward of the action
+     */
+    void onStep(int step, int state, int action, double reward);
+  }
+
+  private final int capacity;
+  private final int mask;
+  private final int[] steps;
+  private final int[] states;
+  private final int[] actions;
+  private final double[] rewards;
+
+  /** The sequence number of the next event to read */
+  private final AtomicLong head = new AtomicLong();
+
+  /** The sequence number of the next event to write */
+  private final AtomicLong tail = new AtomicLong();
+
+  /** The number of events dropped because the queue was full */
+  private final AtomicLong dropped = new AtomicLong();
+
+  /** Whether the producer has published its last event */
+  private volatile boolean closed;
+
+  /**
+   * Creates a queue
+   *
+   * @param capacity the maximum number of pending events, rounded up to a power of two
+   */
+  public TrainingEventQueue(int capacity) {
+    this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.mask = this.capacity - 1;
+    this.steps = new int[this.capacity];
+    this.states = new int[this.capacity];
+    this.actions = new int[this.capacity];
+    this.rewards = new double[this.capacity];
+  }
+
+  /**
+   * Publishes a training step event. Must only be called by the producer.
+   *
+   * @return false if the event was dropped because the queue is full
+   */
+  public boolean offer(int step, int state, int action, double reward) {
+    long t = tail.get();
+    if (t - head.get() >= capacity) {
+      dropped.incrementAndGet();
+      return false;
+    }
+
+    int i = (int) t & mask;
+    steps[i] = step;
+    states[i] = state;
+    actions[i] = action;
+    rewards[i] = reward;
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  /**
+   * Consumes all the pending events. If more than maxEvents events are pending,
+   * the events are sampled at a regular interval so that at most maxEvents of
+   * them are passed to the handler. Must only be called by the consumer.
+   *
+   * @param handler the handler of the consumed events
+   * @param maxEvents the maximum number of events passed to the handler
+   * @return the number of events passed to the handler
+   */
+  public int drain(Handler handler, int maxEvents) {
+    long h = head.get();
+    long t = tail.get();
+    long pending = t - h;
+    if (pending == 0) {
+      return 0;
+    }
+
+    long interval = (pending + maxEvents - 1) / maxEvents;
+    int handled = 0;
+    for (long seq = t - 1 - (pending - 1) / interval * interval; seq < t; seq += interval) {
+      int i = (int) seq & mask;
+      handler.onStep(steps[i], states[i], actions[i], rewards[i]);
+      handled++;
+    }
+
+    head.lazySet(t);
+    return handled;
+  }
+
+  /**
+   * Tells the consumer that no more events will be published, e.g. because
+   * training has ended. Must only be called by the producer.
+   */
+  public void close() {
+    closed = true;
+  }
+
+  /**
+   * Tells whether the queue has been closed and all its events have been
+   * consumed, so that the consumer can stop polling it
+   *
+   * @return true if no more events will be consumed
+   */
+  public boolean isDrained() {
+    return closed && head.get() == tail.get();
+  }
+
+  /**
+   * Returns the number of events dropped because the queue was full
+   *
+   * @return the number of dropped events
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+}
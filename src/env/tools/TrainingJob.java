@@ -0,0 +1,238 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A training run of a {@link QLearner} that runs in the background, so that the
+ * artifact and the agents stay responsive while it trains.
+ *
+ * <p>
+ * The job trains its own Q matrix. The Q matrix is only installed (i.e. used by
+ * {@link QLearner#getActionFromState}) once the job has completed, so agents keep
+ * acting with the previous policy of the goal while a better one trains.
+ * </p>
+ *
+ * <p>
+ * The transitions that agents observe for the goal while the job trains update
+ * the installed Q matrix, and are recorded so that they are applied to the trained
+ * Q matrix too before it replaces the installed one.
+ * </p>
+ */
+public class TrainingJob {
+
+  /**
+   * The status of a job
+   */
+  public enum Status {
+
+    /** The job is training */
+    RUNNING,
+
+    /** The job ran all its episodes */
+    EPISODES,
+
+    /** The job stopped early because the Q matrix converged */
+    CONVERGED,
+
+    /** The job was cancelled */
+    CANCELLED,
+
+    /** The job failed */
+    FAILED;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+
+  private final int id;
+  private final Object[] goalDescription;
+  private final int episodes;
+  private final TrainingController controller;
+
+  private Future<QTable> result;
+
+  /** The number of completed episodes */
+  private volatile int episode;
+
+  /** Whether the Q matrix of the job has been installed (or the job has failed) */
+  private volatile boolean finished;
+
+  /** The transitions observed for the goal while the job trains, in the order of observation */
+  private final List<ObservedTransition> observedTransitions = new ArrayList<>();
+
+  /**
+   * Creates a job
+   *
+   * @param id the id of the job
+   * @param goalDescription the goal description that is trained
+   * @param episodes the maximum number of episodes
+   * @param controller the controller of the training run
+   */
+  public TrainingJob(int id, Object[] goalDescription, int episodes, TrainingController controller) {
+    this.id = id;
+    this.goalDescription = goalDescription;
+    this.episodes = episodes;
+    this.controller = controller;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public Object[] getGoalDescription() {
+    return goalDescription;
+  }
+
+  public int getEpisodes() {
+    return episodes;
+  }
+
+  /**
+   * Returns the number of completed episodes
+   *
+   * @return the number of episodes
+   */
+  public int getEpisode() {
+    return episode;
+  }
+
+  /**
+   * Records the number of completed episodes
+   *
+   * @param episode the number of episodes
+   */
+  void setEpisode(int episode) {
+    this.episode = episode;
+  }
+
+  void setResult(Future<QTable> result) {
+    this.result = result;
+  }
+
+  /**
+   * Requests the job to stop after the current episode
+   */
+  public void cancel() {
+    controller.cancel();
+  }
+
+  /**
+   * Tells whether the training run has ended
+   *
+   * @return true if the training run has ended
+   */
+  public boolean isDone() {
+    return result.isDone();
+  }
+
+  /**
+   * Returns the trained Q matrix
+   *
+   * @return the Q matrix, or null if the job failed
+   */
+  public QTable getQTable() {
+    try {
+      return result.get();
+    } catch (ExecutionException | CancellationException e) {
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Returns the status of the job
+   *
+   * @return the status
+   */
+  public Status getStatus() {
+    if (!result.isDone()) {
+      return Status.RUNNING;
+    }
+    if (getQTable() == null) {
+      return Status.FAILED;
+    }
+    switch (controller.getStopReason()) {
+      case CONVERGED:
+        return Status.CONVERGED;
+      case CANCELLED:
+        return Status.CANCELLED;
+      default:
+        return Status.EPISODES;
+    }
+  }
+
+  /**
+   * Tells whether the job has ended and its Q matrix has been installed
+   *
+   * @return true if the job is finished
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  void setFinished() {
+    this.finished = true;
+  }
+
+  /**
+   * Records an online update of the Q matrix of the goal, which is applied to the
+   * trained Q matrix before it is installed
+   *
+   * @param state the state in which the action was performed
+   * @param action the performed action
+   * @param reward the immediate reward
+   * @param nextState the state reached by performing the action
+   * @param alpha the learning rate of the update
+   * @param gamma the discount factor of the update
+   */
+  synchronized void observeTransition(int state, int action, double reward, int nextState, double alpha, double gamma) {
+    observedTransitions.add(new ObservedTransition(state, action, reward, nextState, alpha, gamma));
+  }
+
+  /**
+   * Applies the recorded online updates to a Q matrix, in the order in which they
+   * were observed
+   *
+   * @param qTable the trained Q matrix
+   * @return the number of applied updates
+   */
+  synchronized int applyObservedTransitions(QTable qTable) {
+    for (ObservedTransition t : observedTransitions) {
+      qTable.update(t.state, t.action, t.reward, t.nextState, t.alpha, t.gamma);
+    }
+    int applied = observedTransitions.size();
+    observedTransitions.clear();
+    return applied;
+  }
+
+  /**
+   * A transition observed while acting in the lab, with the parameters of its
+   * online update
+   */
+  private static final class ObservedTransition {
+
+    private final int state;
+    private final int action;
+    private final double reward;
+    private final int nextState;
+    private final double alpha;
+    private final double gamma;
+
+    private ObservedTransition(int state, int action, double reward, int nextState, double alpha, double gamma) {
+      this.state = state;
+      this.action = action;
+      this.reward = reward;
+      this.nextState = nextState;
+      this.alpha = alpha;
+      this.gamma = gamma;
+    }
+  }
+}
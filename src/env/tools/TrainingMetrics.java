@@ -0,0 +1,211 @@
+package tools;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the training runs of a {@link QLearner}: the rate of steps, the
+ * length, cumulative reward and largest change of a Q value of the episodes, the
+ * rate of episodes that reach the goal, and the latencies of the actions and
+ * status reads of the environment.
+ *
+ * <p>
+ * Steps and episodes can be recorded by several actors at once. The metrics are
+ * registered as a JMX MBean by the {@link QLearner}, and published as observable
+ * properties of the artifact.
+ * </p>
+ */
+public class TrainingMetrics implements TrainingMetricsMBean {
+
+  private final LongAdder steps = new LongAdder();
+  private final LongAdder episodes = new LongAdder();
+  private final LongAdder goalHits = new LongAdder();
+  private final LongAdder onlineUpdates = new LongAdder();
+
+  /** The steps of the current (or last) training run */
+  private final LongAdder runSteps = new LongAdder();
+  private volatile long runStartNanos;
+  private volatile long runEndNanos;
+
+  private volatile int lastEpisodeLength;
+  private volatile double lastEpisodeReward;
+  private volatile double lastMaxQDelta;
+
+  private volatile LatencyHistogram actionLatency;
+  private volatile LatencyHistogram statusReadLatency;
+
+  /**
+   * Sets the latency histograms of the environment, e.g. of a {@link Lab}
+   *
+   * @param actionLatency the latencies of the actions, or null
+   * @param statusReadLatency the latencies of the status reads, or null
+   */
+  public void setLatencies(LatencyHistogram actionLatency, LatencyHistogram statusReadLatency) {
+    this.actionLatency = actionLatency;
+    this.statusReadLatency = statusReadLatency;
+  }
+
+  /**
+   * Records the start of a training run
+   */
+  public void startRun() {
+    runSteps.reset();
+    runStartNanos = System.nanoTime();
+    runEndNanos = 0;
+  }
+
+  /**
+   * Records the end of a training run
+   */
+  public void endRun() {
+    runEndNanos = System.nanoTime();
+  }
+
+  /**
+   * Records a training step
+   */
+  public void recordStep() {
+    steps.increment();
+    runSteps.increment();
+  }
+
+  /**
+   * Records an online update from a transition observed while acting in the lab,
+   * which is not a step of a training episode
+   */
+  public void recordOnlineUpdate() {
+    onlineUpdates.increment();
+  }
+
+  /**
+   * Records a completed episode
+   *
+   * @param length the number of steps of the episode
+   * @param reward the cumulative reward of the episode
+   * @param maxQDelta the largest absolute change of a Q value in the episode
+   * @param goalReached whether the episode reached the goal
+   */
+  public void recordEpisode(int length, double reward, double maxQDelta, boolean goalReached) {
+    episodes.increment();
+    if (goalReached) {
+      goalHits.increment();
+    }
+    lastEpisodeLength = length;
+    lastEpisodeReward = reward;
+    lastMaxQDelta = maxQDelta;
+  }
+
+  @Override
+  public long getSteps() {
+    return steps.sum();
+  }
+
+  @Override
+  public long getEpisodes() {
+    return episodes.sum();
+  }
+
+  @Override
+  public long getGoalHits() {
+    return goalHits.sum();
+  }
+
+  @Override
+  public long getOnlineUpdates() {
+    return onlineUpdates.sum();
+  }
+
+  @Override
+  public double getGoalHitRate() {
+    long n = episodes.sum();
+    return n == 0 ? 0 : (double) goalHits.sum() / n;
+  }
+
+  /**
+   * Returns the rate of steps of the current training run, or of the last one if
+   * no run is in progress
+   */
+  @Override
+  public double getStepsPerSecond() {
+    long start = runStartNanos;
+    if (start == 0) {
+      return 0;
+    }
+    long end = runEndNanos != 0 ? runEndNanos : System.nanoTime();
+    return end > start ? runSteps.sum() * 1e9 / (end - start) : 0;
+  }
+
+  @Override
+  public double getMeanEpisodeLength() {
+    long n = episodes.sum();
+    return n == 0 ? 0 : (double) steps.sum() / n;
+  }
+
+  @Override
+  public int getLastEpisodeLength() {
+    return lastEpisodeLength;
+  }
+
+  @Override
+  public double getLastEpisodeReward() {
+    return lastEpisodeReward;
+  }
+
+  @Override
+  public double getLastMaxQDelta() {
+    return lastMaxQDelta;
+  }
+
+  @Override
+  public long getActionCount() {
+    LatencyHistogram latency = actionLatency;
+    return latency != null ? latency.getCount() : 0;
+  }
+
+  @Override
+  public double getActionLatencyMeanMillis() {
+    LatencyHistogram latency = actionLatency;
+    return latency != null ? latency.getMeanMillis() : 0;
+  }
+
+  @Override
+  public double getActionLatencyP99Millis() {
+    LatencyHistogram latency = actionLatency;
+    return latency != null ? latency.getPercentileMillis(99) : 0;
+  }
+
+  @Override
+  public long getStatusReadCount() {
+    LatencyHistogram latency = statusReadLatency;
+    return latency != null ? latency.getCount() : 0;
+  }
+
+  @Override
+  public double getStatusReadLatencyMeanMillis() {
+    LatencyHistogram latency = statusReadLatency;
+    return latency != null ? latency.getMeanMillis() : 0;
+  }
+
+  @Override
+  public double getStatusReadLatencyP99Millis() {
+    LatencyHistogram latency = statusReadLatency;
+    return latency != null ? latency.getPercentileMillis(99) : 0;
+  }
+
+  /**
+   * Resets the training metrics. The latencies are kept by the environment and
+   * are not reset.
+   */
+  @Override
+  public void reset() {
+    steps.reset();
+    episodes.reset();
+    goalHits.reset();
+    onlineUpdates.reset();
+    runSteps.reset();
+    runStartNanos = 0;
+    runEndNanos = 0;
+    lastEpisodeLength = 0;
+    lastEpisodeReward = 0;
+    lastMaxQDelta = 0;
+  }
+}
@@ -0,0 +1,41 @@
+package tools;
+
+/**
+ * The JMX management interface of {@link TrainingMetrics}
+ */
+public interface TrainingMetricsMBean {
+
+  long getSteps();
+
+  long getEpisodes();
+
+  long getGoalHits();
+
+  long getOnlineUpdates();
+
+  double getGoalHitRate();
+
+  double getStepsPerSecond();
+
+  double getMeanEpisodeLength();
+
+  int getLastEpisodeLength();
+
+  double getLastEpisodeReward();
+
+  double getLastMaxQDelta();
+
+  long getActionCount();
+
+  double getActionLatencyMeanMillis();
+
+  double getActionLatencyP99Millis();
+
+  long getStatusReadCount();
+
+  double getStatusReadLatencyMeanMillis();
+
+  double getStatusReadLatencyP99Millis();
+
+  void reset();
+}
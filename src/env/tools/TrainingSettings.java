@@ -0,0 +1,140 @@
+package tools;
+
+/**
+ * The settings of the training runs of a {@link QLearner} that are not given to
+ * each run: the schedules of the learning rate and of the exploration probability,
+ * the convergence criterion, Dyna-Q planning and experience replay.
+ *
+ * <p>
+ * Settings are immutable, and changing a setting returns new settings. A training
+ * run reads the settings once when it starts, so that a setting changed meanwhile,
+ * e.g. while a background training job runs, does not take effect halfway through
+ * the run.
+ * </p>
+ */
+public final class TrainingSettings {
+
+  /** The settings of plain Q-Learning with a fixed learning rate and exploration probability */
+  public static final TrainingSettings DEFAULT = new TrainingSettings(1, 0, 1, 0, 0.001, 0, 0, 0, 0, 32,
+      ReplayBuffer.Sampling.UNIFORM);
+
+  private final double alphaDecay;
+  private final double alphaMin;
+  private final double epsilonDecay;
+  private final double epsilonMin;
+  private final double convergenceQDelta;
+  private final int convergencePolicyChanges;
+  private final int convergenceWindow;
+  private final int planningSteps;
+  private final int replayCapacity;
+  private final int replayBatchSize;
+  private final ReplayBuffer.Sampling replaySampling;
+
+  private TrainingSettings(double alphaDecay, double alphaMin, double epsilonDecay, double epsilonMin,
+      double convergenceQDelta, int convergencePolicyChanges, int convergenceWindow, int planningSteps,
+      int replayCapacity, int replayBatchSize, ReplayBuffer.Sampling replaySampling) {
+    this.alphaDecay = alphaDecay;
+    this.alphaMin = alphaMin;
+    this.epsilonDecay = epsilonDecay;
+    this.epsilonMin = epsilonMin;
+    this.convergenceQDelta = convergenceQDelta;
+    this.convergencePolicyChanges = convergencePolicyChanges;
+    this.convergenceWindow = convergenceWindow;
+    this.planningSteps = planningSteps;
+    this.replayCapacity = replayCapacity;
+    this.replayBatchSize = replayBatchSize;
+    this.replaySampling = replaySampling;
+  }
+
+  /**
+   * Returns these settings with other schedules of the learning rate and of the
+   * exploration probability
+   *
+   * @param alphaDecay the factor applied to the learning rate after each episode, or 1 for a fixed learning rate
+   * @param alphaMin the minimum learning rate
+   * @param epsilonDecay the factor applied to the exploration probability after each episode, or 1 for a fixed exploration probability
+   * @param epsilonMin the minimum exploration probability
+   * @return the new settings
+   */
+  public TrainingSettings withSchedule(double alphaDecay, double alphaMin, double epsilonDecay, double epsilonMin) {
+    return new TrainingSettings(alphaDecay, alphaMin, epsilonDecay, epsilonMin, convergenceQDelta,
+        convergencePolicyChanges, convergenceWindow, planningSteps, replayCapacity, replayBatchSize, replaySampling);
+  }
+
+  /**
+   * Returns these settings with another convergence criterion
+   *
+   * @param qDelta the largest change of a Q value in an episode that counts as converged
+   * @param policyChanges the largest number of changed greedy actions in an episode that counts as converged
+   * @param window the number of consecutive converged episodes after which training stops, or 0 to never stop early
+   * @return the new settings
+   */
+  public TrainingSettings withConvergence(double qDelta, int policyChanges, int window) {
+    return new TrainingSettings(alphaDecay, alphaMin, epsilonDecay, epsilonMin, qDelta, policyChanges, window,
+        planningSteps, replayCapacity, replayBatchSize, replaySampling);
+  }
+
+  /**
+   * Returns these settings with another number of Dyna-Q planning updates
+   *
+   * @param steps the number of planning updates after each real step, or 0 for plain Q-Learning
+   * @return the new settings
+   */
+  public TrainingSettings withPlanning(int steps) {
+    return new TrainingSettings(alphaDecay, alphaMin, epsilonDecay, epsilonMin, convergenceQDelta,
+        convergencePolicyChanges, convergenceWindow, steps, replayCapacity, replayBatchSize, replaySampling);
+  }
+
+  /**
+   * Returns these settings with another experience replay
+   *
+   * @param capacity the capacity of the experience replay buffer, or 0 to disable experience replay
+   * @param batchSize the number of replayed transitions after each real step
+   * @param sampling how replayed transitions are drawn
+   * @return the new settings
+   */
+  public TrainingSettings withReplay(int capacity, int batchSize, ReplayBuffer.Sampling sampling) {
+    return new TrainingSettings(alphaDecay, alphaMin, epsilonDecay, epsilonMin, convergenceQDelta,
+        convergencePolicyChanges, convergenceWindow, planningSteps, capacity, batchSize, sampling);
+  }
+
+  /**
+   * Returns a controller of a training run with these schedules and convergence criterion
+   *
+   * @param alpha the initial learning rate
+   * @param epsilon the initial exploration probability
+   * @return the controller, which is not started
+   */
+  public TrainingController newController(double alpha, double epsilon) {
+    return new TrainingController(alpha, alphaDecay, alphaMin, epsilon, epsilonDecay, epsilonMin,
+        convergenceQDelta, convergencePolicyChanges, convergenceWindow);
+  }
+
+  /**
+   * Returns the number of Dyna-Q planning updates after each real step, or 0 for plain Q-Learning
+   */
+  public int getPlanningSteps() {
+    return planningSteps;
+  }
+
+  /**
+   * Returns the capacity of the experience replay buffer, or 0 if experience replay is disabled
+   */
+  public int getReplayCapacity() {
+    return replayCapacity;
+  }
+
+  /**
+   * Returns the number of replayed transitions after each real step
+   */
+  public int getReplayBatchSize() {
+    return replayBatchSize;
+  }
+
+  /**
+   * Returns how replayed transitions are drawn
+   */
+  public ReplayBuffer.Sampling getReplaySampling() {
+    return replaySampling;
+  }
+}
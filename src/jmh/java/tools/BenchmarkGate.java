@@ -0,0 +1,83 @@
+package tools;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.*;
+import java.util.*;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+* Compares the JSON results of a JMH run with the results of a baseline run, and
+* fails if a benchmark regressed by more than a tolerance.
+*
+* <p> Usage: BenchmarkGate baseline.json results.json [tolerance], where the
+* tolerance is the accepted relative slowdown (default 0.10, i.e. 10%). The
+* scores of benchmarks that measure a time are expected to not increase, and the
+* scores of throughput benchmarks are expected to not decrease. Benchmarks that
+* are missing from the baseline are reported but do not fail the gate.
+* </p>
+*/
+public class BenchmarkGate {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: BenchmarkGate baseline.json results.json [tolerance]");
+      System.exit(2);
+    }
+
+    Map<String, JsonObject> baseline = readResults(Paths.get(args[0]));
+    Map<String, JsonObject> results = readResults(Paths.get(args[1]));
+    double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+
+    int regressions = 0;
+    for (Map.Entry<String, JsonObject> result : results.entrySet()) {
+      JsonObject base = baseline.get(result.getKey());
+      if (base == null) {
+        System.out.printf("%-60s %12s%n", result.getKey(), "new");
+        continue;
+      }
+
+      double baseScore = score(base);
+      double score = score(result.getValue());
+      boolean throughput = "thrpt".equals(result.getValue().get("mode").getAsString());
+
+      // the relative slowdown, which is positive if the benchmark regressed
+      double slowdown = throughput ? (baseScore - score) / baseScore : (score - baseScore) / baseScore;
+      boolean regressed = slowdown > tolerance;
+      if (regressed) {
+        regressions++;
+      }
+
+      System.out.printf("%-60s %+11.1f%% %s%n", result.getKey(), 100 * slowdown, regressed ? "REGRESSION" : "ok");
+    }
+
+    if (regressions > 0) {
+      System.out.println(regressions + " benchmark(s) regressed by more than " + (100 * tolerance) + "%");
+      System.exit(1);
+    }
+  }
+
+  /**
+  * Reads the results of a JMH run, by benchmark name and parameters
+  */
+  private static Map<String, JsonObject> readResults(Path file) throws IOException {
+    Map<String, JsonObject> results = new TreeMap<>();
+    try (Reader reader = Files.newBufferedReader(file)) {
+      for (JsonElement element : JsonParser.parseReader(reader).getAsJsonArray()) {
+        JsonObject result = element.getAsJsonObject();
+        String name = result.get("benchmark").getAsString();
+        if (result.has("params")) {
+          name += result.get("params").toString();
+        }
+        results.put(name, result);
+      }
+    }
+    return results;
+  }
+
+  private static double score(JsonObject result) {
+    return result.getAsJsonObject("primaryMetric").get("score").getAsDouble();
+  }
+}
@@ -0,0 +1,101 @@
+package tools;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import ch.unisg.ics.interactions.wot.td.ThingDescription;
+import ch.unisg.ics.interactions.wot.td.affordances.ActionAffordance;
+import ch.unisg.ics.interactions.wot.td.affordances.Form;
+import ch.unisg.ics.interactions.wot.td.schemas.BooleanSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
+import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
+import org.openjdk.jmh.annotations.*;
+
+/**
+* Benchmarks of the state space and action space methods of a {@link Lab}.
+*
+* <p> The lab is created from a Thing Description that is built in memory and
+* has no status property, so the benchmarks run without a lab environment.
+* </p>
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LabBenchmark {
+
+  /** The actions of the lab, as (semantic type, payload property) pairs */
+  private static final String[][] ACTIONS = {
+    { "http://example.org/was#SetZ1Light", "Z1Light" },
+    { "http://example.org/was#SetZ2Light", "Z2Light" },
+    { "http://example.org/was#SetZ1Blinds", "Z1Blinds" },
+    { "http://example.org/was#SetZ2Blinds", "Z2Blinds" }
+  };
+
+  private Lab lab;
+  private Object[] stateDescription;
+  private List<Object> partialStateDescription;
+  private int state;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Logger.getLogger(Lab.class.getName()).setLevel(java.util.logging.Level.WARNING);
+
+    lab = new Lab(createThingDescription(), LabHttpClient.getDefault());
+    stateDescription = new Object[]{ 120.0, 40.0, true, false, true, false, 640.0 };
+    partialStateDescription = Arrays.asList(2, 3);
+  }
+
+  /**
+  * Moves to the next state of the state space, so that the benchmarks do not
+  * always read the same state
+  */
+  private int nextState() {
+    state = state + 1 < lab.getStateCount() ? state + 1 : 0;
+    return state;
+  }
+
+  @Benchmark
+  public int getStateIndex() {
+    return lab.getStateIndex(stateDescription);
+  }
+
+  @Benchmark
+  public List<Integer> getStateDescription() {
+    return lab.getStateDescription(nextState());
+  }
+
+  @Benchmark
+  public List<Integer> getCompatibleStates() {
+    return lab.getCompatibleStates(partialStateDescription);
+  }
+
+  @Benchmark
+  public List<Integer> getApplicableActions() {
+    return lab.getApplicableActions(nextState());
+  }
+
+  /**
+  * Builds a Thing Description with the actions of the simulated lab
+  */
+  static ThingDescription createThingDescription() {
+    ThingDescription.Builder td = new ThingDescription.Builder("Lab");
+
+    for (String[] action : ACTIONS) {
+      Form form = new Form.Builder("http://localhost:1880/was/rl/action")
+        .setMethodName("POST")
+        .addOperationType(TD.invokeAction)
+        .build();
+
+      td.addAction(new ActionAffordance.Builder(action[1], form)
+        .addSemanticType(action[0])
+        .addInputSchema(new ObjectSchema.Builder()
+          .addProperty(action[1], new BooleanSchema.Builder().build())
+          .build())
+        .build());
+    }
+    return td.build();
+  }
+}
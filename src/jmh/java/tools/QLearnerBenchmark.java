@@ -0,0 +1,69 @@
+package tools;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import cartago.OpFeedbackParam;
+import org.openjdk.jmh.annotations.*;
+
+/**
+* Benchmarks of the hot paths of a {@link QLearner}: a training episode and the
+* decision of the next best action.
+*
+* <p> The learner is trained against a {@link SimulatedLab}, so the benchmarks
+* measure the learner itself rather than HTTP round trips, and run without a
+* lab environment.
+* </p>
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QLearnerBenchmark {
+
+  private static final Object[] GOAL = { 2, 3 };
+
+  private QLearner learner;
+  private SimulatedLab environment;
+  private QTable qTable;
+  private SplittableRandom random;
+  private Object[] currentStateDescription;
+
+  private final OpFeedbackParam<String> nextBestActionTag = new OpFeedbackParam<>();
+  private final OpFeedbackParam<Object[]> nextBestActionPayloadTags = new OpFeedbackParam<>();
+  private final OpFeedbackParam<Object[]> nextBestActionPayload = new OpFeedbackParam<>();
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Logger.getLogger(QLearner.class.getName()).setLevel(java.util.logging.Level.WARNING);
+
+    learner = new QLearner();
+    learner.init();
+    learner.calculateQForGoals(new Object[]{ GOAL }, 100, 0.1, 0.9, 0.1, 100);
+
+    environment = new SimulatedLab(42);
+    qTable = new QTable(environment.getStateCount(), environment.getActionCount());
+    qTable.setActionMasks(environment.getApplicableActionMasks());
+    random = new SplittableRandom(42);
+    currentStateDescription = new Object[]{ 120.0, 40.0, true, false, true, false, 640.0 };
+  }
+
+  /**
+  * Runs one training episode of (at most) 100 steps against the simulated lab
+  */
+  @Benchmark
+  public QTable calculateQEpisode() {
+    learner.train(environment, qTable, GOAL, 1, TrainingController.fixed(0.1, 0.1), 0.9, 100, random, null, e -> { });
+    return qTable;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public String getActionFromState() {
+    learner.getActionFromState(GOAL, currentStateDescription,
+      nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
+    return nextBestActionTag.get();
+  }
+}
@@ -0,0 +1,36 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests of the descriptors of the actions returned to agents, see
+ * {@link ActionDescriptor}
+ */
+public class ActionDescriptorTest {
+
+  @Test
+  public void describesTheActionsOfAnEnvironment() {
+    ActionDescriptor[] descriptors = ActionDescriptor.of(new SimulatedLab(1));
+    assertEquals(8, descriptors.length);
+    assertEquals("http://example.org/was#SetZ1Light", descriptors[1].getActionTag());
+    assertArrayEquals(new Object[]{ "Z1Light" }, descriptors[1].getPayloadTags());
+    assertArrayEquals(new Object[]{ true }, descriptors[1].getPayload());
+  }
+
+  @Test
+  public void matchesPayloadsLoosely() {
+    ActionDescriptor lightOn = ActionDescriptor.of(new SimulatedLab(1))[1];
+    assertTrue(lightOn.matches("http://example.org/was#SetZ1Light", new Object[]{ true }));
+    assertTrue(lightOn.matches("http://example.org/was#SetZ1Light", new Object[]{ "true" }));
+    assertFalse(lightOn.matches("http://example.org/was#SetZ1Light", new Object[]{ false }));
+    assertFalse(lightOn.matches("http://example.org/was#SetZ2Light", new Object[]{ true }));
+    assertFalse(lightOn.matches("http://example.org/was#SetZ1Light", new Object[0]));
+    assertFalse(lightOn.matches("http://example.org/was#SetZ1Light", null));
+
+    Action dim = new Action("http://example.org/was#Dim", new Object[]{ "Level" }, new Object[]{ 2 }, null);
+    assertTrue(new ActionDescriptor(dim).matches("http://example.org/was#Dim", new Object[]{ 2.0 }));
+    assertFalse(new ActionDescriptor(dim).matches("http://example.org/was#Dim", new Object[]{ 2.5 }));
+  }
+}
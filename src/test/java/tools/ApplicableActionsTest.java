@@ -0,0 +1,70 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests of the bitmasks of the applicable actions of each state, and of their use
+ * by the greedy actions of a {@link QTable}
+ */
+public class ApplicableActionsTest {
+
+  @Test
+  public void masksHoldTheActionsThatChangeTheirDevice() {
+    SimulatedLab lab = new SimulatedLab(1);
+    long[] masks = lab.getApplicableActionMasks();
+    assertEquals(lab.getStateCount(), masks.length);
+    assertSame(masks, lab.getApplicableActionMasks());
+
+    for (int state = 0; state < lab.getStateCount(); state++) {
+      List<Integer> expected = new ArrayList<>();
+      for (int action = 0; action < lab.getActionCount(); action++) {
+        Action a = lab.getAction(action);
+        if (lab.getStateDescription(state).get(a.getApplicableOnStateAxis()) == a.getApplicableOnStateValue()) {
+          expected.add(action);
+        }
+      }
+      assertEquals(expected, lab.getApplicableActions(state));
+      assertEquals(4, Long.bitCount(masks[state]));
+      assertEquals(masks[state], lab.getApplicableActionMask(state));
+    }
+  }
+
+  @Test
+  public void greedyActionsAreApplicable() {
+    QTable qTable = new QTable(2, 4);
+    qTable.set(0, 0, 10);
+    qTable.set(0, 2, 1);
+    qTable.setActionMasks(new long[]{ 0b1010, 0 });
+
+    // The best action of state 0 is not applicable
+    assertEquals(1, qTable.getMaxAction(0));
+    assertEquals(0, qTable.getMaxValue(0), 0);
+    qTable.set(0, 3, 2);
+    assertEquals(3, qTable.getMaxAction(0));
+
+    // All the actions are considered in a state without applicable actions
+    qTable.set(1, 2, -1);
+    qTable.set(1, 3, 4);
+    assertEquals(3, qTable.getMaxAction(1));
+  }
+
+  @Test
+  public void updatesMaximizeOverTheApplicableActionsOfTheNextState() {
+    QTable qTable = new QTable(2, 2);
+    qTable.set(1, 0, 10);
+    qTable.set(1, 1, 2);
+    qTable.setActionMasks(new long[]{ 0b11, 0b10 });
+
+    // Q(0,0) = 0 + 1 * (0 + 0.5 * 2 - 0)
+    assertEquals(1, qTable.update(0, 0, 0, 1, 1, 0.5), 1e-12);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMasksOfOtherStateSpaces() {
+    new QTable(2, 2).setActionMasks(new long[3]);
+  }
+}
@@ -0,0 +1,66 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+/**
+ * Tests of the transitions recorded by a {@link DynaModel}, and of the planning
+ * updates replayed from them
+ */
+public class DynaModelTest {
+
+  @Test
+  public void doesNotPlanWithoutObservedTransitions() {
+    DynaModel model = new DynaModel(4, 2);
+    QTable qTable = new QTable(4, 2);
+    assertEquals(0, model.plan(qTable, 10, 1, 0.9, new SplittableRandom(1)));
+    assertEquals(0, model.getObservedCount());
+  }
+
+  @Test
+  public void plansOnlyWithObservedPairs() {
+    DynaModel model = new DynaModel(4, 2);
+    model.record(1, 1, 2, 3);
+    model.record(3, 0, 3, -1);
+    assertEquals(2, model.getObservedCount());
+
+    QTable qTable = new QTable(4, 2);
+    assertEquals(50, model.plan(qTable, 50, 1, 0, new SplittableRandom(1)));
+    assertEquals(3, qTable.get(1, 1), 0);
+    assertEquals(-1, qTable.get(3, 0), 0);
+    for (int state = 0; state < 4; state++) {
+      for (int action = 0; action < 2; action++) {
+        if (!(state == 1 && action == 1) && !(state == 3 && action == 0)) {
+          assertEquals(0, qTable.get(state, action), 0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void keepsTheLastTransitionOfAPair() {
+    DynaModel model = new DynaModel(2, 1);
+    model.record(0, 0, 1, 1);
+    model.record(0, 0, 1, 5);
+    assertEquals(1, model.getObservedCount());
+
+    QTable qTable = new QTable(2, 1);
+    model.plan(qTable, 1, 1, 0, new SplittableRandom(1));
+    assertEquals(5, qTable.get(0, 0), 0);
+  }
+
+  @Test
+  public void propagatesValuesAlongObservedChains() {
+    // 0 -> 1 -> 2, where reaching 2 is rewarded
+    DynaModel model = new DynaModel(3, 1);
+    model.record(0, 0, 1, 0);
+    model.record(1, 0, 2, 10);
+
+    QTable qTable = new QTable(3, 1);
+    model.plan(qTable, 1000, 0.5, 0.9, new SplittableRandom(1));
+    assertEquals(10, qTable.get(1, 0), 1e-6);
+    assertEquals(9, qTable.get(0, 0), 1e-6);
+  }
+}
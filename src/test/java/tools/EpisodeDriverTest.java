@@ -0,0 +1,122 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntToLongFunction;
+import org.junit.Test;
+
+/**
+ * Tests of the episode loop of an {@link EpisodeDriver}, against a corridor of
+ * five states where action 0 moves right and action 1 moves left, and the goal is
+ * the last state
+ */
+public class EpisodeDriverTest {
+
+  private static final int GOAL = 4;
+
+  /** The position in the corridor, which restarts from the first state after the goal */
+  private int position;
+
+  private final IntToLongFunction corridor = action -> {
+    if (position == GOAL) {
+      position = 0;
+    }
+    position = Math.max(0, Math.min(GOAL, position + (action == 0 ? 1 : -1)));
+    return position;
+  };
+
+  private static EpisodeDriver.ValueFunction valuesOf(QTable qTable, List<Integer> begunEpisodes) {
+    return new EpisodeDriver.ValueFunction() {
+
+      @Override
+      public void beginEpisode(int episode) {
+        begunEpisodes.add(episode);
+      }
+
+      @Override
+      public int select(long state) {
+        return qTable.getMaxAction((int) state);
+      }
+
+      @Override
+      public double update(long state, int action, double reward, long nextState, double alpha, double gamma) {
+        return qTable.update((int) state, action, reward, (int) nextState, alpha, gamma);
+      }
+
+      @Override
+      public double maxValue(long state) {
+        return qTable.getMaxValue((int) state);
+      }
+    };
+  }
+
+  @Test
+  public void endsEachEpisodeAtTheGoal() {
+    TrainingMetrics metrics = new TrainingMetrics();
+    QTable qTable = new QTable(GOAL + 1, 2);
+    List<Integer> begunEpisodes = new ArrayList<>();
+    List<Integer> completedEpisodes = new ArrayList<>();
+
+    // The greedy policy of the initial Q matrix moves right, to the goal
+    new EpisodeDriver(metrics, 2, "[4]", "Q matrix").run(corridor, state -> 0, state -> state == GOAL, 10,
+        valuesOf(qTable, begunEpisodes), 3, TrainingController.fixed(0.5, 0), 0.9, new SplittableRandom(1),
+        completedEpisodes::add);
+
+    assertEquals(Arrays.asList(0, 1, 2), begunEpisodes);
+    assertEquals(Arrays.asList(1, 2, 3), completedEpisodes);
+    assertEquals(3, metrics.getEpisodes());
+    assertEquals(3, metrics.getGoalHits());
+
+    // Each episode moves Q(3,0) halfway to the reward of the goal
+    assertEquals(10 * (1 - 0.125), qTable.get(GOAL - 1, 0), 1e-12);
+  }
+
+  @Test
+  public void stopsAnEpisodeAfterTheMaximumNumberOfSteps() {
+    TrainingMetrics metrics = new TrainingMetrics();
+    new EpisodeDriver(metrics, 2, "[4]", "Q matrix").run(corridor, state -> 0, state -> false, 10,
+        valuesOf(new QTable(GOAL + 1, 2), new ArrayList<>()), 1, TrainingController.fixed(0.5, 0), 0.9,
+        new SplittableRandom(1), e -> { });
+
+    assertEquals(EpisodeDriver.MAX_STEPS, metrics.getSteps());
+    assertEquals(0, metrics.getGoalHits());
+  }
+
+  @Test
+  public void stopsAfterTheEpisodeInWhichTheRunIsCancelled() {
+    TrainingController controller = TrainingController.fixed(0.5, 0);
+    List<Integer> completedEpisodes = new ArrayList<>();
+    new EpisodeDriver(new TrainingMetrics(), 2, "[4]", "Q matrix").run(corridor, state -> 0, state -> state == GOAL, 10,
+        valuesOf(new QTable(GOAL + 1, 2), new ArrayList<>()), 10, controller, 0.9, new SplittableRandom(1),
+        e -> {
+          completedEpisodes.add(e);
+          if (e == 2) {
+            controller.cancel();
+          }
+        });
+
+    // The controller only sees the cancellation when the next episode ends
+    assertEquals(Arrays.asList(1, 2, 3), completedEpisodes);
+  }
+
+  @Test
+  public void drawsRandomActionsAmongTheApplicableOnes() {
+    SplittableRandom random = new SplittableRandom(7);
+    for (int i = 0; i < 100; i++) {
+      int action = EpisodeDriver.randomAction(0b10100, 8, random);
+      assertTrue(action == 2 || action == 4);
+      assertTrue(EpisodeDriver.randomAction(0, 8, random) < 8);
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void failsWhenAStateCannotBeRead() {
+    new EpisodeDriver(new TrainingMetrics(), 2, "[4]", "Q matrix").run(action -> -1, state -> 0, state -> false, 10,
+        valuesOf(new QTable(GOAL + 1, 2), new ArrayList<>()), 1, TrainingController.fixed(0.5, 0), 0.9,
+        new SplittableRandom(1), e -> { });
+  }
+}
@@ -0,0 +1,184 @@
+package tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A lab with two zones that is served over HTTP on a local port, for tests of a
+ * {@link Lab}: it serves a Thing Description at /td, its status at /status and
+ * performs the actions posted to /action. A light that is on gives 300 lux in its
+ * zone, and there is no sunshine. Connections are not kept alive, as the server
+ * may close idle connections while the client reuses them.
+ */
+class FakeLab implements AutoCloseable {
+
+  static final String TD = "@prefix td: <https://www.w3.org/2019/wot/td#> .\n";
+  static final String ETAG = "\"v1\"";
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final Map<String, Boolean> devices = new TreeMap<>();
+  private final AtomicInteger statusReads = new AtomicInteger();
+  private final AtomicInteger notModified = new AtomicInteger();
+  private volatile CountDownLatch statusGate = new CountDownLatch(0);
+
+  FakeLab() throws IOException {
+    for (String device : Arrays.asList("Z1Light", "Z2Light", "Z1Blinds", "Z2Blinds")) {
+      devices.put(device, false);
+    }
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(executor);
+    server.createContext("/td", exchange -> {
+      if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        notModified.incrementAndGet();
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return;
+      }
+      exchange.getResponseHeaders().set("ETag", ETAG);
+      send(exchange, "text/turtle", TD);
+    });
+    server.createContext("/status", exchange -> {
+      statusReads.incrementAndGet();
+      String status = status();
+      try {
+        statusGate.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      send(exchange, "application/json", status);
+    });
+    server.createContext("/action", exchange -> {
+      JsonObject payload;
+      try (InputStream in = exchange.getRequestBody()) {
+        payload = JsonParser.parseString(new String(in.readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+      }
+      synchronized (devices) {
+        for (String device : payload.keySet()) {
+          devices.put(device, payload.get(device).getAsBoolean());
+        }
+      }
+      payload.addProperty("cost", 0);
+      send(exchange, "application/json", payload.toString());
+    });
+    server.start();
+  }
+
+  private String status() {
+    synchronized (devices) {
+      JsonObject status = new JsonObject();
+      status.addProperty("Z1Level", devices.get("Z1Light") ? 300 : 0);
+      status.addProperty("Z2Level", devices.get("Z2Light") ? 300 : 0);
+      devices.forEach(status::addProperty);
+      status.addProperty("Sunshine", 0);
+      return status.toString();
+    }
+  }
+
+  private static void send(HttpExchange exchange, String contentType, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.getResponseHeaders().set("Connection", "close");
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Returns the URL of the Thing Description of the lab
+   */
+  String getUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/td";
+  }
+
+  /**
+   * Returns the number of status reads that the lab has received
+   */
+  int getStatusReads() {
+    return statusReads.get();
+  }
+
+  /**
+   * Returns the number of requests for the Thing Description that were answered with
+   * 304 Not Modified
+   */
+  int getNotModified() {
+    return notModified.get();
+  }
+
+  /**
+   * Holds the responses to status reads until the returned latch is counted down;
+   * the status is taken when the read is received
+   */
+  CountDownLatch holdStatusReads() {
+    statusGate = new CountDownLatch(1);
+    return statusGate;
+  }
+
+  /**
+   * Creates a {@link Lab} of this lab from a cached snapshot, without parsing the
+   * Thing Description
+   *
+   * @param cache the cache in which the Thing Description and the snapshot are stored
+   */
+  Lab createLab(ThingDescriptionCache cache, LabHttpClient httpClient) throws IOException {
+    cache.putSnapshot(getUrl(), snapshot(cache.fetch(getUrl(), null).getHash()));
+    return new Lab(getUrl(), httpClient, cache);
+  }
+
+  /**
+   * Returns a snapshot of the lab, whose actions switch the lights, then the
+   * blinds, of each zone
+   */
+  private String snapshot(String tdHash) {
+    String base = getUrl().substring(0, getUrl().length() - "/td".length());
+    List<Map<String, Object>> actions = new ArrayList<>();
+    int axis = 2;
+    for (String device : Arrays.asList("Light", "Blinds")) {
+      for (int zone = 1; zone <= 2; zone++, axis++) {
+        for (boolean payload : Arrays.asList(false, true)) {
+          Map<String, Object> action = new HashMap<>();
+          action.put("type", "http://example.org/was#SetZ" + zone + device);
+          action.put("payloadTag", "Z" + zone + device);
+          action.put("payload", payload);
+          action.put("applicableOnStateAxis", axis);
+          action.put("applicableOnStateValue", payload ? 0 : 1);
+          action.put("method", "POST");
+          action.put("target", base + "/action");
+          action.put("jsonBody", "{\"Z" + zone + device + "\":" + payload + "}");
+          actions.add(action);
+        }
+      }
+    }
+    Map<String, Object> snapshot = new HashMap<>();
+    snapshot.put("version", 1);
+    snapshot.put("tdHash", tdHash);
+    snapshot.put("actions", actions);
+    snapshot.put("statusMethod", "GET");
+    snapshot.put("statusTarget", base + "/status");
+    return new Gson().toJson(snapshot);
+  }
+
+  @Override
+  public void close() {
+    statusGate.countDown();
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
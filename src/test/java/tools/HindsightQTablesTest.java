@@ -0,0 +1,75 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+/**
+ * Tests of the hindsight relabeling of a {@link HindsightQTables}, against the Q
+ * tables of the goals updated one by one
+ */
+public class HindsightQTablesTest {
+
+  private static final double DELTA = 1e-12;
+  private static final int[][] GOALS = { { 0, 0 }, { 3, 1 } };
+
+  @Test
+  public void relabelsTransitionsWithTheRewardOfEachGoal() {
+    SimulatedLab lab = new SimulatedLab(1);
+    HindsightQTables tables = new HindsightQTables(lab, GOALS);
+    int dark = lab.readCurrentState();
+    int lit = lab.step(1);
+    assertTrue(tables.isGoalState(0, dark));
+    assertFalse(tables.isGoalState(0, lit));
+    assertTrue(tables.isGoalState(1, lit));
+
+    // The transition reaches the goal [3,1] only
+    double maxDelta = tables.update(dark, 1, lit, 100, 0.5, 0.9);
+    assertEquals(-0.5, tables.getQTable(0).get(dark, 1), DELTA);
+    assertEquals(50, tables.getQTable(1).get(dark, 1), DELTA);
+    assertEquals(50, maxDelta, DELTA);
+  }
+
+  @Test
+  public void qTablesAreSeparateViewsOfTheSharedValues() {
+    HindsightQTables tables = new HindsightQTables(new SimulatedLab(1), GOALS);
+    assertEquals(2, tables.getGoalCount());
+    assertArrayEquals(new int[]{ 3, 1 }, tables.getGoal(1));
+
+    tables.getQTable(0).set(1023, 7, 5);
+    assertEquals(0, tables.getQTable(1).get(1023, 7), 0);
+    assertEquals(0, tables.getQTable(1).get(0, 0), 0);
+    assertEquals(5, tables.getQTable(0).get(1023, 7), 0);
+  }
+
+  @Test
+  public void updatesEqualSeparateUpdatesOfEachGoal() {
+    SimulatedLab lab = new SimulatedLab(1);
+    HindsightQTables tables = new HindsightQTables(lab, GOALS);
+    QTable[] separate = new QTable[GOALS.length];
+    for (int goal = 0; goal < GOALS.length; goal++) {
+      separate[goal] = new QTable(lab.getStateCount(), lab.getActionCount());
+      separate[goal].setActionMasks(lab.getApplicableActionMasks());
+    }
+
+    SplittableRandom random = new SplittableRandom(5);
+    int state = lab.readCurrentState();
+    for (int step = 0; step < 1000; step++) {
+      int action = random.nextInt(lab.getActionCount());
+      int nextState = lab.step(action);
+      tables.update(state, action, nextState, 100, 0.3, 0.9);
+      for (int goal = 0; goal < GOALS.length; goal++) {
+        double reward = tables.isGoalState(goal, nextState) ? 100 : -1;
+        separate[goal].update(state, action, reward, nextState, 0.3, 0.9);
+      }
+      state = nextState;
+    }
+
+    for (int goal = 0; goal < GOALS.length; goal++) {
+      assertTrue(Arrays.deepEquals(separate[goal].toArray(), tables.getQTable(goal).toArray()));
+      assertArrayEquals(separate[goal].toPolicy(), tables.getQTable(goal).toPolicy());
+    }
+  }
+}
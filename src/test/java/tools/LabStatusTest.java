@@ -0,0 +1,106 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the status reads of a {@link Lab}, which are shared by concurrent
+ * readers and reused while they are fresh, against a {@link FakeLab}
+ */
+public class LabStatusTest {
+
+  private static final int Z1_LIGHT_ON = 1;
+
+  private Path directory;
+  private FakeLab fakeLab;
+  private LabHttpClient httpClient;
+  private Lab lab;
+  private int initialReads;
+
+  @Before
+  public void start() throws IOException {
+    directory = Files.createTempDirectory("td-cache");
+    fakeLab = new FakeLab();
+    httpClient = new LabHttpClient(Timeout.ofSeconds(5), Timeout.ofSeconds(5), 4);
+    lab = fakeLab.createLab(new ThingDescriptionCache(directory, httpClient), httpClient);
+    initialReads = fakeLab.getStatusReads();
+  }
+
+  @After
+  public void stop() throws IOException {
+    httpClient.close();
+    fakeLab.close();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void reusesFreshStatuses() {
+    lab.readCurrentState();
+    lab.readCurrentState();
+    assertEquals(initialReads, fakeLab.getStatusReads());
+  }
+
+  @Test
+  public void concurrentReadersShareAStatusRead() throws Exception {
+    lab.performAction(0);
+    CountDownLatch held = fakeLab.holdStatusReads();
+    CompletableFuture<Integer> first = lab.readCurrentStateAsync();
+    CompletableFuture<Integer> second = lab.readCurrentStateAsync();
+    assertSame(first, second);
+    held.countDown();
+    assertEquals(first.get(), second.get());
+    assertEquals(initialReads + 1, fakeLab.getStatusReads());
+  }
+
+  @Test
+  public void actionsOutdateTheStatus() {
+    lab.readCurrentState();
+    lab.performAction(Z1_LIGHT_ON);
+
+    // The light level of zone 1 is read anew with the light it led to
+    assertEquals(Arrays.asList(3, 0, 1, 0, 0, 0, 0), lab.getStateDescription(lab.readCurrentState()));
+    assertEquals(initialReads + 1, fakeLab.getStatusReads());
+  }
+
+  @Test
+  public void actionsOutdateTheStatusReadInFlight() throws Exception {
+    lab.performAction(0);
+    CountDownLatch held = fakeLab.holdStatusReads();
+    CompletableFuture<Integer> before = lab.readCurrentStateAsync();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (fakeLab.getStatusReads() == initialReads && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    lab.performAction(Z1_LIGHT_ON);
+
+    // The status read before the action is not shared, nor does it overwrite the current state
+    CompletableFuture<Integer> after = lab.readCurrentStateAsync();
+    assertNotSame(before, after);
+    held.countDown();
+    assertEquals(Arrays.asList(0, 0, 0, 0, 0, 0, 0), lab.getStateDescription(before.get()));
+    assertEquals(Arrays.asList(3, 0, 1, 0, 0, 0, 0), lab.getStateDescription(after.get()));
+    assertEquals(Arrays.asList(3, 0, 1, 0, 0, 0, 0), lab.getStateDescription(lab.readCurrentState()));
+  }
+
+  @Test
+  public void stepsReadTheStatusAfterTheAction() {
+    lab.readCurrentState();
+    assertEquals(Arrays.asList(3, 0, 1, 0, 0, 0, 0), lab.getStateDescription(lab.step(Z1_LIGHT_ON)));
+    assertEquals(initialReads + 1, fakeLab.getStatusReads());
+  }
+}
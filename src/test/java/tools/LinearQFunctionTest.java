@@ -0,0 +1,87 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests of the tile coding and of the Q-Learning updates of a {@link LinearQFunction},
+ * over the raw states of a {@link SimulatedLab}: the light levels up to 400 lux,
+ * the devices, and the sunshine up to 1000 lux
+ */
+public class LinearQFunctionTest {
+
+  private static final double DELTA = 1e-12;
+
+  private static int[] encode(LinearQFunction qFunction, double... rawState) {
+    int[] features = new int[qFunction.getTilings()];
+    qFunction.encode(rawState, features);
+    return features;
+  }
+
+  @Test
+  public void eachTilingHasOneActiveFeature() {
+    LinearQFunction qFunction = new LinearQFunction(new SimulatedLab(1), 4, 4);
+
+    // Each tiling cuts the light levels and the sunshine into 4 + 1 tiles
+    int tilingSize = 5 * 5 * 2 * 2 * 2 * 2 * 5;
+    assertEquals(4 * tilingSize, qFunction.getFeatureCount());
+
+    int[] features = encode(qFunction, 120, 380, 1, 0, 1, 1, 640);
+    for (int tiling = 0; tiling < 4; tiling++) {
+      assertTrue(features[tiling] >= tiling * tilingSize);
+      assertTrue(features[tiling] < (tiling + 1) * tilingSize);
+    }
+  }
+
+  @Test
+  public void tilingsAreOffsetFromEachOther() {
+    LinearQFunction qFunction = new LinearQFunction(new SimulatedLab(1), 4, 4);
+
+    // 99 and 101 lux are in different intervals of 100 lux without offset
+    int[] below = encode(qFunction, 99, 0, 0, 0, 0, 0, 0);
+    int[] above = encode(qFunction, 101, 0, 0, 0, 0, 0, 0);
+    assertNotEquals(below[0], above[0]);
+    int shared = 0;
+    for (int tiling = 0; tiling < 4; tiling++) {
+      shared += below[tiling] == above[tiling] ? 1 : 0;
+    }
+    assertEquals(3, shared);
+
+    // The devices are not tile-coded, and values beyond the bounds are clamped
+    assertNotEquals(encode(qFunction, 0, 0, 0, 0, 0, 0, 0)[0], encode(qFunction, 0, 0, 1, 0, 0, 0, 0)[0]);
+    assertArrayEquals(encode(qFunction, 400, 0, 0, 0, 0, 0, 1000), encode(qFunction, 5000, -10, 0, 0, 0, 0, 2000));
+  }
+
+  @Test
+  public void updatesMoveTheQValueAndGeneralize() {
+    LinearQFunction qFunction = new LinearQFunction(new SimulatedLab(1), 4, 4);
+    int[] state = encode(qFunction, 99, 0, 0, 0, 0, 0, 0);
+    int[] nearState = encode(qFunction, 101, 0, 0, 0, 0, 0, 0);
+    int[] farState = encode(qFunction, 350, 0, 0, 0, 0, 0, 0);
+
+    assertEquals(10, qFunction.update(state, 2, 10, farState, 0, 1, 0.9), DELTA);
+    assertEquals(10, qFunction.getValue(state, 2), DELTA);
+    assertEquals(7.5, qFunction.getValue(nearState, 2), DELTA);
+    assertEquals(0, qFunction.getValue(farState, 2), DELTA);
+    assertEquals(0, qFunction.getValue(state, 1), DELTA);
+  }
+
+  @Test
+  public void greedyActionsAreApplicable() {
+    LinearQFunction qFunction = new LinearQFunction(new SimulatedLab(1), 2, 4);
+    int[] state = encode(qFunction, 0, 0, 0, 0, 0, 0, 0);
+    assertEquals(0, qFunction.getMaxAction(state, 0));
+
+    qFunction.update(state, 0, 5, state, 0, 1, 0);
+    qFunction.update(state, 3, 1, state, 0, 1, 0);
+    assertEquals(0, qFunction.getMaxAction(state, 0));
+    assertEquals(3, qFunction.getMaxAction(state, 0b1010));
+    assertEquals(1, qFunction.getMaxValue(state, 0b1010), DELTA);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsFunctionsWithoutTiles() {
+    new LinearQFunction(new SimulatedLab(1), 0, 4);
+  }
+}
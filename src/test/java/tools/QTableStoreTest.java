@@ -0,0 +1,92 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the memory-mapped Q matrix files of a {@link QTableStore}, and of
+ * resuming and repeating training runs from them
+ */
+public class QTableStoreTest {
+
+  private static final StateCodec CODEC = new StateCodec(4, 4, 2, 2, 2, 2, 4);
+  private static final int ACTIONS = 8;
+  private static final int[] GOAL = { 2, 3 };
+
+  private Path directory;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("qtables");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void keepsQValuesAcrossRestarts() throws IOException {
+    QTableStore.Entry entry = new QTableStore(directory, CODEC, ACTIONS).open(GOAL);
+    entry.getQTable().set(17, 3, 4.5);
+    entry.checkpoint(0);
+
+    List<QTableStore.Entry> loaded = new QTableStore(directory, CODEC, ACTIONS).loadAll();
+    assertEquals(1, loaded.size());
+    assertArrayEquals(GOAL, loaded.get(0).getGoal());
+    assertEquals(4.5, loaded.get(0).getQTable().get(17, 3), 0);
+    assertEquals(3, loaded.get(0).getQTable().getMaxAction(17));
+  }
+
+  @Test
+  public void resumesAnInterruptedRun() throws IOException {
+    QTableStore.Entry entry = new QTableStore(directory, CODEC, ACTIONS).open(GOAL);
+    assertEquals(500, entry.prepare(500, 0.1, 0.9, 0.1, 100));
+    entry.checkpoint(200);
+
+    // After a restart, the same run continues with the remaining episodes
+    QTableStore.Entry restored = new QTableStore(directory, CODEC, ACTIONS).open(GOAL);
+    assertEquals(200, restored.getEpisodesCompleted());
+    assertEquals(300, restored.prepare(500, 0.1, 0.9, 0.1, 100));
+  }
+
+  @Test
+  public void retrainsAfterACompletedRun() throws IOException {
+    QTableStore.Entry entry = new QTableStore(directory, CODEC, ACTIONS).open(GOAL);
+    entry.prepare(500, 0.1, 0.9, 0.1, 100);
+    entry.getQTable().set(5, 1, 2);
+    entry.checkpoint(500);
+
+    // The same run again is a new run from the stored Q values
+    QTableStore.Entry restored = new QTableStore(directory, CODEC, ACTIONS).open(GOAL);
+    assertEquals(500, restored.prepare(500, 0.1, 0.9, 0.1, 100));
+    assertEquals(0, restored.getEpisodesCompleted());
+    assertEquals(2, restored.getQTable().get(5, 1), 0);
+  }
+
+  @Test
+  public void startsANewRunWithOtherHyperparameters() throws IOException {
+    QTableStore.Entry entry = new QTableStore(directory, CODEC, ACTIONS).open(GOAL);
+    entry.prepare(500, 0.1, 0.9, 0.1, 100);
+    entry.checkpoint(200);
+    assertEquals(500, entry.prepare(500, 0.2, 0.9, 0.1, 100));
+    assertEquals(0, entry.getEpisodesCompleted());
+  }
+
+  @Test
+  public void skipsFilesOfOtherStateSpaces() throws IOException {
+    new QTableStore(directory, CODEC, ACTIONS).open(GOAL).checkpoint(0);
+    assertTrue(new QTableStore(directory, new StateCodec(4, 4, 4, 2, 2, 2, 2, 2, 2, 4), 12).loadAll().isEmpty());
+  }
+}
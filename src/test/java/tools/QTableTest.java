@@ -0,0 +1,106 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.nio.DoubleBuffer;
+import org.junit.Test;
+
+/**
+ * Tests of the Q values of a {@link QTable}, and of its cached maximum Q value and
+ * argmax of each state
+ */
+public class QTableTest {
+
+  private static final double DELTA = 1e-12;
+
+  @Test
+  public void startsWithZeroQValuesAndTheFirstAction() {
+    QTable qTable = new QTable(4, 3);
+    for (int state = 0; state < 4; state++) {
+      for (int action = 0; action < 3; action++) {
+        assertEquals(0, qTable.get(state, action), 0);
+      }
+      assertEquals(0, qTable.getMaxValue(state), 0);
+      assertEquals(0, qTable.getMaxAction(state));
+    }
+  }
+
+  @Test
+  public void appliesTheQLearningUpdateRule() {
+    QTable qTable = new QTable(2, 2);
+    qTable.set(1, 0, 10);
+
+    // Q(0,1) = 0 + 0.5 * (1 + 0.9 * 10 - 0)
+    double delta = qTable.update(0, 1, 1, 1, 0.5, 0.9);
+    assertEquals(5, delta, DELTA);
+    assertEquals(5, qTable.get(0, 1), DELTA);
+    assertEquals(5, qTable.getMaxValue(0), DELTA);
+    assertEquals(1, qTable.getMaxAction(0));
+  }
+
+  @Test
+  public void tiesAreBrokenInFavorOfTheLowestAction() {
+    QTable qTable = new QTable(1, 3);
+    qTable.set(0, 2, 1);
+    assertEquals(2, qTable.getMaxAction(0));
+    qTable.set(0, 1, 1);
+    assertEquals(1, qTable.getMaxAction(0));
+    qTable.set(0, 2, 1);
+    assertEquals(1, qTable.getMaxAction(0));
+  }
+
+  @Test
+  public void aLowerMaximumRescansTheState() {
+    QTable qTable = new QTable(1, 3);
+    qTable.set(0, 0, 4);
+    qTable.set(0, 1, 6);
+    qTable.set(0, 2, 5);
+    assertEquals(1, qTable.getMaxAction(0));
+
+    qTable.set(0, 1, 2);
+    assertEquals(2, qTable.getMaxAction(0));
+    assertEquals(5, qTable.getMaxValue(0), 0);
+
+    // All the Q values can be negative
+    qTable.set(0, 0, -3);
+    qTable.set(0, 1, -2);
+    qTable.set(0, 2, -1);
+    assertEquals(2, qTable.getMaxAction(0));
+    assertEquals(-1, qTable.getMaxValue(0), 0);
+  }
+
+  @Test
+  public void copiesQValuesAndTheirArgmax() {
+    QTable source = new QTable(2, 2);
+    source.set(0, 1, 3);
+    source.set(1, 0, -1);
+    source.set(1, 1, -2);
+
+    QTable copy = new QTable(2, 2, DoubleBuffer.allocate(4));
+    copy.copyFrom(source);
+    assertArrayEquals(source.toArray(), copy.toArray());
+    assertArrayEquals(new int[]{ 1, 0 }, copy.toPolicy());
+    assertEquals(-1, copy.getMaxValue(1), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void doesNotCopyQMatricesOfOtherSizes() {
+    new QTable(2, 2).copyFrom(new QTable(3, 2));
+  }
+
+  @Test
+  public void updatesPoliciesInPlace() {
+    QTable qTable = new QTable(3, 2);
+    int[] policy = qTable.toPolicy();
+    qTable.set(0, 1, 1);
+    qTable.set(2, 1, 1);
+    assertEquals(2, qTable.updatePolicy(policy));
+    assertArrayEquals(new int[]{ 1, 0, 1 }, policy);
+    assertEquals(0, qTable.updatePolicy(policy));
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void rejectsQMatricesTooLargeForAnArray() {
+    new QTable(Integer.MAX_VALUE / 2, 8);
+  }
+}
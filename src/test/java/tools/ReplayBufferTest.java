@@ -0,0 +1,82 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+/**
+ * Tests of the ring buffer of transitions of a {@link ReplayBuffer}, and of the
+ * sampling of replayed transitions
+ */
+public class ReplayBufferTest {
+
+  /** A learning rate small enough for a Q value to count its replays */
+  private static final double COUNTING_ALPHA = 1e-6;
+
+  /**
+   * Returns a Q matrix whose Q value of state s counts (in millionths) the replays
+   * of the transition from s, after replaying a buffer with one transition per state
+   */
+  private static QTable countReplays(ReplayBuffer buffer, int stateCount, int replays) {
+    QTable qTable = new QTable(stateCount, 1);
+    buffer.replay(qTable, replays, COUNTING_ALPHA, 0, new SplittableRandom(1));
+    return qTable;
+  }
+
+  @Test
+  public void doesNotReplayAnEmptyBuffer() {
+    ReplayBuffer buffer = new ReplayBuffer(4, ReplayBuffer.Sampling.UNIFORM);
+    assertEquals(0, buffer.replay(new QTable(1, 1), 10, 1, 0, new SplittableRandom(1)));
+  }
+
+  @Test
+  public void replacesTheOldestTransitionsWhenFull() {
+    ReplayBuffer buffer = new ReplayBuffer(3, ReplayBuffer.Sampling.UNIFORM);
+    for (int state = 0; state < 5; state++) {
+      buffer.add(state, 0, 1, state);
+    }
+    assertEquals(3, buffer.size());
+    assertEquals(3, buffer.capacity());
+
+    QTable qTable = new QTable(5, 1);
+    assertEquals(100, buffer.replay(qTable, 100, 1, 0, new SplittableRandom(1)));
+    assertEquals(0, qTable.get(0, 0), 0);
+    assertEquals(0, qTable.get(1, 0), 0);
+    for (int state = 2; state < 5; state++) {
+      assertEquals(1, qTable.get(state, 0), 0);
+    }
+  }
+
+  @Test
+  public void replaysAllTransitionsAlikeWithUniformSampling() {
+    ReplayBuffer buffer = new ReplayBuffer(10, ReplayBuffer.Sampling.UNIFORM);
+    for (int state = 0; state < 10; state++) {
+      buffer.add(state, 0, 1, state);
+    }
+    QTable qTable = countReplays(buffer, 10, 100_000);
+    for (int state = 0; state < 10; state++) {
+      assertEquals(0.01, qTable.get(state, 0), 0.002);
+    }
+  }
+
+  @Test
+  public void replaysRecentTransitionsMoreOftenWithRecencySampling() {
+    ReplayBuffer buffer = new ReplayBuffer(10, ReplayBuffer.Sampling.RECENCY);
+    for (int state = 0; state < 15; state++) {
+      buffer.add(state % 10, 0, 1, state % 10);
+    }
+
+    // The newest transition is from state 4 and the oldest from state 5: the
+    // transition of age k is replayed with the probability (19 - 2k) / 100
+    QTable qTable = countReplays(buffer, 10, 100_000);
+    assertEquals(0.019, qTable.get(4, 0), 0.002);
+    assertEquals(0.001, qTable.get(5, 0), 0.0005);
+    assertTrue(qTable.get(3, 0) < qTable.get(4, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyCapacities() {
+    new ReplayBuffer(0, ReplayBuffer.Sampling.UNIFORM);
+  }
+}
@@ -0,0 +1,96 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Tests of the physics of a {@link SimulatedLab}, which follow the "Update action"
+ * and "Update environment" nodes of simulator/simulator_flow.json
+ */
+public class SimulatedLabTest {
+
+  // The actions of the lab: each device is switched off, then on
+  private static final int Z1_LIGHT_ON = 1;
+  private static final int Z2_LIGHT_ON = 3;
+  private static final int Z1_BLINDS_ON = 5;
+  private static final int Z1_BLINDS_OFF = 4;
+
+  @Test
+  public void startsDarkWithAllDevicesOff() {
+    SimulatedLab lab = new SimulatedLab(1);
+    assertEquals(Arrays.asList(0, 0, 0, 0, 0, 0, 0), lab.getStateDescription(lab.readCurrentState()));
+    assertEquals(8, lab.getActionCount());
+    assertEquals(1024, lab.getStateCount());
+  }
+
+  @Test
+  public void lightsLightBothZones() {
+    SimulatedLab lab = new SimulatedLab(1);
+    lab.performAction(Z1_LIGHT_ON);
+    assertEquals(300, lab.getZ1Level(), 0);
+    assertEquals(50, lab.getZ2Level(), 0);
+    assertEquals(100, lab.getEnergyCost());
+    assertEquals(1, lab.getTotalEnergyCost());
+
+    lab.performAction(Z2_LIGHT_ON);
+    assertEquals(350, lab.getZ1Level(), 0);
+    assertEquals(350, lab.getZ2Level(), 0);
+    assertEquals(3, lab.getTotalEnergyCost());
+    assertEquals(Arrays.asList(3, 3, 1, 1, 0, 0, 2), lab.getStateDescription(lab.readCurrentState()));
+  }
+
+  @Test
+  public void blindsLetInTheSunshineOfThePreviousTick() {
+    SimulatedLab lab = new SimulatedLab(1);
+
+    // There is no sunshine yet in the tick before the first action
+    lab.performAction(Z1_BLINDS_ON);
+    assertEquals(0, lab.getZ1Level(), 0);
+    assertEquals(5, lab.getEnergyCost());
+    double sunshine = lab.getSunshine();
+    assertTrue(sunshine >= 600 && sunshine < 650);
+
+    lab.updateEnvironment();
+    assertEquals(sunshine * 0.5, lab.getZ1Level(), 1e-9);
+    assertEquals(sunshine * 0.25, lab.getZ2Level(), 1e-9);
+    assertEquals(0, lab.getTotalEnergyCost());
+
+    lab.performAction(Z1_BLINDS_OFF);
+    assertEquals(0, lab.getZ1Level(), 0);
+    assertEquals(0, lab.getZ2Level(), 0);
+  }
+
+  @Test
+  public void eachActionAdvancesTheClockByOneTick() {
+    SimulatedLab lab = new SimulatedLab(1);
+    for (int tick = 0; tick < 10; tick++) {
+      lab.performAction(0);
+    }
+    assertEquals(1.0, lab.getHour(), 1e-9);
+    lab.reset();
+    assertEquals(0, lab.getHour(), 0);
+  }
+
+  @Test
+  public void sameSeedsGiveTheSameSunshine() {
+    SimulatedLab first = new SimulatedLab(42);
+    SimulatedLab second = new SimulatedLab(42);
+    for (int tick = 0; tick < 100; tick++) {
+      int action = tick % 8;
+      assertEquals(first.step(action), second.step(action));
+      assertEquals(first.getSunshine(), second.getSunshine(), 0);
+    }
+  }
+
+  @Test
+  public void actionsAreApplicableIfTheyChangeTheirDevice() {
+    SimulatedLab lab = new SimulatedLab(1);
+    int dark = lab.readCurrentState();
+    assertEquals(Arrays.asList(1, 3, 5, 7), lab.getApplicableActions(dark));
+
+    lab.performAction(Z1_LIGHT_ON);
+    assertEquals(Arrays.asList(0, 3, 5, 7), lab.getApplicableActions(lab.readCurrentState()));
+  }
+}
@@ -0,0 +1,121 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+/**
+ * Tests of a {@link SparseQTable}, and of sparse training against the Q tables
+ * of dense training
+ */
+public class SparseQTableTest {
+
+  private static final double DELTA = 1e-12;
+
+  @Test
+  public void unvisitedStatesHaveZeroQValues() {
+    SparseQTable qTable = new SparseQTable(4, 4, key -> 0);
+    assertEquals(0, qTable.size());
+    assertEquals(0.0, qTable.get(42, 3), DELTA);
+    assertEquals(0.0, qTable.getMaxValue(42), DELTA);
+    assertEquals(0, qTable.getMaxAction(42));
+  }
+
+  @Test
+  public void updatesInsertTheState() {
+    SparseQTable qTable = new SparseQTable(4, 4, key -> 0);
+    double delta = qTable.update(7, 2, 10, 8, 0.5, 0.9);
+    assertEquals(5.0, delta, DELTA);
+    assertEquals(1, qTable.size());
+    assertEquals(5.0, qTable.get(7, 2), DELTA);
+    assertEquals(0.0, qTable.get(7, 1), DELTA);
+    assertEquals(5.0, qTable.getMaxValue(7), DELTA);
+    assertEquals(2, qTable.getMaxAction(7));
+
+    // The next state is only read
+    assertEquals(0.0, qTable.getMaxValue(8), DELTA);
+    assertEquals(1, qTable.size());
+  }
+
+  @Test
+  public void growingKeepsTheQValues() {
+    SparseQTable qTable = new SparseQTable(3, 2, key -> 0);
+    int initialCapacity = qTable.capacity();
+    int states = 1000;
+    for (int i = 0; i < states; i++) {
+      long key = (long) i * 1_000_003L + (1L << 40);
+      qTable.update(key, i % 3, i, key, 1, 0);
+    }
+    assertEquals(states, qTable.size());
+    assertTrue(qTable.capacity() >= states);
+    assertTrue(qTable.capacity() > initialCapacity);
+    for (int i = 0; i < states; i++) {
+      long key = (long) i * 1_000_003L + (1L << 40);
+      assertEquals(i, qTable.get(key, i % 3), DELTA);
+      assertEquals(i, qTable.getMaxValue(key), DELTA);
+      assertEquals(i == 0 ? 0 : i % 3, qTable.getMaxAction(key));
+    }
+  }
+
+  @Test
+  public void lowerMaximumRescansTheState() {
+    SparseQTable qTable = new SparseQTable(3, 4, key -> 0);
+    qTable.update(1, 0, 4, 1, 1, 0);
+    qTable.update(1, 1, 6, 1, 1, 0);
+    qTable.update(1, 2, 5, 1, 1, 0);
+    assertEquals(1, qTable.getMaxAction(1));
+
+    // The best action gets worse than the others
+    qTable.update(1, 1, 2, 1, 1, 0);
+    assertEquals(2, qTable.getMaxAction(1));
+    assertEquals(5.0, qTable.getMaxValue(1), DELTA);
+  }
+
+  @Test
+  public void onlyApplicableActionsAreMaximal() {
+    // Only the actions 1 and 3 are applicable in even states, and 0 and 2 in odd states
+    SparseQTable qTable = new SparseQTable(4, 4, key -> key % 2 == 0 ? 0b1010 : 0b0101);
+    assertEquals(1, qTable.getMaxAction(2));
+    assertEquals(0, qTable.getMaxAction(3));
+
+    qTable.update(2, 0, 100, 2, 1, 0);
+    qTable.update(2, 3, -1, 2, 1, 0);
+    assertEquals(1, qTable.getMaxAction(2));
+    assertEquals(0.0, qTable.getMaxValue(2), DELTA);
+
+    qTable.update(2, 1, -2, 2, 1, 0);
+    assertEquals(3, qTable.getMaxAction(2));
+    assertEquals(-1.0, qTable.getMaxValue(2), DELTA);
+  }
+
+  @Test
+  public void sparseTrainingLearnsTheQValuesOfDenseTraining() {
+    QLearner learner = new QLearner();
+    learner.init();
+    Object[] goal = { 2, 3 };
+
+    // The same simulated lab and random numbers for both runs
+    SimulatedLab denseLab = new SimulatedLab(7);
+    SimulatedLab sparseLab = new SimulatedLab(7);
+    QTable dense = new QTable(denseLab.getStateCount(), denseLab.getActionCount());
+    dense.setActionMasks(denseLab.getApplicableActionMasks());
+    SparseQTable sparse = new SparseQTable(sparseLab.getActionCount(), 4, sparseLab::getApplicableActionMask);
+    TrainingController denseController = new TrainingController(0.1, 1, 0, 0.1, 1, 0, 0, 0, 0);
+    TrainingController sparseController = new TrainingController(0.1, 1, 0, 0.1, 1, 0, 0, 0, 0);
+    denseController.start(dense, 0);
+    sparseController.start(null, 0);
+
+    learner.train(denseLab, dense, goal, 200, denseController, 0.9, 100, new SplittableRandom(3), null, e -> { });
+    learner.trainSparse(sparseLab, sparse, goal, 200, sparseController, 0.9, 100, new SplittableRandom(3), e -> { });
+
+    assertTrue(sparse.size() > 0);
+    assertTrue(sparse.size() < dense.getStateCount());
+    for (int state = 0; state < dense.getStateCount(); state++) {
+      for (int action = 0; action < dense.getActionCount(); action++) {
+        assertEquals(dense.get(state, action), sparse.get(state, action), DELTA);
+      }
+      assertEquals(dense.getMaxAction(state), sparse.getMaxAction(state));
+    }
+  }
+}
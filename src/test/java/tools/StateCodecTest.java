@@ -0,0 +1,136 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+/**
+ * Tests of the encoding of states to int indices and long keys by a
+ * {@link StateCodec}
+ */
+public class StateCodecTest {
+
+  /** The radices of the state space of a lab with two zones */
+  private static final int[] LAB = { 4, 4, 2, 2, 2, 2, 4 };
+
+  /** The radices of the state space of a lab with eight zones, which only has long keys */
+  private static final int[] EIGHT_ZONES = radices(8);
+
+  private static int[] radices(int zones) {
+    int[] radices = new int[3 * zones + 1];
+    Arrays.fill(radices, 0, zones, 4);
+    Arrays.fill(radices, zones, 3 * zones, 2);
+    radices[3 * zones] = 4;
+    return radices;
+  }
+
+  @Test
+  public void encodesStatesInCartesianOrder() {
+    StateCodec codec = new StateCodec(LAB);
+    assertEquals(1024, codec.size());
+    assertEquals(0, codec.encode(0, 0, 0, 0, 0, 0, 0));
+    assertEquals(1, codec.encode(0, 0, 0, 0, 0, 0, 1));
+    assertEquals(1023, codec.encode(3, 3, 1, 1, 1, 1, 3));
+  }
+
+  @Test
+  public void indicesArePositionsInTheCartesianProduct() {
+    StateCodec codec = new StateCodec(LAB);
+    List<Set<Integer>> axes = new ArrayList<>();
+    for (int radix : LAB) {
+      Set<Integer> values = new LinkedHashSet<>();
+      for (int value = 0; value < radix; value++) {
+        values.add(value);
+      }
+      axes.add(values);
+    }
+
+    int index = 0;
+    for (List<Integer> state : Sets.cartesianProduct(axes)) {
+      assertEquals(index, codec.encode(state));
+      assertEquals(state, codec.toList(index));
+      index++;
+    }
+    assertEquals(codec.size(), index);
+  }
+
+  @Test
+  public void decodesSingleAxesAndWholeStates() {
+    StateCodec codec = new StateCodec(LAB);
+    int index = codec.encode(2, 3, 1, 0, 1, 0, 3);
+    assertEquals(3, codec.decode(index, 1));
+    assertEquals(1, codec.decode(index, 4));
+    assertArrayEquals(new int[]{ 2, 3, 1, 0, 1, 0, 3 }, codec.decode(index, new int[LAB.length]));
+    assertEquals(codec.stride(0), codec.encode(1, 0, 0, 0, 0, 0, 0));
+  }
+
+  @Test
+  public void setsOneAxisOfAnIndex() {
+    StateCodec codec = new StateCodec(LAB);
+    int index = codec.encode(2, 3, 1, 0, 1, 0, 3);
+    assertEquals(codec.encode(2, 3, 1, 1, 1, 0, 3), codec.with(index, 3, 1));
+    assertEquals(codec.encode(0, 3, 1, 0, 1, 0, 3), codec.with(index, 0, 0));
+    assertEquals(index, codec.with(index, 6, 3));
+  }
+
+  @Test
+  public void keysOfIndexableStatesAreTheirIndices() {
+    StateCodec codec = new StateCodec(LAB);
+    int[] state = new int[LAB.length];
+    for (int index = 0; index < codec.size(); index++) {
+      codec.decode(index, state);
+      assertEquals(index, codec.encodeKey(state));
+      assertEquals(index, codec.encodeKey(Arrays.asList(Arrays.stream(state).boxed().toArray(Integer[]::new))));
+    }
+  }
+
+  @Test
+  public void decodesKeysOfLargeStateSpaces() {
+    StateCodec codec = new StateCodec(EIGHT_ZONES);
+    assertFalse(codec.isIndexable());
+    assertEquals(-1, codec.encode(new int[EIGHT_ZONES.length]));
+    assertEquals(1L << 34, codec.keyCount());
+
+    int[] state = new int[EIGHT_ZONES.length];
+    for (int axis = 0; axis < state.length; axis++) {
+      state[axis] = (axis * 7 + 3) % EIGHT_ZONES[axis];
+    }
+    long key = codec.encodeKey(state);
+    assertTrue(key > Integer.MAX_VALUE);
+    for (int axis = 0; axis < state.length; axis++) {
+      assertEquals(state[axis], codec.decodeKey(key, axis));
+    }
+
+    // The first and the last keys
+    int[] last = new int[EIGHT_ZONES.length];
+    for (int axis = 0; axis < last.length; axis++) {
+      last[axis] = EIGHT_ZONES[axis] - 1;
+    }
+    assertEquals(0, codec.encodeKey(new int[EIGHT_ZONES.length]));
+    assertEquals(codec.keyCount() - 1, codec.encodeKey(last));
+  }
+
+  @Test
+  public void rejectsMissingAndOutOfRangeValues() {
+    StateCodec codec = new StateCodec(LAB);
+    assertEquals(-1, codec.encode(4, 0, 0, 0, 0, 0, 0));
+    assertEquals(-1, codec.encodeKey(0, 0, 2, 0, 0, 0, 0));
+    assertEquals(-1, codec.encodeKey(0, 0, 0, 0, 0, 0, -1));
+    assertEquals(-1, codec.encodeKey(Arrays.asList(0, 0, 0, 0, 0, 0, null)));
+    assertEquals(-1, codec.encode(Arrays.asList(new Integer[LAB.length])));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsStateSpacesTooLargeForLongKeys() {
+    new StateCodec(radices(16));
+  }
+
+  @Test
+  public void codecsWithTheSameRadicesAreEqual() {
+    assertEquals(new StateCodec(LAB), new StateCodec(LAB.clone()));
+    assertEquals(new StateCodec(LAB).hashCode(), new StateCodec(LAB.clone()).hashCode());
+    assertNotEquals(new StateCodec(LAB), new StateCodec(radices(3)));
+  }
+}
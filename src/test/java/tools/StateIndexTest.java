@@ -0,0 +1,55 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+/**
+ * Tests of the substate queries of a {@link StateIndex}, against a scan of the
+ * state space
+ */
+public class StateIndexTest {
+
+  private static final StateCodec CODEC = new StateCodec(4, 4, 2, 2, 2, 2, 4);
+  private static final StateIndex INDEX = new StateIndex(CODEC);
+
+  /** Returns the states that match a substate description by scanning the state space */
+  private static int[] scan(int... values) {
+    return IntStream.range(0, CODEC.size()).filter(state -> {
+      for (int axis = 0; axis < values.length; axis++) {
+        if (values[axis] != StateIndex.ANY && CODEC.decode(state, axis) != values[axis]) {
+          return false;
+        }
+      }
+      return true;
+    }).toArray();
+  }
+
+  @Test
+  public void selectsTheStatesOfAGoal() {
+    assertArrayEquals(scan(2, 3), INDEX.stream(2, 3).toArray());
+    assertEquals(64, INDEX.count(2, 3));
+  }
+
+  @Test
+  public void skipsAxesThatMatchAnyValue() {
+    assertArrayEquals(scan(StateIndex.ANY, 1, 1, StateIndex.ANY, 0), INDEX.stream(StateIndex.ANY, 1, 1, StateIndex.ANY, 0).toArray());
+    assertEquals(CODEC.size(), INDEX.count());
+    assertEquals(CODEC.size(), INDEX.count(StateIndex.ANY, StateIndex.ANY));
+  }
+
+  @Test
+  public void selectsNothingForInvalidDescriptions() {
+    assertEquals(0, INDEX.count(4));
+    assertEquals(0, INDEX.count(0, 0, 0, 0, 0, 0, 0, 0));
+  }
+
+  @Test
+  public void returnsBitsetsThatCanBeModified() {
+    BitSet selected = INDEX.select(1);
+    selected.clear();
+    assertEquals(256, INDEX.count(1));
+  }
+}
@@ -0,0 +1,88 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the disk cache of Thing Descriptions of a {@link ThingDescriptionCache},
+ * and of restoring a {@link Lab} from a cached snapshot, against a {@link FakeLab}
+ */
+public class ThingDescriptionCacheTest {
+
+  private Path directory;
+  private FakeLab fakeLab;
+  private LabHttpClient httpClient;
+
+  @Before
+  public void start() throws IOException {
+    directory = Files.createTempDirectory("td-cache");
+    fakeLab = new FakeLab();
+    httpClient = new LabHttpClient(Timeout.ofSeconds(5), Timeout.ofSeconds(5), 4);
+  }
+
+  @After
+  public void stop() throws IOException {
+    httpClient.close();
+    fakeLab.close();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void isDisabledByDefault() {
+    assertNull(System.getProperty("lab.td.cacheDirectory"));
+    assertNull(ThingDescriptionCache.getDefault());
+  }
+
+  @Test
+  public void revalidatesCachedThingDescriptions() throws IOException {
+    ThingDescriptionCache cache = new ThingDescriptionCache(directory, httpClient);
+    assertNull(cache.get(fakeLab.getUrl()));
+
+    ThingDescriptionCache.Entry fetched = cache.fetch(fakeLab.getUrl(), null);
+    assertEquals(FakeLab.TD, fetched.getContent());
+    assertEquals(FakeLab.ETAG, fetched.getEtag());
+
+    ThingDescriptionCache.Entry cached = new ThingDescriptionCache(directory, httpClient).get(fakeLab.getUrl());
+    assertEquals(fetched.getHash(), cached.getHash());
+    assertSame(cached, cache.fetch(fakeLab.getUrl(), cached));
+    assertEquals(1, fakeLab.getNotModified());
+  }
+
+  @Test
+  public void ignoresCorruptedThingDescriptions() throws IOException {
+    ThingDescriptionCache cache = new ThingDescriptionCache(directory, httpClient);
+    cache.fetch(fakeLab.getUrl(), null);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.ttl")) {
+      for (Path file : files) {
+        Files.write(file, FakeLab.TD.substring(0, 10).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    assertNull(cache.get(fakeLab.getUrl()));
+  }
+
+  @Test
+  public void restoresLabsWithTheRequestsOfTheirActions() throws IOException {
+    Lab lab = fakeLab.createLab(new ThingDescriptionCache(directory, httpClient), httpClient);
+    assertEquals(Arrays.asList(1, 2), lab.getZones());
+    assertEquals(8, lab.getActionCount());
+    for (int action = 0; action < lab.getActionCount(); action++) {
+      assertNotNull(lab.getAction(action).getRequest());
+    }
+    assertEquals("http://example.org/was#SetZ1Light", lab.getAction(1).getActionTag());
+    assertArrayEquals(new Object[]{ true }, lab.getAction(1).getPayload());
+    assertEquals(Arrays.asList(0, 0, 0, 0, 0, 0, 0), lab.getStateDescription(lab.readCurrentState()));
+  }
+}
@@ -0,0 +1,98 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests of the decay schedules and of the convergence criterion of a
+ * {@link TrainingController}
+ */
+public class TrainingControllerTest {
+
+  private static final double DELTA = 1e-12;
+
+  @Test
+  public void decaysDownToTheMinimum() {
+    TrainingController controller = new TrainingController(0.8, 0.5, 0.1, 1, 0.9, 0.5, 0, 0, 0);
+    controller.start(null, 0);
+    assertEquals(0.8, controller.getAlpha(), DELTA);
+    assertEquals(1, controller.getEpsilon(), DELTA);
+
+    controller.endEpisode(null, 1);
+    controller.endEpisode(null, 1);
+    assertEquals(0.2, controller.getAlpha(), DELTA);
+    assertEquals(0.81, controller.getEpsilon(), DELTA);
+
+    for (int episode = 0; episode < 20; episode++) {
+      assertFalse(controller.endEpisode(null, 1));
+    }
+    assertEquals(0.1, controller.getAlpha(), DELTA);
+    assertEquals(0.5, controller.getEpsilon(), DELTA);
+    assertEquals(22, controller.getEpisodes());
+    assertEquals(TrainingController.StopReason.EPISODES, controller.getStopReason());
+  }
+
+  @Test
+  public void resumedRunsContinueTheSchedule() {
+    TrainingController controller = new TrainingController(0.8, 0.5, 0.1, 0.1, 1, 0, 0, 0, 0);
+    controller.start(null, 2);
+    assertEquals(0.2, controller.getAlpha(), DELTA);
+    assertEquals(0.1, controller.getEpsilon(), DELTA);
+    assertEquals(0, controller.getEpisodes());
+  }
+
+  @Test
+  public void stopsOnceTheQValuesAndThePolicyAreStable() {
+    QTable qTable = new QTable(2, 2);
+    TrainingController controller = new TrainingController(0.1, 1, 0, 0.1, 1, 0, 0.01, 0, 3);
+    controller.start(qTable, 0);
+
+    assertFalse(controller.endEpisode(qTable, 0.001));
+    assertFalse(controller.endEpisode(qTable, 0.001));
+
+    // A change of the greedy policy restarts the window
+    qTable.set(1, 1, 0.005);
+    assertFalse(controller.endEpisode(qTable, 0.005));
+    assertFalse(controller.endEpisode(qTable, 0.001));
+    assertFalse(controller.endEpisode(qTable, 0.001));
+
+    // So does a large change of a Q value
+    assertFalse(controller.endEpisode(qTable, 0.5));
+    assertFalse(controller.endEpisode(qTable, 0));
+    assertFalse(controller.endEpisode(qTable, 0));
+    assertTrue(controller.endEpisode(qTable, 0));
+    assertEquals(TrainingController.StopReason.CONVERGED, controller.getStopReason());
+    assertEquals(9, controller.getEpisodes());
+  }
+
+  @Test
+  public void approximatedQValuesConvergeOnTheirChanges() {
+    TrainingController controller = new TrainingController(0.1, 1, 0, 0.1, 1, 0, 0.01, 0, 2);
+    controller.start(null, 0);
+    assertFalse(controller.endEpisode(null, 0.001));
+    assertTrue(controller.endEpisode(null, 0.001));
+  }
+
+  @Test
+  public void fixedControllersNeverStopEarly() {
+    TrainingController controller = TrainingController.fixed(0.1, 0.2);
+    controller.start(new QTable(1, 1), 0);
+    for (int episode = 0; episode < 100; episode++) {
+      assertFalse(controller.endEpisode(null, 0));
+    }
+    assertEquals(0.1, controller.getAlpha(), 0);
+    assertEquals(0.2, controller.getEpsilon(), 0);
+  }
+
+  @Test
+  public void cancelledRunsStopAfterTheEpisode() {
+    TrainingController controller = TrainingController.fixed(0.1, 0.2);
+    controller.start(null, 0);
+    assertFalse(controller.endEpisode(null, 1));
+    controller.cancel();
+    assertTrue(controller.endEpisode(null, 1));
+    assertEquals(TrainingController.StopReason.CANCELLED, controller.getStopReason());
+    assertEquals(2, controller.getEpisodes());
+  }
+}
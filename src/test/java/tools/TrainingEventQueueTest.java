@@ -0,0 +1,68 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests of the bounded, sampled queue of training step events of a
+ * {@link TrainingEventQueue}
+ */
+public class TrainingEventQueueTest {
+
+  private static List<Integer> drainSteps(TrainingEventQueue events, int maxEvents) {
+    List<Integer> steps = new ArrayList<>();
+    events.drain((step, state, action, reward) -> steps.add(step), maxEvents);
+    return steps;
+  }
+
+  @Test
+  public void passesEventsInOrder() {
+    TrainingEventQueue events = new TrainingEventQueue(8);
+    for (int step = 0; step < 5; step++) {
+      assertTrue(events.offer(step, 10 + step, step % 2, -1));
+    }
+    List<double[]> handled = new ArrayList<>();
+    assertEquals(5, events.drain((step, state, action, reward) -> handled.add(new double[]{ step, state, action, reward }), 100));
+    assertArrayEquals(new double[]{ 3, 13, 1, -1 }, handled.get(3), 0);
+    assertEquals(0, events.drain((step, state, action, reward) -> fail(), 100));
+  }
+
+  @Test
+  public void samplesManyEventsEndingWithTheLastOne() {
+    TrainingEventQueue events = new TrainingEventQueue(16);
+    for (int step = 0; step < 10; step++) {
+      events.offer(step, 0, 0, 0);
+    }
+    assertEquals(Arrays.asList(1, 5, 9), drainSteps(events, 3));
+  }
+
+  @Test
+  public void dropsEventsWhenFull() {
+    TrainingEventQueue events = new TrainingEventQueue(4);
+    for (int step = 0; step < 4; step++) {
+      assertTrue(events.offer(step, 0, 0, 0));
+    }
+    assertFalse(events.offer(4, 0, 0, 0));
+    assertEquals(1, events.getDroppedCount());
+
+    // Draining makes room again, across the end of the ring buffer
+    assertEquals(4, drainSteps(events, 100).size());
+    assertTrue(events.offer(5, 0, 0, 0));
+    assertEquals(Arrays.asList(5), drainSteps(events, 100));
+  }
+
+  @Test
+  public void isDrainedOnceClosedAndConsumed() {
+    TrainingEventQueue events = new TrainingEventQueue(4);
+    events.offer(0, 0, 0, 0);
+    assertFalse(events.isDrained());
+    events.close();
+    assertFalse(events.isDrained());
+    drainSteps(events, 100);
+    assertTrue(events.isDrained());
+  }
+}
@@ -0,0 +1,57 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+
+/**
+ * Tests of the status of a background {@link TrainingJob}, and of the online
+ * updates that it applies to its Q matrix before it is installed
+ */
+public class TrainingJobTest {
+
+  private static final Object[] GOAL = { 2, 3 };
+
+  @Test
+  public void appliesObservedTransitionsInOrder() {
+    TrainingJob job = new TrainingJob(1, GOAL, 10, TrainingController.fixed(0.1, 0.1));
+    job.observeTransition(1, 0, 10, 2, 0.5, 0);
+    job.observeTransition(0, 1, -1, 1, 1, 0.9);
+
+    // Q(1,0) = 5, then Q(0,1) = -1 + 0.9 * 5
+    QTable qTable = new QTable(3, 2);
+    assertEquals(2, job.applyObservedTransitions(qTable));
+    assertEquals(5, qTable.get(1, 0), 1e-12);
+    assertEquals(3.5, qTable.get(0, 1), 1e-12);
+    assertEquals(0, job.applyObservedTransitions(new QTable(3, 2)));
+  }
+
+  @Test
+  public void reportsTheStatusOfTheRun() {
+    TrainingController controller = TrainingController.fixed(0.1, 0.1);
+    TrainingJob job = new TrainingJob(1, GOAL, 10, controller);
+    CompletableFuture<QTable> result = new CompletableFuture<>();
+    job.setResult(result);
+    assertEquals(TrainingJob.Status.RUNNING, job.getStatus());
+    assertFalse(job.isDone());
+
+    controller.start(null, 0);
+    controller.cancel();
+    controller.endEpisode(null, 0);
+    result.complete(new QTable(1, 1));
+    assertTrue(job.isDone());
+    assertEquals(TrainingJob.Status.CANCELLED, job.getStatus());
+    assertFalse(job.isFinished());
+  }
+
+  @Test
+  public void failedRunsHaveNoQMatrix() {
+    TrainingJob job = new TrainingJob(1, GOAL, 10, TrainingController.fixed(0.1, 0.1));
+    CompletableFuture<QTable> result = new CompletableFuture<>();
+    result.completeExceptionally(new IllegalStateException("The lab could not be read"));
+    job.setResult(result);
+    assertNull(job.getQTable());
+    assertEquals(TrainingJob.Status.FAILED, job.getStatus());
+  }
+}
@@ -0,0 +1,50 @@
+package tools;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests of the immutable training settings of a {@link TrainingSettings}
+ */
+public class TrainingSettingsTest {
+
+  @Test
+  public void changingASettingKeepsTheOthers() {
+    TrainingSettings settings = TrainingSettings.DEFAULT.withPlanning(5)
+        .withReplay(1000, 16, ReplayBuffer.Sampling.RECENCY)
+        .withSchedule(0.5, 0.1, 0.5, 0.05);
+
+    assertEquals(5, settings.getPlanningSteps());
+    assertEquals(1000, settings.getReplayCapacity());
+    assertEquals(16, settings.getReplayBatchSize());
+    assertEquals(ReplayBuffer.Sampling.RECENCY, settings.getReplaySampling());
+
+    // The settings that were changed are left as they were
+    assertEquals(0, TrainingSettings.DEFAULT.getPlanningSteps());
+    assertEquals(0, TrainingSettings.DEFAULT.getReplayCapacity());
+  }
+
+  @Test
+  public void controllersFollowTheSchedules() {
+    TrainingController controller = TrainingSettings.DEFAULT.withSchedule(0.5, 0.1, 0.5, 0.05).newController(0.8, 0.4);
+    controller.start(null, 0);
+    assertEquals(0.8, controller.getAlpha(), 1e-12);
+    controller.endEpisode(null, 1);
+    assertEquals(0.4, controller.getAlpha(), 1e-12);
+    assertEquals(0.2, controller.getEpsilon(), 1e-12);
+    controller.endEpisode(null, 1);
+    controller.endEpisode(null, 1);
+    assertEquals(0.1, controller.getAlpha(), 1e-12);
+    assertEquals(0.05, controller.getEpsilon(), 1e-12);
+  }
+
+  @Test
+  public void controllersStopOnceConverged() {
+    TrainingController controller = TrainingSettings.DEFAULT.withConvergence(0.01, 0, 2).newController(0.1, 0.1);
+    controller.start(null, 0);
+    assertFalse(controller.endEpisode(null, 0.001));
+    assertTrue(controller.endEpisode(null, 0.001));
+    assertEquals(TrainingController.StopReason.CONVERGED, controller.getStopReason());
+  }
+}